@@ -1,10 +1,11 @@
 package p2.btrfs;
 
-import p2.storage.EmptyStorageView;
 import p2.storage.Interval;
 import p2.storage.Storage;
 import p2.storage.StorageView;
+import p2.storage.StorageViewBuilder;
 
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -40,6 +41,12 @@ public class BtrfsFile {
      */
     private int size;
 
+    /**
+     * Whether the nodes of this file may be shared with a snapshot.
+     * If so, nodes are copied before they are modified.
+     */
+    private boolean shared = false;
+
     /**
      * Creates a new {@link BtrfsFile} instance.
      *
@@ -61,39 +68,35 @@ public class BtrfsFile {
      * @return a {@link StorageView} containing all data that is stored in this file.
      */
     public StorageView readAll() {
-        return readAll(root);
+        StorageViewBuilder builder = new StorageViewBuilder(storage);
+        readAll(root, builder);
+        return builder.build();
     }
 
     /**
      * Reads all data from the given node.
      *
-     * @param node the node to read from.
-     * @return a {@link StorageView} containing all data that is stored in this file.
+     * @param node    the node to read from.
+     * @param builder the builder to which the intervals of the node are appended.
      */
-    private StorageView readAll(BtrfsNode node) {
-
-        StorageView view = new EmptyStorageView(storage);
+    private void readAll(BtrfsNode node, StorageViewBuilder builder) {
 
         for (int i = 0; i < node.size; i++) {
             // before i-th key and i-th child.
 
             // read from i-th child if it exists
             if (node.children[i] != null) {
-                view = view.plus(readAll(node.children[i]));
+                readAll(node.children[i], builder);
             }
 
-            Interval key = node.keys[i];
-
             // read from i-th key
-            view = view.plus(storage.createView(new Interval(key.start(), key.length())));
+            builder.add(node.keys[i]);
         }
 
         // read from last child if it exists
         if (node.children[node.size] != null) {
-            view = view.plus(readAll(node.children[node.size]));
+            readAll(node.children[node.size], builder);
         }
-
-        return view;
     }
 
     /**
@@ -118,15 +121,31 @@ public class BtrfsFile {
      * @return a {@link StorageView} containing the data that was read.
      */
     private StorageView read(int start, int length, BtrfsNode node, int cumulativeLength, int lengthRead) {
+        StorageViewBuilder builder = new StorageViewBuilder(storage);
+        read(start, length, node, cumulativeLength, lengthRead, builder);
+        return builder.build();
+    }
 
-        StorageView view = new EmptyStorageView(storage);
+    /**
+     * Reads the given amount of data from the given node starting at the given start position.
+     * Adjacent intervals are merged by the builder, so contiguous data is read with a single copy.
+     *
+     * @param start            the start position.
+     * @param length           the amount of data to read.
+     * @param node             the current node to read from.
+     * @param cumulativeLength the cumulative length of the intervals that have been visited so far.
+     * @param lengthRead       the amount of data that has been read so far.
+     * @param builder          the builder to which the read intervals are appended.
+     */
+    private void read(int start, int length, BtrfsNode node, int cumulativeLength, int lengthRead,
+                      StorageViewBuilder builder) {
 
         for (int i = 0; i < node.size; i++) {
             // before i-th key and i-th child.
 
             // read from i-th child if start is in front of or in the i-th child, and it exists
             if (node.children[i] != null && start < cumulativeLength + node.childLengths[i]) {
-                view = view.plus(read(start, length, node.children[i], cumulativeLength, lengthRead));
+                read(start, length, node.children[i], cumulativeLength, lengthRead, builder);
                 lengthRead += Math.min(node.childLengths[i] - Math.max(0, start - cumulativeLength), length - lengthRead);
             }
 
@@ -134,7 +153,7 @@ public class BtrfsFile {
 
             // check if we have read enough
             if (lengthRead == length) {
-                return view;
+                return;
             } else if (lengthRead > length) {
                 throw new IllegalStateException("Read more keys than wanted"); // sanity check
             }
@@ -144,7 +163,7 @@ public class BtrfsFile {
 
             // if there is no next key we are done for this node
             if (key == null) {
-                return view;
+                return;
             }
 
             // read from i-th key if and start is in front of or in the i-th key
@@ -153,7 +172,7 @@ public class BtrfsFile {
                 int viewStart = key.start() + Math.max(0, start - cumulativeLength);
                 int viewLength = Math.min(key.length() - (viewStart - key.start()), length - lengthRead);
 
-                view = view.plus(storage.createView(new Interval(viewStart, viewLength)));
+                builder.add(new Interval(viewStart, viewLength));
                 lengthRead += viewLength;
             }
 
@@ -161,7 +180,7 @@ public class BtrfsFile {
 
             // check if we have read enough
             if (lengthRead == length) {
-                return view;
+                return;
             } else if (lengthRead > length) {
                 throw new IllegalStateException("Read more keys than wanted"); // sanity check
             }
@@ -169,13 +188,26 @@ public class BtrfsFile {
 
         // we reached the last child; read from it if it exists and return
         if (node.children[node.size] == null) {
-            return view;
+            return;
         }
 
         // read from last child if it exists, because we have not read enough if we are here
-        view = view.plus(read(start, length, node.children[node.size], cumulativeLength, lengthRead));
+        read(start, length, node.children[node.size], cumulativeLength, lengthRead, builder);
+    }
 
-        return view;
+    /**
+     * Opens a channel that reads this file sequentially, starting at the given position.
+     * Each read only looks up the intervals needed to fill the given buffer, so the file is never read as a whole.
+     *
+     * @param start the position at which reading starts.
+     * @return the channel.
+     */
+    public ReadableByteChannel openChannel(int start) {
+        if (start < 0 || start > size) {
+            throw new IndexOutOfBoundsException("start %d is outside of the file of size %d".formatted(start, size));
+        }
+
+        return new BtrfsFileChannel(this, start);
     }
 
     /**
@@ -188,15 +220,25 @@ public class BtrfsFile {
     public void insert(int start, List<Interval> intervals, byte[] data) {
 
         // fill the intervals with the data
-        int dataPos = 0;
-        for (Interval interval : intervals) {
-            storage.write(interval.start(), data, dataPos, interval.length());
-            dataPos += interval.length();
-        }
+        storage.writev(intervals.toArray(new Interval[0]), data, 0);
 
-        size += data.length;
+        insert(start, intervals);
+    }
+
+    /**
+     * Inserts the given intervals into the file starting at the given start position.
+     * The intervals have to contain the data already, e.g. because they are shared with another file.
+     *
+     * @param start     the start position.
+     * @param intervals the intervals to insert.
+     */
+    public void insert(int start, List<Interval> intervals) {
+
+        root = exclusive(root);
+
+        int insertionSize = getSize(intervals);
 
-        int insertionSize = data.length;
+        size += insertionSize;
 
         // findInsertionIndex assumes that the current node is not full
         if (root.isFull()) {
@@ -292,7 +334,7 @@ public class BtrfsFile {
 
                 // split if child is full
                 if (indexedNode.node.children[indexedNode.index].isFull()) {
-                    split(new IndexedNodeLinkedList(indexedNode, indexedNode.node.children[indexedNode.index], 0));
+                    split(new IndexedNodeLinkedList(indexedNode, exclusiveChild(indexedNode.node, indexedNode.index), 0));
 
                     // check again where we should insert
                     indexedNode.index--;
@@ -302,7 +344,7 @@ public class BtrfsFile {
                 indexedNode.node.childLengths[indexedNode.index] += insertionSize;
 
                 return findInsertionPosition(new IndexedNodeLinkedList(indexedNode,
-                    indexedNode.node.children[indexedNode.index], 0), start, cumulativeLength, insertionSize, splitKey);
+                    exclusiveChild(indexedNode.node, indexedNode.index), 0), start, cumulativeLength, insertionSize, splitKey);
             }
 
             cumulativeLength += indexedNode.node.childLengths[indexedNode.index];
@@ -342,7 +384,7 @@ public class BtrfsFile {
 
         //if last child is full, split it
         if (indexedNode.node.children[indexedNode.node.size].isFull()) {
-            split(new IndexedNodeLinkedList(indexedNode, indexedNode.node.children[indexedNode.node.size], 0));
+            split(new IndexedNodeLinkedList(indexedNode, exclusiveChild(indexedNode.node, indexedNode.node.size), 0));
 
             // check again where we should insert
             indexedNode.index--;
@@ -351,7 +393,7 @@ public class BtrfsFile {
 
         indexedNode.node.childLengths[indexedNode.node.size] += insertionSize;
 
-        return findInsertionPosition(new IndexedNodeLinkedList(indexedNode, indexedNode.node.children[indexedNode.node.size], 0),
+        return findInsertionPosition(new IndexedNodeLinkedList(indexedNode, exclusiveChild(indexedNode.node, indexedNode.node.size), 0),
             start, cumulativeLength, insertionSize, splitKey);
     }
 
@@ -484,13 +526,25 @@ public class BtrfsFile {
     public void write(int start, List<Interval> intervals, byte[] data) {
 
         // fill the intervals with the data
-        int dataPos = 0;
-        for (Interval interval : intervals) {
-            storage.write(interval.start(), data, dataPos, interval.length());
-            dataPos += interval.length();
-        }
+        storage.writev(intervals.toArray(new Interval[0]), data, 0);
+
+        write(start, intervals);
+    }
+
+    /**
+     * Stores the given intervals in the file starting at the given start position, overriding existing data.
+     * The intervals have to contain the data already, e.g. because they are shared with another file.
+     *
+     * @param start     the start position.
+     * @param intervals the intervals to write.
+     */
+    public void write(int start, List<Interval> intervals) {
+
+        int length = getSize(intervals);
+
+        root = exclusive(root);
 
-        WriteResult result = write(start, intervals, new IndexedNodeLinkedList(null, root, 0), 0, 0, data.length, data.length);
+        WriteResult result = write(start, intervals, new IndexedNodeLinkedList(null, root, 0), 0, 0, length, length);
 
         size += result.lengthDiff;
 
@@ -520,7 +574,7 @@ public class BtrfsFile {
             if (indexedNode.node.children[indexedNode.index] != null &&
                 start < cumulativeLength + indexedNode.node.childLengths[indexedNode.index]) {
 
-                WriteResult result = write(start, intervals, new IndexedNodeLinkedList(indexedNode, indexedNode.node.children[indexedNode.index], 0),
+                WriteResult result = write(start, intervals, new IndexedNodeLinkedList(indexedNode, exclusiveChild(indexedNode.node, indexedNode.index), 0),
                     cumulativeLength, removedLength, insertionSize, remainingLength);
 
                 indexedNode.node.childLengths[indexedNode.index] += result.lengthDiff;
@@ -635,7 +689,7 @@ public class BtrfsFile {
 
         // write into last child if it exists
         if (indexedNode.node.children[indexedNode.node.size] != null) {
-            return write(start, intervals, new IndexedNodeLinkedList(indexedNode, indexedNode.node.children[indexedNode.node.size], 0),
+            return write(start, intervals, new IndexedNodeLinkedList(indexedNode, exclusiveChild(indexedNode.node, indexedNode.node.size), 0),
                 cumulativeLength, removedLength, insertionSize, remainingLength);
         }
 
@@ -658,6 +712,7 @@ public class BtrfsFile {
      * @param length the amount of bytes to remove
      */
     public void remove(int start, int length) {
+        root = exclusive(root);
         size -= length;
         int removed = remove(start, length, new IndexedNodeLinkedList(null, root, 0), 0, 0);
 
@@ -706,7 +761,7 @@ public class BtrfsFile {
 
                     // remove from child
                     final int removedInChild = remove(start, length,
-                        new IndexedNodeLinkedList(indexedNode, indexedNode.node.children[indexedNode.index], 0),
+                        new IndexedNodeLinkedList(indexedNode, exclusiveChild(indexedNode.node, indexedNode.index), 0),
                         cumulativeLength, removedLength);
 
                     // update removedLength
@@ -826,7 +881,7 @@ public class BtrfsFile {
                     // try to replace with rightmost key of left child
                     if (indexedNode.node.children[indexedNode.index].size >= degree) {
                         final Interval removedKey = removeRightMostKey(new IndexedNodeLinkedList(indexedNode,
-                            indexedNode.node.children[indexedNode.index], 0));
+                            exclusiveChild(indexedNode.node, indexedNode.index), 0));
 
                         // update childLength of current node
                         indexedNode.node.childLengths[indexedNode.index] -= removedKey.length();
@@ -840,7 +895,7 @@ public class BtrfsFile {
                         // try to replace with leftmost key of right child
                     } else if (indexedNode.node.children[indexedNode.index + 1].size >= degree) {
                         final Interval removedKey = removeLeftMostKey(new IndexedNodeLinkedList(indexedNode,
-                            indexedNode.node.children[indexedNode.index + 1], 0));
+                            exclusiveChild(indexedNode.node, indexedNode.index + 1), 0));
 
                         // update childLength of current node
                         indexedNode.node.childLengths[indexedNode.index + 1] -= removedKey.length();
@@ -870,7 +925,7 @@ public class BtrfsFile {
 
                         // merge the two children
                         mergeWithRightSibling(new IndexedNodeLinkedList(indexedNode,
-                            indexedNode.node.children[indexedNode.index], 0));
+                            exclusiveChild(indexedNode.node, indexedNode.index), 0));
 
                         // remove the key from the merged node
                         int removedInChild = remove(start, length, new IndexedNodeLinkedList(indexedNode,
@@ -913,7 +968,7 @@ public class BtrfsFile {
 
             // remove from child
             int removedInChild = remove(start, length, new IndexedNodeLinkedList(indexedNode,
-                indexedNode.node.children[indexedNode.node.size], 0), cumulativeLength, removedLength);
+                exclusiveChild(indexedNode.node, indexedNode.node.size), 0), cumulativeLength, removedLength);
 
             // update childLength of parent accordingly
             indexedNode.node.childLengths[indexedNode.node.size] -= removedInChild;
@@ -954,7 +1009,7 @@ public class BtrfsFile {
         } else { // if node is an inner node continue downward
 
             // recursively remove from rightmost child
-            final Interval key = removeRightMostKey(new IndexedNodeLinkedList(indexedNode, indexedNode.node.children[indexedNode.node.size], 0));
+            final Interval key = removeRightMostKey(new IndexedNodeLinkedList(indexedNode, exclusiveChild(indexedNode.node, indexedNode.node.size), 0));
 
             // update childLength
             indexedNode.node.childLengths[indexedNode.node.size] -= key.length();
@@ -995,7 +1050,7 @@ public class BtrfsFile {
         } else { // if node is an inner node continue downward
 
             // recursively remove from leftmost child
-            final Interval key = removeLeftMostKey(new IndexedNodeLinkedList(indexedNode, indexedNode.node.children[0], 0));
+            final Interval key = removeLeftMostKey(new IndexedNodeLinkedList(indexedNode, exclusiveChild(indexedNode.node, 0), 0));
 
             // update childLength
             indexedNode.node.childLengths[0] -= key.length();
@@ -1059,7 +1114,9 @@ public class BtrfsFile {
         BtrfsNode parentNode = indexedNode.parent.node;
         int parentIndex = indexedNode.parent.index;
         BtrfsNode middleChild = indexedNode.node;
-        BtrfsNode leftChild = parentNode.children[parentIndex - 1];
+
+        // the left child is dropped, but its content is moved into the middle child, which must not change a snapshot
+        BtrfsNode leftChild = exclusiveChild(parentNode, parentIndex - 1);
 
         // move keys and children of middle child to the right
         System.arraycopy(middleChild.keys, 0, middleChild.keys, degree, middleChild.size);
@@ -1109,7 +1166,9 @@ public class BtrfsFile {
         BtrfsNode parentNode = indexedNode.parent.node;
         int parentIndex = indexedNode.parent.index;
         BtrfsNode middleChild = indexedNode.node;
-        BtrfsNode rightChild = parentNode.children[parentIndex + 1];
+
+        // the right child is dropped, but its content is moved into the middle child, which must not change a snapshot
+        BtrfsNode rightChild = exclusiveChild(parentNode, parentIndex + 1);
 
         // move key and children of right child to the middle child
         System.arraycopy(rightChild.keys, 0, middleChild.keys, degree, rightChild.size);
@@ -1148,7 +1207,7 @@ public class BtrfsFile {
         int parentIndex = indexedNode.parent.index;
 
         // get left child
-        BtrfsNode leftChild = parentNode.children[parentIndex - 1];
+        BtrfsNode leftChild = exclusiveChild(parentNode, parentIndex - 1);
 
         // store and remove last key and child of left child
         final Interval key = leftChild.keys[leftChild.size - 1];
@@ -1204,7 +1263,7 @@ public class BtrfsFile {
         int parentIndex = indexedNode.parent.index;
 
         // get right child
-        final BtrfsNode rightChild = parentNode.children[parentIndex + 1];
+        final BtrfsNode rightChild = exclusiveChild(parentNode, parentIndex + 1);
 
         // store first key and child of right child
         final Interval key = rightChild.keys[0];
@@ -1280,6 +1339,8 @@ public class BtrfsFile {
 
                 if (previous.start() + previous.length() == current.start()) {
 
+                    // only the nodes around keys that are merged are modified, so only these are copied
+                    exclusive(indexedNode);
                     ensureSize(indexedNode);
 
                     // merge the intervals
@@ -1302,7 +1363,8 @@ public class BtrfsFile {
                 // if the right most key of the left child is adjacent to the current key we remove it and merge the intervals
                 if (rightMostKey.start() + rightMostKey.length() == indexedNode.node.keys[indexedNode.index].start()) {
 
-                    removeRightMostKey(new IndexedNodeLinkedList(indexedNode, indexedNode.node.children[indexedNode.index], 0));
+                    exclusive(indexedNode);
+                    removeRightMostKey(new IndexedNodeLinkedList(indexedNode, exclusiveChild(indexedNode.node, indexedNode.index), 0));
 
                     indexedNode.node.childLengths[indexedNode.index] -= rightMostKey.length();
 
@@ -1314,7 +1376,8 @@ public class BtrfsFile {
                 // if the left most key of the right child is adjacent to the current key we remove it and merge the intervals
                 if (leftMostKey.start() == indexedNode.node.keys[indexedNode.index].start() + indexedNode.node.keys[indexedNode.index].length()) {
 
-                    removeLeftMostKey(new IndexedNodeLinkedList(indexedNode, indexedNode.node.children[indexedNode.index + 1], 0));
+                    exclusive(indexedNode);
+                    removeLeftMostKey(new IndexedNodeLinkedList(indexedNode, exclusiveChild(indexedNode.node, indexedNode.index + 1), 0));
 
                     indexedNode.node.childLengths[indexedNode.index + 1] -= leftMostKey.length();
 
@@ -1327,6 +1390,67 @@ public class BtrfsFile {
 
     }
 
+    /**
+     * Moves the data in the given range of this file to the given interval, which has to contain a copy of the data
+     * already. The keys in the range are replaced in place by the corresponding parts of the interval, so the
+     * structure of the tree does not change. Afterwards, {@link #shrink()} merges the keys into a single one.
+     * The range starts at the given position, has the length of the interval and has to start and end at the
+     * boundaries of keys.
+     *
+     * @param start  the start position of the range.
+     * @param target the interval that the data is moved to.
+     */
+    public void relocate(int start, Interval target) {
+        root = exclusive(root);
+        relocate(start, target, root, 0);
+    }
+
+    /**
+     * Replaces the keys of the given node and its children in the given range by parts of the given interval.
+     *
+     * @param start            the start position of the range.
+     * @param target           the interval that the data is moved to.
+     * @param node             the current node, which is not shared.
+     * @param cumulativeLength the length of the intervals in front of the node.
+     */
+    private void relocate(int start, Interval target, BtrfsNode node, int cumulativeLength) {
+        int end = start + target.length();
+
+        for (int i = 0; i < node.size; i++) {
+
+            // relocate in the i-th child if it intersects the range
+            if (node.children[i] != null && start < cumulativeLength + node.childLengths[i]) {
+                relocate(start, target, exclusiveChild(node, i), cumulativeLength);
+            }
+
+            cumulativeLength += node.childLengths[i];
+
+            // the rest of the node is behind the range
+            if (cumulativeLength >= end) {
+                return;
+            }
+
+            Interval key = node.keys[i];
+
+            if (cumulativeLength >= start) {
+                if (cumulativeLength + key.length() > end) {
+                    throw new IllegalArgumentException("the range does not end at the boundary of a key");
+                }
+
+                node.keys[i] = new Interval(target.start() + cumulativeLength - start, key.length());
+            } else if (cumulativeLength + key.length() > start) {
+                throw new IllegalArgumentException("the range does not start at the boundary of a key");
+            }
+
+            cumulativeLength += key.length();
+        }
+
+        // relocate in the last child if it exists
+        if (node.children[node.size] != null) {
+            relocate(start, target, exclusiveChild(node, node.size), cumulativeLength);
+        }
+    }
+
     private Interval getRightMostKey(BtrfsNode node) {
         if (node.isLeaf()) {
             return node.keys[node.size - 1];
@@ -1343,6 +1467,89 @@ public class BtrfsFile {
         }
     }
 
+    /**
+     * Creates a snapshot of this file in constant time.
+     * The snapshot shares all nodes with this file. A shared node is copied by the first file that modifies it,
+     * together with the path to it (copy-on-write). The data is never modified in place, because new data is
+     * always written to newly allocated intervals, so the intervals can be shared as well.
+     *
+     * @param name the name of the snapshot.
+     * @return the snapshot.
+     */
+    public BtrfsFile snapshot(String name) {
+        BtrfsFile snapshot = new BtrfsFile(name, storage, degree);
+
+        snapshot.root = root;
+        snapshot.size = size;
+        root.references++;
+
+        shared = true;
+        snapshot.shared = true;
+
+        return snapshot;
+    }
+
+    /**
+     * Ensures that the node of the given path and all nodes above it are not shared with a snapshot, so that the node
+     * can be modified. Shared nodes are replaced by copies, both in the path and in their parents.
+     *
+     * @param indexedNode the path to the node.
+     */
+    private void exclusive(IndexedNodeLinkedList indexedNode) {
+        if (indexedNode.parent == null) {
+            root = indexedNode.node = exclusive(indexedNode.node);
+            return;
+        }
+
+        exclusive(indexedNode.parent);
+
+        BtrfsNode[] children = indexedNode.parent.node.children;
+        int index = 0;
+        while (children[index] != indexedNode.node) {
+            index++;
+        }
+
+        indexedNode.node = exclusiveChild(indexedNode.parent.node, index);
+    }
+
+    /**
+     * Returns the child of the given node at the given index and replaces it by a copy first if it is shared.
+     * Every mutation descends through this method, so that a node is copied before it is modified and no node of a
+     * snapshot is ever changed.
+     *
+     * @param node  the parent of the child, which is not shared.
+     * @param index the index of the child.
+     * @return the child, which is not shared.
+     */
+    private BtrfsNode exclusiveChild(BtrfsNode node, int index) {
+        return node.children[index] = exclusive(node.children[index]);
+    }
+
+    /**
+     * Returns the given node if it is only referenced once, or a copy of it otherwise.
+     *
+     * @param node the node.
+     * @return a node with the same content that is not shared.
+     */
+    private BtrfsNode exclusive(BtrfsNode node) {
+        if (node.references == 1) {
+            return node;
+        }
+
+        node.references--;
+        return node.copy();
+    }
+
+    /**
+     * Returns whether the nodes and intervals of this file may be shared with a snapshot. The intervals of a shared
+     * file may still be referenced by the other file after they were removed from this one.
+     *
+     * @return whether this file may be shared.
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
     /**
      * Returns the size of the file.
      * This is the sum of the length of all intervals or the amount of bytes used in the storage.
@@ -0,0 +1,69 @@
+package p2.btrfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A channel that reads a {@link BtrfsFile} sequentially.
+ * Every read looks up only the intervals that are needed to fill the given buffer and copies their data directly into
+ * it, so the file is never materialized as a whole. Modifications of the file are visible to subsequent reads.
+ */
+class BtrfsFileChannel implements ReadableByteChannel {
+
+    /**
+     * The file that is read.
+     */
+    private final BtrfsFile file;
+
+    /**
+     * The position in the file from which the next read starts.
+     */
+    private int position;
+
+    /**
+     * Whether the channel is open.
+     */
+    private boolean open = true;
+
+    /**
+     * Creates a new channel that reads the given file starting at the given position.
+     *
+     * @param file     the file.
+     * @param position the position in the file at which reading starts.
+     */
+    BtrfsFileChannel(BtrfsFile file, int position) {
+        this.file = file;
+        this.position = position;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (position >= file.getSize()) {
+            return -1;
+        }
+
+        int length = Math.min(dst.remaining(), file.getSize() - position);
+        if (length == 0) {
+            return 0;
+        }
+
+        file.read(position, length).readInto(dst);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
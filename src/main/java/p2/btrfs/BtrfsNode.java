@@ -32,6 +32,12 @@ public class BtrfsNode {
      */
     public int[] childLengths;
 
+    /**
+     * The number of references to this node from parent nodes or files.
+     * A node with more than one reference is shared between snapshots and has to be copied before it is modified.
+     */
+    public int references = 1;
+
     /**
      * Creates a new {@link BtrfsNode} instance.
      *
@@ -44,6 +50,29 @@ public class BtrfsNode {
         childLengths = new int[2 * degree];
     }
 
+    /**
+     * Creates a copy of this node that references the same keys and children.
+     * The references of the children are incremented, because they are now shared by this node and the copy.
+     *
+     * @return the copy of this node.
+     */
+    public BtrfsNode copy() {
+        BtrfsNode copy = new BtrfsNode(degree);
+
+        copy.size = size;
+        System.arraycopy(keys, 0, copy.keys, 0, keys.length);
+        System.arraycopy(children, 0, copy.children, 0, children.length);
+        System.arraycopy(childLengths, 0, copy.childLengths, 0, childLengths.length);
+
+        for (BtrfsNode child : children) {
+            if (child != null) {
+                child.references++;
+            }
+        }
+
+        return copy;
+    }
+
     /**
      * Checks if this node is full.
      *
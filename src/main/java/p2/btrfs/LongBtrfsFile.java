@@ -0,0 +1,524 @@
+package p2.btrfs;
+
+import p2.storage.LongInterval;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A file whose intervals are stored in a B-tree with {@code long} positions, so that the file and the storage it
+ * refers to can be larger than 2 GiB. It is the long-addressed counterpart of {@link BtrfsFile}: the nodes store the
+ * cumulative lengths of their children as {@code long} values and the size of the file is a {@code long}.
+ *
+ * <p>The file only manages its intervals. Their data is written and read by the caller, e.g. in a
+ * {@link p2.storage.SegmentedStorage}.</p>
+ */
+public class LongBtrfsFile {
+
+    /**
+     * The name of the file.
+     */
+    private final String name;
+
+    /**
+     * The degree of the B-tree.
+     */
+    private final int degree;
+
+    /**
+     * The root node of the B-tree.
+     */
+    private LongBtrfsNode root;
+
+    /**
+     * The total size of the file.
+     */
+    private long size;
+
+    /**
+     * Creates a new {@link LongBtrfsFile} instance.
+     *
+     * @param name   the name of the file.
+     * @param degree the degree of the B-tree.
+     */
+    public LongBtrfsFile(String name, int degree) {
+        if (degree < 2) {
+            throw new IllegalArgumentException("degree must be at least 2");
+        }
+
+        this.name = name;
+        this.degree = degree;
+        root = new LongBtrfsNode(degree);
+    }
+
+    /**
+     * Returns the intervals that hold the given range of the file. Adjacent intervals are merged.
+     *
+     * @param start  the start position.
+     * @param length the amount of data to read.
+     * @return the intervals in the order of the file.
+     */
+    public List<LongInterval> read(long start, long length) {
+        checkRange(start, length);
+
+        List<LongInterval> intervals = new ArrayList<>();
+        if (length > 0) {
+            read(root, start, start + length, 0, intervals);
+        }
+        return intervals;
+    }
+
+    /**
+     * Appends the parts of the keys of the given subtree that lie in the given range to the given list.
+     *
+     * @param node             the root of the subtree.
+     * @param start            the start of the range.
+     * @param end              the end of the range.
+     * @param cumulativeLength the position of the subtree in the file.
+     * @param intervals        the list to which the intervals are appended.
+     */
+    private void read(LongBtrfsNode node, long start, long end, long cumulativeLength, List<LongInterval> intervals) {
+        for (int i = 0; i <= node.size && cumulativeLength < end; i++) {
+            if (!node.isLeaf()) {
+                if (start < cumulativeLength + node.childLengths[i]) {
+                    read(node.children[i], start, end, cumulativeLength, intervals);
+                }
+                cumulativeLength += node.childLengths[i];
+            }
+
+            if (i == node.size || cumulativeLength >= end) {
+                return;
+            }
+
+            LongInterval key = node.keys[i];
+
+            if (start < cumulativeLength + key.length()) {
+                long from = Math.max(start, cumulativeLength);
+                long to = Math.min(end, cumulativeLength + key.length());
+
+                add(intervals, key.start() + from - cumulativeLength, to - from);
+            }
+
+            cumulativeLength += key.length();
+        }
+    }
+
+    /**
+     * Inserts the given intervals into the file starting at the given start position.
+     * The intervals have to contain the data already.
+     *
+     * @param start     the start position.
+     * @param intervals the intervals to insert.
+     */
+    public void insert(long start, List<LongInterval> intervals) {
+        checkRange(start, 0);
+
+        splitKey(start);
+
+        for (LongInterval interval : intervals) {
+            insertKey(start, interval);
+            start += interval.length();
+            size += interval.length();
+        }
+    }
+
+    /**
+     * Removes the given range from the file.
+     *
+     * @param start  the start of the range.
+     * @param length the length of the range.
+     * @return the intervals that held the removed data and can be freed by the caller.
+     */
+    public List<LongInterval> remove(long start, long length) {
+        checkRange(start, length);
+
+        splitKey(start);
+        splitKey(start + length);
+
+        List<LongInterval> removed = new ArrayList<>();
+
+        for (long remaining = length; remaining > 0; ) {
+            LongInterval key = deleteKey(start);
+
+            removed.add(key);
+            remaining -= key.length();
+        }
+
+        size -= length;
+        return removed;
+    }
+
+    /**
+     * Splits the key that contains the given position into two keys, so that a key starts at the position.
+     * Nothing happens if a key already starts there or the position is the end of the file.
+     *
+     * @param position the position.
+     */
+    private void splitKey(long position) {
+        List<LongBtrfsNode> path = new ArrayList<>();
+        List<Integer> indices = new ArrayList<>();
+        LongBtrfsNode node = root;
+        long cumulativeLength = 0;
+
+        descend:
+        while (true) {
+            for (int i = 0; i < node.size || i == node.size && !node.isLeaf(); i++) {
+                if (!node.isLeaf()) {
+                    if (position < cumulativeLength + node.childLengths[i]) {
+                        path.add(node);
+                        indices.add(i);
+                        node = node.children[i];
+                        continue descend;
+                    }
+                    cumulativeLength += node.childLengths[i];
+                }
+
+                if (i == node.size || position == cumulativeLength) {
+                    return;
+                }
+
+                LongInterval key = node.keys[i];
+
+                if (position < cumulativeLength + key.length()) {
+                    long offset = position - cumulativeLength;
+
+                    // shorten the key and its ancestors, then insert the rest like a new key
+                    node.keys[i] = new LongInterval(key.start(), offset);
+                    for (int j = 0; j < path.size(); j++) {
+                        path.get(j).childLengths[indices.get(j)] -= key.length() - offset;
+                    }
+                    insertKey(position, new LongInterval(key.start() + offset, key.length() - offset));
+                    return;
+                }
+
+                cumulativeLength += key.length();
+            }
+
+            return;
+        }
+    }
+
+    /**
+     * Inserts the given key at the given position, at which no key may be split.
+     * Full nodes are split on the way down, so the leaf always has space for the key.
+     *
+     * @param position the position.
+     * @param key      the key to insert.
+     */
+    private void insertKey(long position, LongInterval key) {
+        if (root.isFull()) {
+            LongBtrfsNode newRoot = new LongBtrfsNode(degree);
+
+            newRoot.children[0] = root;
+            newRoot.childLengths[0] = root.length();
+            splitChild(newRoot, 0);
+            root = newRoot;
+        }
+
+        LongBtrfsNode node = root;
+
+        while (!node.isLeaf()) {
+            long cumulativeLength = 0;
+            int i = 0;
+
+            // the key is inserted into the last child that starts at or before the position
+            while (position > cumulativeLength + node.childLengths[i]) {
+                cumulativeLength += node.childLengths[i] + node.keys[i].length();
+                i++;
+            }
+
+            if (node.children[i].isFull()) {
+                splitChild(node, i);
+                continue;
+            }
+
+            node.childLengths[i] += key.length();
+            node = node.children[i];
+            position -= cumulativeLength;
+        }
+
+        int index = 0;
+        for (long cumulativeLength = 0; cumulativeLength < position; index++) {
+            cumulativeLength += node.keys[index].length();
+        }
+
+        System.arraycopy(node.keys, index, node.keys, index + 1, node.size - index);
+        node.keys[index] = key;
+        node.size++;
+    }
+
+    /**
+     * Removes the key that starts at the given position.
+     *
+     * @param position the position.
+     * @return the removed key.
+     */
+    private LongInterval deleteKey(long position) {
+        LongInterval key = deleteKey(root, position);
+
+        if (root.size == 0 && !root.isLeaf()) {
+            root = root.children[0];
+        }
+
+        return key;
+    }
+
+    /**
+     * Removes the key that starts at the given position from the given subtree, whose root has at least
+     * {@code degree} keys unless it is the root of the tree. Children that would become too small are filled from
+     * their siblings or merged with them on the way down.
+     *
+     * @param node     the root of the subtree.
+     * @param position the position in the subtree.
+     * @return the removed key.
+     */
+    private LongInterval deleteKey(LongBtrfsNode node, long position) {
+        while (!node.isLeaf()) {
+            long cumulativeLength = 0;
+            int i = 0;
+            boolean isKey = false;
+
+            while (position >= cumulativeLength + node.childLengths[i]) {
+                cumulativeLength += node.childLengths[i];
+
+                if (position == cumulativeLength) {
+                    isKey = true;
+                    break;
+                }
+
+                cumulativeLength += node.keys[i].length();
+                i++;
+            }
+
+            if (isKey) {
+                LongInterval key = node.keys[i];
+
+                if (node.children[i].size >= degree) {
+                    LongInterval predecessor = deleteKey(node.children[i],
+                        node.childLengths[i] - getRightMostKey(node.children[i]).length());
+
+                    node.childLengths[i] -= predecessor.length();
+                    node.keys[i] = predecessor;
+                    return key;
+                }
+
+                if (node.children[i + 1].size >= degree) {
+                    LongInterval successor = deleteKey(node.children[i + 1], 0);
+
+                    node.childLengths[i + 1] -= successor.length();
+                    node.keys[i] = successor;
+                    return key;
+                }
+
+                merge(node, i);
+                continue;
+            }
+
+            if (node.children[i].size < degree) {
+                if (i > 0 && node.children[i - 1].size >= degree) {
+                    rotateFromLeftSibling(node, i);
+                } else if (i < node.size && node.children[i + 1].size >= degree) {
+                    rotateFromRightSibling(node, i);
+                } else {
+                    merge(node, i > 0 ? i - 1 : i);
+                }
+                continue;
+            }
+
+            LongInterval key = deleteKey(node.children[i], position - cumulativeLength);
+            node.childLengths[i] -= key.length();
+            return key;
+        }
+
+        int index = 0;
+        for (long cumulativeLength = 0; cumulativeLength < position; index++) {
+            cumulativeLength += node.keys[index].length();
+        }
+
+        LongInterval key = node.keys[index];
+
+        System.arraycopy(node.keys, index + 1, node.keys, index, node.size - index - 1);
+        node.keys[--node.size] = null;
+        return key;
+    }
+
+    /**
+     * Splits the full child at the given index of the given node. Its middle key is moved into the node.
+     *
+     * @param parent the node, which must not be full.
+     * @param index  the index of the child.
+     */
+    private void splitChild(LongBtrfsNode parent, int index) {
+        LongBtrfsNode child = parent.children[index];
+        LongBtrfsNode right = new LongBtrfsNode(degree);
+
+        right.size = degree - 1;
+        System.arraycopy(child.keys, degree, right.keys, 0, degree - 1);
+        System.arraycopy(child.children, degree, right.children, 0, degree);
+        System.arraycopy(child.childLengths, degree, right.childLengths, 0, degree);
+
+        LongInterval middle = child.keys[degree - 1];
+
+        for (int i = degree - 1; i < child.keys.length; i++) {
+            child.keys[i] = null;
+        }
+        for (int i = degree; i < child.children.length; i++) {
+            child.children[i] = null;
+            child.childLengths[i] = 0;
+        }
+        child.size = degree - 1;
+
+        System.arraycopy(parent.keys, index, parent.keys, index + 1, parent.size - index);
+        System.arraycopy(parent.children, index + 1, parent.children, index + 2, parent.size - index);
+        System.arraycopy(parent.childLengths, index + 1, parent.childLengths, index + 2, parent.size - index);
+
+        parent.keys[index] = middle;
+        parent.children[index + 1] = right;
+        parent.childLengths[index] = child.length();
+        parent.childLengths[index + 1] = right.length();
+        parent.size++;
+    }
+
+    /**
+     * Merges the child at the given index of the given node, the key at the index and the next child.
+     *
+     * @param parent the node.
+     * @param index  the index of the left child.
+     */
+    private void merge(LongBtrfsNode parent, int index) {
+        LongBtrfsNode left = parent.children[index];
+        LongBtrfsNode right = parent.children[index + 1];
+
+        left.keys[left.size] = parent.keys[index];
+        System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+        System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+        System.arraycopy(right.childLengths, 0, left.childLengths, left.size + 1, right.size + 1);
+        left.size += 1 + right.size;
+
+        parent.childLengths[index] += parent.keys[index].length() + parent.childLengths[index + 1];
+
+        System.arraycopy(parent.keys, index + 1, parent.keys, index, parent.size - index - 1);
+        System.arraycopy(parent.children, index + 2, parent.children, index + 1, parent.size - index - 1);
+        System.arraycopy(parent.childLengths, index + 2, parent.childLengths, index + 1, parent.size - index - 1);
+
+        parent.size--;
+        parent.keys[parent.size] = null;
+        parent.children[parent.size + 1] = null;
+        parent.childLengths[parent.size + 1] = 0;
+    }
+
+    /**
+     * Moves a key from the left sibling of the child at the given index through the given node into the child.
+     *
+     * @param parent the node.
+     * @param index  the index of the child.
+     */
+    private void rotateFromLeftSibling(LongBtrfsNode parent, int index) {
+        LongBtrfsNode child = parent.children[index];
+        LongBtrfsNode sibling = parent.children[index - 1];
+
+        LongInterval parentKey = parent.keys[index - 1];
+        LongInterval siblingKey = sibling.keys[sibling.size - 1];
+        LongBtrfsNode siblingChild = sibling.children[sibling.size];
+        long siblingChildLength = sibling.childLengths[sibling.size];
+
+        System.arraycopy(child.keys, 0, child.keys, 1, child.size);
+        System.arraycopy(child.children, 0, child.children, 1, child.size + 1);
+        System.arraycopy(child.childLengths, 0, child.childLengths, 1, child.size + 1);
+        child.keys[0] = parentKey;
+        child.children[0] = siblingChild;
+        child.childLengths[0] = siblingChildLength;
+        child.size++;
+
+        sibling.keys[sibling.size - 1] = null;
+        sibling.children[sibling.size] = null;
+        sibling.childLengths[sibling.size] = 0;
+        sibling.size--;
+
+        parent.keys[index - 1] = siblingKey;
+        parent.childLengths[index - 1] -= siblingKey.length() + siblingChildLength;
+        parent.childLengths[index] += parentKey.length() + siblingChildLength;
+    }
+
+    /**
+     * Moves a key from the right sibling of the child at the given index through the given node into the child.
+     *
+     * @param parent the node.
+     * @param index  the index of the child.
+     */
+    private void rotateFromRightSibling(LongBtrfsNode parent, int index) {
+        LongBtrfsNode child = parent.children[index];
+        LongBtrfsNode sibling = parent.children[index + 1];
+
+        LongInterval parentKey = parent.keys[index];
+        LongInterval siblingKey = sibling.keys[0];
+        LongBtrfsNode siblingChild = sibling.children[0];
+        long siblingChildLength = sibling.childLengths[0];
+
+        child.keys[child.size] = parentKey;
+        child.children[child.size + 1] = siblingChild;
+        child.childLengths[child.size + 1] = siblingChildLength;
+        child.size++;
+
+        System.arraycopy(sibling.keys, 1, sibling.keys, 0, sibling.size - 1);
+        System.arraycopy(sibling.children, 1, sibling.children, 0, sibling.size);
+        System.arraycopy(sibling.childLengths, 1, sibling.childLengths, 0, sibling.size);
+        sibling.size--;
+        sibling.keys[sibling.size] = null;
+        sibling.children[sibling.size + 1] = null;
+        sibling.childLengths[sibling.size + 1] = 0;
+
+        parent.keys[index] = siblingKey;
+        parent.childLengths[index] += parentKey.length() + siblingChildLength;
+        parent.childLengths[index + 1] -= siblingKey.length() + siblingChildLength;
+    }
+
+    private LongInterval getRightMostKey(LongBtrfsNode node) {
+        while (!node.isLeaf()) {
+            node = node.children[node.size];
+        }
+
+        return node.keys[node.size - 1];
+    }
+
+    /**
+     * Appends the given interval to the given list, merging it with the last interval if they are adjacent.
+     */
+    private static void add(List<LongInterval> intervals, long start, long length) {
+        if (!intervals.isEmpty()) {
+            LongInterval last = intervals.get(intervals.size() - 1);
+
+            if (last.start() + last.length() == start) {
+                intervals.set(intervals.size() - 1, new LongInterval(last.start(), last.length() + length));
+                return;
+            }
+        }
+
+        intervals.add(new LongInterval(start, length));
+    }
+
+    private void checkRange(long start, long length) {
+        if (start < 0 || length < 0 || start + length > size) {
+            throw new IndexOutOfBoundsException("range [%d, %d) is outside of the file of size %d"
+                .formatted(start, start + length, size));
+        }
+    }
+
+    /**
+     * Returns the size of the file.
+     *
+     * @return the size.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the name of the file.
+     *
+     * @return the name.
+     */
+    public String getName() {
+        return name;
+    }
+}
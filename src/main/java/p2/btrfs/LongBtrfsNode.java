@@ -0,0 +1,81 @@
+package p2.btrfs;
+
+import p2.storage.LongInterval;
+
+/**
+ * A node in a {@link LongBtrfsFile}. Unlike a {@link BtrfsNode}, the keys and the lengths of the children are
+ * {@code long} values, so a subtree can hold more than 2 GiB of data.
+ */
+public class LongBtrfsNode {
+
+    /**
+     * The degree of the tree.
+     */
+    public final int degree;
+
+    /**
+     * The number of keys in this node.
+     */
+    public int size = 0;
+
+    /**
+     * The keys in this node.
+     */
+    public LongInterval[] keys;
+
+    /**
+     * The children of this node.
+     */
+    public LongBtrfsNode[] children;
+
+    /**
+     * The lengths of the children of this node.
+     */
+    public long[] childLengths;
+
+    /**
+     * Creates a new {@link LongBtrfsNode} instance.
+     *
+     * @param degree the degree of the tree.
+     */
+    public LongBtrfsNode(int degree) {
+        this.degree = degree;
+        keys = new LongInterval[2 * degree - 1];
+        children = new LongBtrfsNode[2 * degree];
+        childLengths = new long[2 * degree];
+    }
+
+    /**
+     * Checks if this node is full.
+     *
+     * @return true if this node is full, false otherwise.
+     */
+    public boolean isFull() {
+        return size >= 2 * degree - 1;
+    }
+
+    /**
+     * Checks if this node is a leaf.
+     *
+     * @return true if this node is a leaf, false otherwise.
+     */
+    public boolean isLeaf() {
+        return children[0] == null;
+    }
+
+    /**
+     * Returns the amount of data in the subtree of this node.
+     *
+     * @return the length of the keys and children of this node.
+     */
+    public long length() {
+        long length = 0;
+
+        for (int i = 0; i < size; i++) {
+            length += keys[i].length() + childLengths[i];
+        }
+
+        return length + childLengths[size];
+    }
+
+}
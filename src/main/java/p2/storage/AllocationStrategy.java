@@ -1,5 +1,6 @@
 package p2.storage;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -13,6 +14,106 @@ public interface AllocationStrategy {
      */
     AllocationStrategy.Factory NEXT_FIT = NextFitAllocator::new;
 
+    /**
+     * A {@link Factory} that creates a {@link LazyNextFitAllocator}, whose memory grows with the used space.
+     */
+    AllocationStrategy.Factory LAZY_NEXT_FIT = new Factory() {
+        @Override
+        public AllocationStrategy create(boolean[] used) {
+            return new LazyNextFitAllocator(used);
+        }
+
+        @Override
+        public AllocationStrategy create(int size) {
+            return new LazyNextFitAllocator(size);
+        }
+
+        @Override
+        public AllocationStrategy create(int size, List<Interval> used) {
+            return new LazyNextFitAllocator(size, used);
+        }
+    };
+
+    /**
+     * A {@link Factory} that creates a {@link BitmapAllocator}, which stores one bit per byte of the storage.
+     */
+    AllocationStrategy.Factory BITMAP = new Factory() {
+        @Override
+        public AllocationStrategy create(boolean[] used) {
+            return new BitmapAllocator(used);
+        }
+
+        @Override
+        public AllocationStrategy create(int size) {
+            return new BitmapAllocator(size);
+        }
+
+        @Override
+        public AllocationStrategy create(int size, List<Interval> used) {
+            return new BitmapAllocator(size, used);
+        }
+    };
+
+    /**
+     * A {@link Factory} that creates a {@link BestFitAllocator}, which splits data into as few intervals as possible.
+     */
+    AllocationStrategy.Factory BEST_FIT = new Factory() {
+        @Override
+        public AllocationStrategy create(boolean[] used) {
+            return new BestFitAllocator(used);
+        }
+
+        @Override
+        public AllocationStrategy create(int size) {
+            return new BestFitAllocator(size);
+        }
+
+        @Override
+        public AllocationStrategy create(int size, List<Interval> used) {
+            return new BestFitAllocator(size, used);
+        }
+    };
+
+    /**
+     * A {@link Factory} that creates a {@link BuddyAllocator}, which allocates and frees in logarithmic time.
+     */
+    AllocationStrategy.Factory BUDDY = new Factory() {
+        @Override
+        public AllocationStrategy create(boolean[] used) {
+            return new BuddyAllocator(used);
+        }
+
+        @Override
+        public AllocationStrategy create(int size) {
+            return new BuddyAllocator(size);
+        }
+
+        @Override
+        public AllocationStrategy create(int size, List<Interval> used) {
+            return new BuddyAllocator(size, used);
+        }
+    };
+
+    /**
+     * A {@link Factory} that creates a {@link SlabAllocator}, which serves small requests from slabs.
+     */
+    AllocationStrategy.Factory SLAB = new Factory() {
+        @Override
+        public AllocationStrategy create(boolean[] used) {
+            return new SlabAllocator(used);
+        }
+
+        @Override
+        public AllocationStrategy create(int size) {
+            return new SlabAllocator(size);
+        }
+
+        @Override
+        public AllocationStrategy create(int size, List<Interval> used) {
+            return new SlabAllocator(size, used);
+        }
+    };
+
     /**
      * Finds an interval or multiple intervals that can be used to store data of the given length.
      * The intervals are not marked as used.
@@ -26,6 +127,29 @@ public interface AllocationStrategy {
      */
     List<Interval> allocate(int size) throws NoDiskSpaceException;
 
+    /**
+     * Marks the given interval as free, so that it can be allocated again. The interval has to be allocated, but it
+     * does not have to be an interval returned by {@link #allocate(int)}; parts of allocated intervals can be freed
+     * separately.
+     *
+     * @param interval The interval to free.
+     * @throws IllegalArgumentException If a part of the interval is not allocated.
+     */
+    void free(Interval interval);
+
+    /**
+     * Marks the given intervals as free, so that they can be allocated again.
+     *
+     * @param intervals The intervals to free.
+     * @throws IllegalArgumentException If a part of an interval is not allocated.
+     * @see #free(Interval)
+     */
+    default void free(List<Interval> intervals) {
+        for (Interval interval : intervals) {
+            free(interval);
+        }
+    }
+
     /**
      * Sets the maximum size of an interval that will be allocated.
      *
@@ -46,6 +170,37 @@ public interface AllocationStrategy {
          */
         AllocationStrategy create(boolean[] used);
 
+        /**
+         * Creates a new {@linkplain  AllocationStrategy allocation strategy} for a storage of the given size,
+         * which is initially free.
+         * The default implementation marks the used intervals in a new array.
+         *
+         * @param size The size of the storage.
+         * @return The new {@linkplain  AllocationStrategy allocation strategy}.
+         */
+        default AllocationStrategy create(int size) {
+            return create(new boolean[size]);
+        }
+
+        /**
+         * Creates a new {@linkplain  AllocationStrategy allocation strategy} for a storage of the given size,
+         * in which the given intervals are used.
+         * The default implementation marks the used intervals in a new array.
+         *
+         * @param size The size of the storage.
+         * @param used The used intervals, sorted by their start and not overlapping.
+         * @return The new {@linkplain  AllocationStrategy allocation strategy}.
+         */
+        default AllocationStrategy create(int size, List<Interval> used) {
+            boolean[] array = new boolean[size];
+
+            for (Interval interval : used) {
+                Arrays.fill(array, interval.start(), interval.start() + interval.length(), true);
+            }
+
+            return create(array);
+        }
+
     }
 
 }
@@ -1,5 +1,9 @@
 package p2.storage;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
 /**
  * A storage that stores data in a byte array.
  */
@@ -19,15 +23,6 @@ class ArrayStorage implements Storage {
         data = new byte[size];
     }
 
-    @Override
-    public StorageView createView(Interval... intervals) {
-        return switch (intervals.length) {
-            case 0 -> new EmptyStorageView(this);
-            case 1 -> new SingleIntervalView(this, intervals[0]);
-            default -> new MultiIntervalView(this, intervals);
-        };
-    }
-
     @Override
     public void write(int storagePos, byte[] source, int sourcePos, int length) throws SegmentationFault {
         checkAccess(storagePos, length);
@@ -42,6 +37,45 @@ class ArrayStorage implements Storage {
         System.arraycopy(this.data, storageStart, dest, destPos, length);
     }
 
+    @Override
+    public void writev(Interval[] intervals, byte[] source, int sourcePos) throws SegmentationFault {
+        for (Interval interval : intervals) {
+            checkAccess(interval.start(), interval.length());
+        }
+
+        for (Interval interval : intervals) {
+            System.arraycopy(source, sourcePos, data, interval.start(), interval.length());
+            sourcePos += interval.length();
+        }
+    }
+
+    @Override
+    public void readv(Interval[] intervals, byte[] dest, int destPos) throws SegmentationFault {
+        for (Interval interval : intervals) {
+            checkAccess(interval.start(), interval.length());
+        }
+
+        for (Interval interval : intervals) {
+            System.arraycopy(data, interval.start(), dest, destPos, interval.length());
+            destPos += interval.length();
+        }
+    }
+
+    @Override
+    public void read(int storagePos, ByteBuffer dest, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        dest.put(data, storagePos, length);
+    }
+
+    @Override
+    public long transferTo(int storagePos, int length, WritableByteChannel target) throws IOException {
+        checkAccess(storagePos, length);
+
+        Storage.writeFully(target, ByteBuffer.wrap(data, storagePos, length));
+        return length;
+    }
+
     @Override
     public int getSize() {
         return data.length;
@@ -0,0 +1,183 @@
+package p2.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A storage that stores data in a file which is accessed through an {@link AsynchronousFileChannel}.
+ * The asynchronous methods do not block the calling thread, and the synchronous methods wait for the
+ * corresponding asynchronous operation.
+ * Parts of the storage that were never written are read as zeros.
+ */
+public class AsyncFileStorage implements AsyncStorage {
+
+    /**
+     * The channel of the file.
+     */
+    private final AsynchronousFileChannel channel;
+
+    /**
+     * The size of the storage.
+     */
+    private final int size;
+
+    /**
+     * Creates a new storage with the given size that is backed by the file at the given path.
+     * If the file does not exist, it will be created. Existing data in the file is preserved.
+     *
+     * @param path the path of the file.
+     * @param size the size of the storage.
+     * @throws IOException if the file could not be opened.
+     */
+    public AsyncFileStorage(Path path, int size) throws IOException {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must be non-negative");
+        }
+
+        this.size = size;
+        channel = AsynchronousFileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public CompletableFuture<Void> writeAsync(int storagePos, byte[] source, int sourcePos, int length) {
+        if (storagePos < 0 || storagePos + length > size) {
+            return CompletableFuture.failedFuture(segmentationFault(storagePos, length));
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        transfer(true, storagePos, ByteBuffer.wrap(source, sourcePos, length), future);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> readAsync(int storagePos, byte[] dest, int destPos, int length) {
+        if (storagePos < 0 || storagePos + length > size) {
+            return CompletableFuture.failedFuture(segmentationFault(storagePos, length));
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        transfer(false, storagePos, ByteBuffer.wrap(dest, destPos, length), future);
+        return future;
+    }
+
+    @Override
+    public void write(int storagePos, byte[] source, int sourcePos, int length) throws SegmentationFault {
+        await(writeAsync(storagePos, source, sourcePos, length));
+    }
+
+    @Override
+    public void read(int storagePos, byte[] dest, int destPos, int length) throws SegmentationFault {
+        await(readAsync(storagePos, dest, destPos, length));
+    }
+
+    @Override
+    public void writev(Interval[] intervals, byte[] source, int sourcePos) throws SegmentationFault {
+        await(writevAsync(intervals, source, sourcePos));
+    }
+
+    @Override
+    public void readv(Interval[] intervals, byte[] dest, int destPos) throws SegmentationFault {
+        await(readvAsync(intervals, dest, destPos));
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Forces all written data to the file.
+     */
+    public void force() {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Forces all written data to the file and closes it.
+     */
+    @Override
+    public void close() {
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Transfers the remaining bytes of the given buffer from or to the file, starting at the given position.
+     * Since the channel may transfer fewer bytes than requested, the transfer is continued until the buffer is
+     * exhausted. Reading beyond the end of the file fills the rest of the buffer with zeros.
+     *
+     * @param write    whether the buffer is written to the file or read from it.
+     * @param position the position in the file.
+     * @param buffer   the buffer.
+     * @param future   the future that is completed when the transfer is finished.
+     */
+    private void transfer(boolean write, long position, ByteBuffer buffer, CompletableFuture<Void> future) {
+        if (!buffer.hasRemaining()) {
+            future.complete(null);
+            return;
+        }
+
+        CompletionHandler<Integer, Void> handler = new CompletionHandler<>() {
+            @Override
+            public void completed(Integer transferred, Void attachment) {
+                if (transferred < 0) {
+                    while (buffer.hasRemaining()) {
+                        buffer.put((byte) 0);
+                    }
+                    future.complete(null);
+                    return;
+                }
+
+                transfer(write, position + transferred, buffer, future);
+            }
+
+            @Override
+            public void failed(Throwable exception, Void attachment) {
+                future.completeExceptionally(exception);
+            }
+        };
+
+        if (write) {
+            channel.write(buffer, position, null, handler);
+        } else {
+            channel.read(buffer, position, null, handler);
+        }
+    }
+
+    /**
+     * Waits for the given future and rethrows its exception.
+     */
+    private static void await(CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof IOException cause) {
+                throw new UncheckedIOException(cause);
+            }
+            throw e;
+        }
+    }
+
+    private SegmentationFault segmentationFault(int start, int length) {
+        return new SegmentationFault(size, start < 0 ? start : start + length);
+    }
+}
@@ -0,0 +1,78 @@
+package p2.storage;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link Storage} that can also be accessed asynchronously. The asynchronous methods return immediately and
+ * complete the returned future once the data was transferred, so that many accesses can be in flight at once
+ * without blocking a thread for each of them.
+ *
+ * <p>Errors, including {@link SegmentationFault SegmentationFaults}, complete the future exceptionally.
+ * The given arrays must not be accessed by the caller until the future is completed.</p>
+ */
+public interface AsyncStorage extends Storage {
+
+    /**
+     * Asynchronously writes data from the given array to the storage.
+     *
+     * @param storagePos The position in the storage at which the data will be written.
+     * @param source The data that will be written.
+     * @param sourcePos The position in the source array at which the data starts.
+     * @param length The length of the data that will be written.
+     * @return A future that is completed when the data was written.
+     */
+    CompletableFuture<Void> writeAsync(int storagePos, byte[] source, int sourcePos, int length);
+
+    /**
+     * Asynchronously reads data from the storage into the given array.
+     *
+     * @param storagePos The position in the storage at which the data starts.
+     * @param dest The array to which the data will be written.
+     * @param destPos The position in the destination array at which the data will start.
+     * @param length The length of the data that will be read.
+     * @return A future that is completed when the data was read.
+     */
+    CompletableFuture<Void> readAsync(int storagePos, byte[] dest, int destPos, int length);
+
+    /**
+     * Asynchronously writes consecutive data of the given array to the given intervals.
+     * All intervals are written concurrently.
+     *
+     * @param intervals The intervals that will be written to.
+     * @param source The data that will be written.
+     * @param sourcePos The position in the source array at which the data starts.
+     * @return A future that is completed when all intervals were written.
+     * @see #writev(Interval[], byte[], int)
+     */
+    default CompletableFuture<Void> writevAsync(Interval[] intervals, byte[] source, int sourcePos) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[intervals.length];
+
+        for (int i = 0; i < intervals.length; i++) {
+            futures[i] = writeAsync(intervals[i].start(), source, sourcePos, intervals[i].length());
+            sourcePos += intervals[i].length();
+        }
+
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Asynchronously reads the data of the given intervals and stores it consecutively in the given array.
+     * All intervals are read concurrently.
+     *
+     * @param intervals The intervals that will be read.
+     * @param dest The array to which the data will be written.
+     * @param destPos The position in the destination array at which the data will start.
+     * @return A future that is completed when all intervals were read.
+     * @see #readv(Interval[], byte[], int)
+     */
+    default CompletableFuture<Void> readvAsync(Interval[] intervals, byte[] dest, int destPos) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[intervals.length];
+
+        for (int i = 0; i < intervals.length; i++) {
+            futures[i] = readAsync(intervals[i].start(), dest, destPos, intervals[i].length());
+            destPos += intervals[i].length();
+        }
+
+        return CompletableFuture.allOf(futures);
+    }
+}
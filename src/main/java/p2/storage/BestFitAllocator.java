@@ -0,0 +1,184 @@
+package p2.storage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A best-fit {@linkplain AllocationStrategy allocation strategy} that keeps the free space as extents in two ordered
+ * indexes, one by start and one by length. A request is satisfied by the smallest free extent that is large enough,
+ * which is split if it is larger than needed. If there is no such extent, the largest extents are used, so that the
+ * data is split into as few intervals as possible. Freed intervals are merged with adjacent free extents.
+ */
+public class BestFitAllocator implements AllocationStrategy {
+
+    /**
+     * The free extents by their start. The values are the lengths of the extents.
+     */
+    private final TreeMap<Integer, Integer> byStart = new TreeMap<>();
+
+    /**
+     * The free extents ordered by their length and then by their start.
+     */
+    private final TreeSet<Interval> byLength = new TreeSet<>(Comparator.comparingInt(Interval::length)
+        .thenComparingInt(Interval::start));
+
+    /**
+     * The number of free bytes.
+     */
+    private int free = 0;
+
+    /**
+     * The maximum size of an interval that will be allocated.
+     */
+    private int maxIntervalSize = Integer.MAX_VALUE;
+
+    /**
+     * Creates a new {@link BestFitAllocator} for a storage of the given size, which is initially free.
+     *
+     * @param size the size of the storage.
+     */
+    public BestFitAllocator(int size) {
+        if (size > 0) {
+            add(0, size);
+        }
+    }
+
+    /**
+     * Creates a new {@link BestFitAllocator} for a storage in which the given bytes are used.
+     *
+     * @param used the array that marks the used bytes of the storage.
+     */
+    public BestFitAllocator(boolean[] used) {
+        int start = 0;
+
+        while (start < used.length) {
+            while (start < used.length && used[start]) {
+                start++;
+            }
+
+            int end = start;
+            while (end < used.length && !used[end]) {
+                end++;
+            }
+
+            if (end > start) {
+                add(start, end - start);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Creates a new {@link BestFitAllocator} for a storage of the given size in which the given intervals are used.
+     *
+     * @param size the size of the storage.
+     * @param used the used intervals, sorted by their start and not overlapping.
+     */
+    public BestFitAllocator(int size, List<Interval> used) {
+        int start = 0;
+
+        for (Interval interval : used) {
+            if (interval.start() > start) {
+                add(start, interval.start() - start);
+            }
+            start = Math.max(start, interval.start() + interval.length());
+        }
+
+        if (size > start) {
+            add(start, size - start);
+        }
+    }
+
+    @Override
+    public void setMaxIntervalSize(int size) {
+        maxIntervalSize = size;
+    }
+
+    @Override
+    public List<Interval> allocate(int size) throws NoDiskSpaceException {
+        if (size > free) {
+            throw new NoDiskSpaceException();
+        }
+
+        List<Interval> intervals = new ArrayList<>();
+        int remaining = size;
+
+        while (remaining > 0) {
+            int wanted = Math.min(remaining, maxIntervalSize);
+
+            // the smallest extent that fits or, if there is none, the largest extent
+            Interval extent = byLength.ceiling(new Interval(0, wanted));
+            if (extent == null) {
+                extent = byLength.last();
+            }
+
+            int length = Math.min(wanted, extent.length());
+
+            remove(extent);
+            if (length < extent.length()) {
+                add(extent.start() + length, extent.length() - length);
+            }
+
+            intervals.add(new Interval(extent.start(), length));
+            remaining -= length;
+        }
+
+        return intervals;
+    }
+
+    /**
+     * Marks the given interval as free again and merges it with adjacent free extents.
+     *
+     * @param interval the interval, which has to be allocated.
+     * @throws IllegalArgumentException if a part of the interval is already free.
+     */
+    @Override
+    public void free(Interval interval) {
+        int start = interval.start();
+        int end = interval.start() + interval.length();
+
+        Map.Entry<Integer, Integer> previous = byStart.floorEntry(start);
+        Map.Entry<Integer, Integer> next = byStart.ceilingEntry(start);
+
+        if (previous != null && previous.getKey() + previous.getValue() > start || next != null && next.getKey() < end) {
+            throw new IllegalArgumentException("interval " + interval + " is already free");
+        }
+
+        if (previous != null && previous.getKey() + previous.getValue() == start) {
+            remove(new Interval(previous.getKey(), previous.getValue()));
+            start = previous.getKey();
+        }
+
+        if (next != null && next.getKey() == end) {
+            remove(new Interval(next.getKey(), next.getValue()));
+            end += next.getValue();
+        }
+
+        add(start, end - start);
+    }
+
+    /**
+     * Returns the number of free extents, which is a measure of the fragmentation of the free space.
+     *
+     * @return the number of free extents.
+     */
+    public int getFreeExtents() {
+        return byStart.size();
+    }
+
+    private void add(int start, int length) {
+        byStart.put(start, length);
+        byLength.add(new Interval(start, length));
+        free += length;
+    }
+
+    private void remove(Interval extent) {
+        byStart.remove(extent.start());
+        byLength.remove(extent);
+        free -= extent.length();
+    }
+}
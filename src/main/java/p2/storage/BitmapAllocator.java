@@ -0,0 +1,159 @@
+package p2.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A next-fit {@linkplain AllocationStrategy allocation strategy} that marks used bytes in a bitmap of
+ * {@code long} words. It uses one bit per byte of the storage instead of the {@code boolean} used by the
+ * {@link NextFitAllocator}, and it finds free and used runs 64 bytes at a time and marks whole ranges with word
+ * masks through {@link Bitmaps}.
+ *
+ * <p>Like the {@link NextFitAllocator}, it continues searching after the last allocated interval.</p>
+ */
+public class BitmapAllocator implements AllocationStrategy {
+
+    /**
+     * The size of the storage.
+     */
+    private final int size;
+
+    /**
+     * The bitmap, in which a set bit marks a used byte. Bit {@code i % 64} of word {@code i / 64} belongs to byte
+     * {@code i}.
+     */
+    private final long[] words;
+
+    /**
+     * The number of free bytes in the storage.
+     */
+    private int free;
+
+    /**
+     * The index of the last byte that was allocated.
+     */
+    private int lastFit = -1;
+
+    /**
+     * The maximum size of an interval that will be allocated.
+     */
+    private int maxIntervalSize = Integer.MAX_VALUE;
+
+    /**
+     * Creates a new {@link BitmapAllocator} for a storage of the given size, which is initially free.
+     *
+     * @param size the size of the storage.
+     */
+    public BitmapAllocator(int size) {
+        this.size = size;
+        free = size;
+        words = new long[Bitmaps.words(size)];
+    }
+
+    /**
+     * Creates a new {@link BitmapAllocator} for a storage in which the given bytes are used.
+     *
+     * @param used the array that marks the used bytes of the storage.
+     */
+    public BitmapAllocator(boolean[] used) {
+        this(used.length);
+
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                words[i >>> 6] |= 1L << i;
+                free--;
+            }
+        }
+    }
+
+    /**
+     * Creates a new {@link BitmapAllocator} for a storage of the given size in which the given intervals are used.
+     *
+     * @param size the size of the storage.
+     * @param used the used intervals, sorted by their start and not overlapping.
+     */
+    public BitmapAllocator(int size, List<Interval> used) {
+        this(size);
+
+        for (Interval interval : used) {
+            mark(interval.start(), interval.start() + interval.length());
+        }
+    }
+
+    @Override
+    public void setMaxIntervalSize(int size) {
+        maxIntervalSize = size;
+    }
+
+    @Override
+    public List<Interval> allocate(int size) throws NoDiskSpaceException {
+        if (size > free) {
+            throw new NoDiskSpaceException();
+        }
+
+        List<Interval> intervals = new ArrayList<>();
+        int position = lastFit + 1 == this.size ? 0 : lastFit + 1;
+        int remaining = size;
+
+        while (remaining > 0) {
+            int start = nextFree(position);
+
+            // continue at the beginning; there is enough free space, so the search terminates
+            if (start == this.size) {
+                position = 0;
+                continue;
+            }
+
+            int limit = start + Math.min(Math.min(remaining, maxIntervalSize), this.size - start);
+            int end = nextUsed(start, limit);
+
+            mark(start, end);
+            intervals.add(new Interval(start, end - start));
+
+            remaining -= end - start;
+            lastFit = end - 1;
+            position = end == this.size ? 0 : end;
+        }
+
+        return intervals;
+    }
+
+    @Override
+    public void free(Interval interval) {
+        int start = interval.start();
+        int end = interval.start() + interval.length();
+
+        if (Bitmaps.nextClear(words, start, end) < end) {
+            throw new IllegalArgumentException("interval " + interval + " is not allocated");
+        }
+
+        Bitmaps.clear(words, start, end);
+        free += end - start;
+    }
+
+    /**
+     * Returns the position of the first free byte at or after the given position.
+     *
+     * @return the position of the free byte or the size of the storage if there is none.
+     */
+    private int nextFree(int position) {
+        return Bitmaps.nextClear(words, position, size);
+    }
+
+    /**
+     * Returns the position of the first used byte at or after the given position, but before the given limit.
+     *
+     * @return the position of the used byte or the limit if there is none.
+     */
+    private int nextUsed(int position, int limit) {
+        return Bitmaps.nextSet(words, position, limit);
+    }
+
+    /**
+     * Marks the bytes from the given start (inclusive) to the given end (exclusive), which have to be free, as used.
+     */
+    private void mark(int start, int end) {
+        Bitmaps.set(words, start, end);
+        free -= end - start;
+    }
+}
@@ -0,0 +1,132 @@
+package p2.storage;
+
+/**
+ * Operations on bitmaps that are stored in arrays of {@code long} words. Bit {@code i % 64} of word {@code i / 64}
+ * belongs to index {@code i}. Runs of set and clear bits are found 64 bits at a time with
+ * {@link Long#numberOfTrailingZeros(long)} and whole ranges are changed with word masks.
+ */
+final class Bitmaps {
+
+    /**
+     * This class cannot be instantiated.
+     */
+    private Bitmaps() {
+    }
+
+    /**
+     * Returns the number of words that are needed for a bitmap with the given number of bits.
+     *
+     * @param bits the number of bits.
+     * @return the number of words.
+     */
+    static int words(int bits) {
+        return (int) (((long) bits + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    /**
+     * Returns the index of the first clear bit at or after the given index, but before the given limit.
+     *
+     * @param words the bitmap.
+     * @param from  the index to start at (inclusive).
+     * @param to    the limit (exclusive), which must not exceed the bits of the bitmap.
+     * @return the index of the clear bit or the limit if there is none.
+     */
+    static int nextClear(long[] words, int from, int to) {
+        return next(words, from, to, -1L);
+    }
+
+    /**
+     * Returns the index of the first set bit at or after the given index, but before the given limit.
+     *
+     * @param words the bitmap.
+     * @param from  the index to start at (inclusive).
+     * @param to    the limit (exclusive), which must not exceed the bits of the bitmap.
+     * @return the index of the set bit or the limit if there is none.
+     */
+    static int nextSet(long[] words, int from, int to) {
+        return next(words, from, to, 0);
+    }
+
+    /**
+     * Sets the bits from the given start (inclusive) to the given end (exclusive).
+     *
+     * @param words the bitmap.
+     * @param from  the first index.
+     * @param to    the end of the range.
+     */
+    static void set(long[] words, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+
+        int firstWord = from >>> 6;
+        int lastWord = (to - 1) >>> 6;
+
+        // the shifts only use the lowest six bits of the positions
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+
+        if (firstWord == lastWord) {
+            words[firstWord] |= firstMask & lastMask;
+        } else {
+            words[firstWord] |= firstMask;
+            for (int word = firstWord + 1; word < lastWord; word++) {
+                words[word] = -1L;
+            }
+            words[lastWord] |= lastMask;
+        }
+    }
+
+    /**
+     * Clears the bits from the given start (inclusive) to the given end (exclusive).
+     *
+     * @param words the bitmap.
+     * @param from  the first index.
+     * @param to    the end of the range.
+     */
+    static void clear(long[] words, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+
+        int firstWord = from >>> 6;
+        int lastWord = (to - 1) >>> 6;
+
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+
+        if (firstWord == lastWord) {
+            words[firstWord] &= ~(firstMask & lastMask);
+        } else {
+            words[firstWord] &= ~firstMask;
+            for (int word = firstWord + 1; word < lastWord; word++) {
+                words[word] = 0;
+            }
+            words[lastWord] &= ~lastMask;
+        }
+    }
+
+    /**
+     * Returns the index of the first bit in the given range that differs from the bits of the given word.
+     */
+    private static int next(long[] words, int from, int to, long skipped) {
+        if (from >= to) {
+            return to;
+        }
+
+        int word = from >>> 6;
+        int lastWord = (to - 1) >>> 6;
+
+        // ignore the bits in front of the start
+        long bits = (words[word] ^ skipped) & (-1L << from);
+
+        while (bits == 0) {
+            if (++word > lastWord) {
+                return to;
+            }
+            bits = words[word] ^ skipped;
+        }
+
+        return Math.min(to, (word << 6) + Long.numberOfTrailingZeros(bits));
+    }
+}
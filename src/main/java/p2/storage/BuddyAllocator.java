@@ -0,0 +1,278 @@
+package p2.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An {@linkplain AllocationStrategy allocation strategy} that uses the binary buddy system.
+ * The storage is managed in blocks whose size is a power of two and whose start is a multiple of their size.
+ * A request is served by the smallest free block that is large enough, which is split into halves (buddies) as often
+ * as necessary. An interval whose length is not a power of two is allocated as several adjacent blocks, and the unused
+ * halves behind it stay free, so no space is lost to rounding. When a block is freed, it is merged with its buddy as
+ * long as the buddy is free as well. Both operations take time logarithmic in the size of the storage.
+ *
+ * <p>If a storage size is not a power of two, the storage is covered by the largest aligned blocks that fit into it.
+ * If no free block is large enough for a request, the request is split across the largest free blocks.</p>
+ */
+public class BuddyAllocator implements AllocationStrategy {
+
+    /**
+     * The starts of the free blocks of each order.
+     */
+    private final List<TreeSet<Integer>> freeBlocks = new ArrayList<>();
+
+    /**
+     * The binary logarithms of the sizes of the allocated blocks by their start. All bytes of an allocated block are
+     * in use.
+     */
+    private final TreeMap<Integer, Integer> allocatedBlocks = new TreeMap<>();
+
+    /**
+     * The number of bytes in free blocks.
+     */
+    private int free = 0;
+
+    /**
+     * The maximum size of an interval that will be allocated.
+     */
+    private int maxIntervalSize = Integer.MAX_VALUE;
+
+    /**
+     * Creates a new {@link BuddyAllocator} for a storage of the given size, which is initially free.
+     *
+     * @param size the size of the storage.
+     */
+    public BuddyAllocator(int size) {
+        this(size, List.of());
+    }
+
+    /**
+     * Creates a new {@link BuddyAllocator} for a storage in which the given bytes are used.
+     * The used bytes are treated as allocated blocks, so they can be freed later.
+     *
+     * @param used the array that marks the used bytes of the storage.
+     */
+    public BuddyAllocator(boolean[] used) {
+        this(used.length, intervals(used));
+    }
+
+    /**
+     * Creates a new {@link BuddyAllocator} for a storage of the given size in which the given intervals are used.
+     * The used bytes are treated as allocated blocks, so they can be freed later.
+     *
+     * @param size the size of the storage.
+     * @param used the used intervals, sorted by their start and not overlapping.
+     */
+    public BuddyAllocator(int size, List<Interval> used) {
+        // blocks up to 2^30 bytes, which is the largest power of two that fits into an int
+        for (int order = 0; order < Integer.SIZE - 1; order++) {
+            freeBlocks.add(new TreeSet<>());
+        }
+
+        // cover the storage with the largest aligned blocks, from the largest to the smallest
+        int start = 0;
+        for (int order = Integer.SIZE - 2; order >= 0; order--) {
+            if ((size & 1 << order) != 0) {
+                addBlock(start, order, overlapping(used, start, start + (1 << order)));
+                start += 1 << order;
+            }
+        }
+    }
+
+    @Override
+    public void setMaxIntervalSize(int size) {
+        maxIntervalSize = size;
+    }
+
+    @Override
+    public List<Interval> allocate(int size) throws NoDiskSpaceException {
+        if (size > free) {
+            throw new NoDiskSpaceException();
+        }
+
+        List<Interval> intervals = new ArrayList<>();
+        int remaining = size;
+
+        while (remaining > 0) {
+            int wanted = Math.min(remaining, maxIntervalSize);
+            int order = Integer.SIZE - Integer.numberOfLeadingZeros(wanted - 1);
+
+            // find the smallest free block that is large enough
+            int found = order;
+            while (found < freeBlocks.size() && freeBlocks.get(found).isEmpty()) {
+                found++;
+            }
+
+            // if there is none, use the largest free block completely
+            if (found == freeBlocks.size()) {
+                found = order - 1;
+                while (freeBlocks.get(found).isEmpty()) {
+                    found--;
+                }
+                wanted = 1 << found;
+            }
+
+            int start = freeBlocks.get(found).pollFirst();
+            free -= 1 << found;
+
+            // split the block into halves; the halves in front of the end of the interval are allocated as blocks,
+            // the halves behind it stay free, so that no space is wasted
+            int position = start;
+            int rest = wanted;
+
+            while (rest < 1 << found) {
+                found--;
+
+                if (rest <= 1 << found) {
+                    freeBlocks.get(found).add(position + (1 << found));
+                    free += 1 << found;
+                } else {
+                    allocatedBlocks.put(position, found);
+                    position += 1 << found;
+                    rest -= 1 << found;
+                }
+            }
+
+            allocatedBlocks.put(position, found);
+            intervals.add(new Interval(start, wanted));
+            remaining -= wanted;
+        }
+
+        return intervals;
+    }
+
+    /**
+     * Frees the given interval. Blocks that are only freed in part are split into halves until the freed bytes are
+     * covered by whole blocks, which are freed and merged with their buddies if possible, so an interval can also be
+     * freed in parts and every freed byte can be allocated again. The interval is checked completely before anything
+     * is freed, so a rejected interval does not change the allocator.
+     *
+     * @param interval the interval, which has to be allocated.
+     * @throws IllegalArgumentException if a part of the interval is not allocated.
+     */
+    @Override
+    public void free(Interval interval) {
+        int end = interval.start() + interval.length();
+
+        for (int position = interval.start(); position < end; ) {
+            Map.Entry<Integer, Integer> entry = allocatedBlocks.floorEntry(position);
+
+            if (entry == null || entry.getKey() + (1 << entry.getValue()) <= position) {
+                throw new IllegalArgumentException("interval " + interval + " is not allocated");
+            }
+
+            position = entry.getKey() + (1 << entry.getValue());
+        }
+
+        for (int position = interval.start(); position < end; ) {
+            int start = allocatedBlocks.floorKey(position);
+            int order = allocatedBlocks.remove(start);
+
+            freePart(start, order, interval.start(), end);
+            position = start + (1 << order);
+        }
+    }
+
+    /**
+     * Returns the number of free blocks of each order.
+     *
+     * @return the number of free blocks, indexed by the binary logarithm of their size.
+     */
+    public int[] getFreeBlockCounts() {
+        return freeBlocks.stream().mapToInt(TreeSet::size).toArray();
+    }
+
+    /**
+     * Adds the given block to the free or allocated blocks, depending on the number of used bytes in it.
+     * Blocks that are only partially used are split.
+     *
+     * @param used the used intervals that overlap the block.
+     */
+    private void addBlock(int start, int order, List<Interval> used) {
+        int end = start + (1 << order);
+        int usedBytes = 0;
+
+        for (Interval interval : used) {
+            usedBytes += Math.min(end, interval.start() + interval.length()) - Math.max(start, interval.start());
+        }
+
+        if (usedBytes == 0) {
+            freeBlocks.get(order).add(start);
+            free += 1 << order;
+        } else if (usedBytes == 1 << order) {
+            allocatedBlocks.put(start, order);
+        } else {
+            int middle = start + (1 << order - 1);
+            addBlock(start, order - 1, overlapping(used, start, middle));
+            addBlock(middle, order - 1, overlapping(used, middle, end));
+        }
+    }
+
+    /**
+     * Returns the given intervals that overlap the range from the given start (inclusive) to the given end
+     * (exclusive).
+     */
+    private static List<Interval> overlapping(List<Interval> intervals, int start, int end) {
+        return intervals.stream()
+            .filter(interval -> interval.start() < end && start < interval.start() + interval.length())
+            .toList();
+    }
+
+    /**
+     * Returns the intervals of the used bytes in the given array, sorted by their start.
+     */
+    private static List<Interval> intervals(boolean[] used) {
+        List<Interval> intervals = new ArrayList<>();
+
+        for (int start = 0; start < used.length; ) {
+            if (!used[start]) {
+                start++;
+                continue;
+            }
+
+            int end = start;
+            while (end < used.length && used[end]) {
+                end++;
+            }
+
+            intervals.add(new Interval(start, end - start));
+            start = end;
+        }
+
+        return intervals;
+    }
+
+    /**
+     * Frees the bytes of the given allocated block from the given start (inclusive) to the given end (exclusive).
+     * The block is split into halves that are allocated, freed or split again.
+     */
+    private void freePart(int start, int order, int from, int to) {
+        int end = start + (1 << order);
+
+        if (from <= start && end <= to) {
+            release(start, order);
+        } else if (to <= start || end <= from) {
+            allocatedBlocks.put(start, order);
+        } else {
+            freePart(start, order - 1, from, to);
+            freePart(start + (1 << order - 1), order - 1, from, to);
+        }
+    }
+
+    /**
+     * Adds the given block to the free blocks and merges it with its buddy as long as the buddy is free.
+     */
+    private void release(int start, int order) {
+        free += 1 << order;
+
+        while (freeBlocks.get(order).remove(start ^ 1 << order)) {
+            start &= ~(1 << order);
+            order++;
+        }
+
+        freeBlocks.get(order).add(start);
+    }
+}
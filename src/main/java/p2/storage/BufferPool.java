@@ -0,0 +1,278 @@
+package p2.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of fixed-size pages that caches the content of a {@link FileChannel}.
+ * Pages are replaced with the CLOCK algorithm. A page that is pinned is never replaced,
+ * and a page that was modified is written back to the channel before it is replaced.
+ */
+public class BufferPool {
+
+    /**
+     * The channel whose pages are cached.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The size of a page in bytes.
+     */
+    private final int pageSize;
+
+    /**
+     * The content of the frames.
+     */
+    private final byte[][] frames;
+
+    /**
+     * The page that is stored in each frame or {@code -1} if the frame is empty.
+     */
+    private final long[] pageIds;
+
+    /**
+     * The number of users that currently pin each frame.
+     */
+    private final int[] pinCounts;
+
+    /**
+     * Whether the page in each frame was modified since it was loaded.
+     */
+    private final boolean[] dirty;
+
+    /**
+     * The reference bits of the CLOCK algorithm.
+     */
+    private final boolean[] referenced;
+
+    /**
+     * Maps the pages that are currently cached to their frames.
+     */
+    private final Map<Long, Integer> pageTable = new HashMap<>();
+
+    /**
+     * The position of the clock hand.
+     */
+    private int clockHand = 0;
+
+    /**
+     * The number of page requests that were served from the pool.
+     */
+    private long hits = 0;
+
+    /**
+     * The number of page requests that had to read the page from the channel.
+     */
+    private long misses = 0;
+
+    /**
+     * Creates a new {@link BufferPool} instance.
+     *
+     * @param channel      the channel whose pages will be cached.
+     * @param pageSize     the size of a page in bytes.
+     * @param memoryBudget the maximum amount of bytes used for cached pages. It must hold at least one page.
+     */
+    public BufferPool(FileChannel channel, int pageSize, long memoryBudget) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        if (memoryBudget < pageSize) {
+            throw new IllegalArgumentException("memoryBudget must hold at least one page");
+        }
+
+        this.channel = channel;
+        this.pageSize = pageSize;
+
+        int frameCount = (int) Math.min(memoryBudget / pageSize, Integer.MAX_VALUE - 8);
+        frames = new byte[frameCount][];
+        pageIds = new long[frameCount];
+        pinCounts = new int[frameCount];
+        dirty = new boolean[frameCount];
+        referenced = new boolean[frameCount];
+        Arrays.fill(pageIds, -1);
+    }
+
+    /**
+     * Pins the given page and returns the frame that holds it. The page is loaded from the channel if necessary.
+     * Every call has to be followed by a call to {@link #unpin(int, boolean)}.
+     *
+     * @param pageId the page to pin.
+     * @return the frame that holds the page.
+     * @throws IllegalStateException if every frame is pinned.
+     */
+    public synchronized int pin(long pageId) {
+        Integer cached = pageTable.get(pageId);
+
+        if (cached != null) {
+            hits++;
+            pinCounts[cached]++;
+            referenced[cached] = true;
+            return cached;
+        }
+
+        misses++;
+
+        int frame = findVictim();
+        evict(frame);
+        load(frame, pageId);
+
+        pinCounts[frame] = 1;
+        referenced[frame] = true;
+        return frame;
+    }
+
+    /**
+     * Releases a pin of the given frame.
+     *
+     * @param frame    the frame to unpin.
+     * @param modified whether the page was modified while it was pinned.
+     */
+    public synchronized void unpin(int frame, boolean modified) {
+        if (pinCounts[frame] == 0) {
+            throw new IllegalStateException("frame is not pinned");
+        }
+
+        pinCounts[frame]--;
+        dirty[frame] |= modified;
+    }
+
+    /**
+     * Returns the content of the given frame. The frame must be pinned while its content is accessed.
+     *
+     * @param frame the frame.
+     * @return the content of the frame.
+     */
+    public byte[] getFrame(int frame) {
+        return frames[frame];
+    }
+
+    /**
+     * Writes all modified pages back to the channel.
+     */
+    public synchronized void flush() {
+        for (int frame = 0; frame < frames.length; frame++) {
+            writeBack(frame);
+        }
+    }
+
+    /**
+     * Returns the size of a page in bytes.
+     *
+     * @return the page size.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns the number of frames, i.e. the maximum number of pages that are cached at the same time.
+     *
+     * @return the number of frames.
+     */
+    public int getCapacity() {
+        return frames.length;
+    }
+
+    /**
+     * Returns the number of page requests that were served without reading from the channel.
+     *
+     * @return the number of hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of page requests that had to read the page from the channel.
+     *
+     * @return the number of misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Finds a frame that can be replaced using the CLOCK algorithm.
+     *
+     * @return the frame to replace.
+     */
+    private int findVictim() {
+        // every frame is visited at most twice: once to clear its reference bit and once to select it
+        for (int i = 0; i < 2 * frames.length; i++) {
+            int frame = clockHand;
+            clockHand = (clockHand + 1) % frames.length;
+
+            if (pinCounts[frame] > 0) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            return frame;
+        }
+
+        throw new IllegalStateException("every page in the buffer pool is pinned");
+    }
+
+    private void evict(int frame) {
+        if (pageIds[frame] == -1) {
+            return;
+        }
+
+        writeBack(frame);
+        pageTable.remove(pageIds[frame]);
+        pageIds[frame] = -1;
+    }
+
+    private void load(int frame, long pageId) {
+        if (frames[frame] == null) {
+            frames[frame] = new byte[pageSize];
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(frames[frame]);
+        long position = pageId * pageSize;
+
+        try {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // the part of the page behind the end of the file is empty
+        Arrays.fill(frames[frame], buffer.position(), pageSize, (byte) 0);
+
+        pageIds[frame] = pageId;
+        dirty[frame] = false;
+        pageTable.put(pageId, frame);
+    }
+
+    private void writeBack(int frame) {
+        if (!dirty[frame]) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(frames[frame]);
+        long position = pageIds[frame] * pageSize;
+
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        dirty[frame] = false;
+    }
+}
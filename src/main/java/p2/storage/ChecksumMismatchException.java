@@ -0,0 +1,17 @@
+package p2.storage;
+
+/**
+ * Indicates that data read from a storage does not match the checksum that was recorded when it was written.
+ */
+public class ChecksumMismatchException extends RuntimeException {
+
+    /**
+     * Creates a new checksum mismatch exception.
+     *
+     * @param blockStart the position of the first byte of the corrupted block.
+     * @param blockLength the length of the corrupted block.
+     */
+    ChecksumMismatchException(int blockStart, int blockLength) {
+        super("Checksum mismatch in block [%d, %d)".formatted(blockStart, blockStart + blockLength));
+    }
+}
@@ -0,0 +1,319 @@
+package p2.storage;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32C;
+
+/**
+ * A storage that records a CRC32C checksum for every fixed-size block written through it and verifies the checksums
+ * of the blocks that are read, in order to detect corruption of the underlying storage.
+ * Only the blocks touched by a read are verified, so the cost is proportional to the amount of data read.
+ * Blocks that were never written through this storage are not verified.
+ *
+ * <p>Checksums cover whole blocks, so accesses that cover a block only partially read the whole block: a partial
+ * write reads the block to verify its old content and to compute its new checksum, and a verified partial read reads
+ * the block again. With the default block size of 4 KiB, an access of a few bytes therefore reads up to 4 KiB per
+ * touched block. The block size should match the typical size of the accesses, e.g. the size of the intervals that
+ * a {@link FileSystem} allocates.</p>
+ */
+public class ChecksummedStorage implements Storage {
+
+    /**
+     * The default size of a block (4 KiB).
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /**
+     * Determines when the checksums of read blocks are verified.
+     */
+    public enum VerificationPolicy {
+
+        /**
+         * Every block is verified when it is read. A mismatch throws a {@link ChecksumMismatchException}.
+         */
+        ALWAYS,
+
+        /**
+         * Every n-th block that is read is verified. A mismatch throws a {@link ChecksumMismatchException}.
+         */
+        SAMPLED,
+
+        /**
+         * Read blocks are verified by a background thread. Mismatches do not interrupt reads but are reported by
+         * {@link #getCorruptBlocks()}.
+         */
+        BACKGROUND
+    }
+
+    /**
+     * The storage that stores the data.
+     */
+    private final Storage delegate;
+
+    /**
+     * The size of a block.
+     */
+    private final int blockSize;
+
+    /**
+     * The policy that determines when blocks are verified.
+     */
+    private final VerificationPolicy policy;
+
+    /**
+     * The number of read blocks per verified block if the policy is {@link VerificationPolicy#SAMPLED}.
+     */
+    private final int sampleInterval;
+
+    /**
+     * The checksum of each block.
+     */
+    private final int[] checksums;
+
+    /**
+     * The blocks that have a checksum.
+     */
+    private final BitSet known;
+
+    /**
+     * The blocks whose verification failed.
+     */
+    private final Set<Integer> corruptBlocks = new ConcurrentSkipListSet<>();
+
+    /**
+     * The blocks that are waiting for background verification.
+     */
+    private final Set<Integer> pendingBlocks = new ConcurrentSkipListSet<>();
+
+    /**
+     * The executor that verifies blocks in the background or {@code null} if the policy is not
+     * {@link VerificationPolicy#BACKGROUND}.
+     */
+    private final ExecutorService verifier;
+
+    /**
+     * A buffer that holds a single block while its checksum is computed.
+     */
+    private final byte[] blockBuffer;
+
+    /**
+     * The number of read blocks since the last sampled verification.
+     */
+    private int readBlocks = 0;
+
+    /**
+     * Creates a new storage that protects the given storage with checksums of blocks of {@link #DEFAULT_BLOCK_SIZE}
+     * bytes and verifies every read block.
+     *
+     * @param delegate the storage that stores the data.
+     */
+    public ChecksummedStorage(Storage delegate) {
+        this(delegate, DEFAULT_BLOCK_SIZE, VerificationPolicy.ALWAYS, 1);
+    }
+
+    /**
+     * Creates a new storage that protects the given storage with checksums.
+     *
+     * @param delegate       the storage that stores the data.
+     * @param blockSize      the size of a block that has its own checksum.
+     * @param policy         the policy that determines when blocks are verified.
+     * @param sampleInterval the number of read blocks per verified block if the policy is
+     *                       {@link VerificationPolicy#SAMPLED}.
+     */
+    public ChecksummedStorage(Storage delegate, int blockSize, VerificationPolicy policy, int sampleInterval) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        if (sampleInterval <= 0) {
+            throw new IllegalArgumentException("sampleInterval must be positive");
+        }
+
+        this.delegate = delegate;
+        this.blockSize = blockSize;
+        this.policy = policy;
+        this.sampleInterval = sampleInterval;
+
+        int blockCount = (int) (((long) delegate.getSize() + blockSize - 1) / blockSize);
+        checksums = new int[blockCount];
+        known = new BitSet(blockCount);
+        blockBuffer = new byte[blockSize];
+
+        verifier = policy == VerificationPolicy.BACKGROUND ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checksum-verifier");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    @Override
+    public synchronized void write(int storagePos, byte[] source, int sourcePos, int length) throws SegmentationFault {
+        if (length == 0) {
+            delegate.write(storagePos, source, sourcePos, length);
+            return;
+        }
+
+        int firstBlock = storagePos / blockSize;
+        int lastBlock = (storagePos + length - 1) / blockSize;
+
+        // only the first and the last block can be written partially; their old content is verified before writing
+        int firstChecksum = checksum(firstBlock, storagePos, source, sourcePos, length);
+        int lastChecksum = lastBlock == firstBlock ? firstChecksum
+            : checksum(lastBlock, storagePos, source, sourcePos, length);
+
+        delegate.write(storagePos, source, sourcePos, length);
+
+        for (int block = firstBlock; block <= lastBlock; block++) {
+            if (block == firstBlock) {
+                checksums[block] = firstChecksum;
+            } else if (block == lastBlock) {
+                checksums[block] = lastChecksum;
+            } else {
+                checksums[block] = checksum(source, sourcePos + block * blockSize - storagePos, blockSize);
+            }
+
+            known.set(block);
+        }
+    }
+
+    @Override
+    public synchronized void read(int storagePos, byte[] dest, int destPos, int length) throws SegmentationFault {
+        delegate.read(storagePos, dest, destPos, length);
+
+        if (length == 0) {
+            return;
+        }
+
+        int lastBlock = (storagePos + length - 1) / blockSize;
+        for (int block = storagePos / blockSize; block <= lastBlock; block++) {
+            if (!known.get(block)) {
+                continue;
+            }
+
+            switch (policy) {
+                case ALWAYS -> verify(block, dest, destPos + block * blockSize - storagePos, storagePos, length);
+                case SAMPLED -> {
+                    if (++readBlocks >= sampleInterval) {
+                        readBlocks = 0;
+                        verify(block, dest, destPos + block * blockSize - storagePos, storagePos, length);
+                    }
+                }
+                case BACKGROUND -> {
+                    if (pendingBlocks.add(block)) {
+                        final int pendingBlock = block;
+                        verifier.execute(() -> verifyInBackground(pendingBlock));
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+    /**
+     * Verifies every block that has a checksum.
+     *
+     * @return the positions of the first bytes of all corrupted blocks.
+     */
+    public synchronized List<Integer> scrub() {
+        for (int block = known.nextSetBit(0); block >= 0; block = known.nextSetBit(block + 1)) {
+            if (!matches(block)) {
+                corruptBlocks.add(block);
+            }
+        }
+
+        return getCorruptBlocks();
+    }
+
+    /**
+     * Returns the blocks whose verification failed in the background or during a {@linkplain #scrub() scrub}.
+     *
+     * @return the positions of the first bytes of the corrupted blocks.
+     */
+    public List<Integer> getCorruptBlocks() {
+        return corruptBlocks.stream().map(block -> block * blockSize).toList();
+    }
+
+    /**
+     * Stops the background verification and closes the underlying storage.
+     */
+    @Override
+    public void close() {
+        if (verifier != null) {
+            verifier.shutdownNow();
+        }
+        delegate.close();
+    }
+
+    /**
+     * Verifies the given block after it was read.
+     * If the read covered the whole block, the read data is used. Otherwise, the block is read again.
+     */
+    private void verify(int block, byte[] data, int blockPos, int readStart, int readLength) {
+        int blockStart = block * blockSize;
+        boolean covered = blockStart >= readStart && blockStart + blockLength(block) <= readStart + readLength;
+
+        if (covered ? checksum(data, blockPos, blockLength(block)) != checksums[block] : !matches(block)) {
+            corruptBlocks.add(block);
+            throw new ChecksumMismatchException(blockStart, blockLength(block));
+        }
+    }
+
+    /**
+     * Computes the checksum that the given block has after the given data was written at the given position.
+     * If the data covers the block only partially, the rest of the block is read from the underlying storage, and
+     * its old checksum is verified first, so that corrupted data does not get a valid checksum.
+     *
+     * @throws ChecksumMismatchException if the old content of the block does not match its checksum.
+     */
+    private int checksum(int block, int storagePos, byte[] source, int sourcePos, int length) {
+        int blockStart = block * blockSize;
+        int blockLength = blockLength(block);
+
+        if (blockStart >= storagePos && blockStart + blockLength <= storagePos + length) {
+            return checksum(source, sourcePos + blockStart - storagePos, blockLength);
+        }
+
+        delegate.read(blockStart, blockBuffer, 0, blockLength);
+
+        if (known.get(block) && checksum(blockBuffer, 0, blockLength) != checksums[block]) {
+            corruptBlocks.add(block);
+            throw new ChecksumMismatchException(blockStart, blockLength);
+        }
+
+        int start = Math.max(storagePos, blockStart);
+        int end = Math.min(storagePos + length, blockStart + blockLength);
+        System.arraycopy(source, sourcePos + start - storagePos, blockBuffer, start - blockStart, end - start);
+
+        return checksum(blockBuffer, 0, blockLength);
+    }
+
+    private synchronized void verifyInBackground(int block) {
+        pendingBlocks.remove(block);
+
+        if (!matches(block)) {
+            corruptBlocks.add(block);
+        }
+    }
+
+    private boolean matches(int block) {
+        delegate.read(block * blockSize, blockBuffer, 0, blockLength(block));
+        return checksum(blockBuffer, 0, blockLength(block)) == checksums[block];
+    }
+
+    private int blockLength(int block) {
+        return Math.min(blockSize, delegate.getSize() - block * blockSize);
+    }
+
+    private static int checksum(byte[] data, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+}
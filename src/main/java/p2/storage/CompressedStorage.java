@@ -0,0 +1,294 @@
+package p2.storage;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A storage that keeps its data compressed in memory, similar to the transparent compression of btrfs.
+ * The storage is divided into fixed-size blocks that are compressed individually with an LZ77 codec.
+ * A small number of recently used blocks is kept decompressed, so that neighbouring accesses do not decompress
+ * the same block again. Blocks that were never written do not occupy any memory.
+ */
+public class CompressedStorage implements Storage {
+
+    /**
+     * The default size of a block (4 KiB).
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /**
+     * The default number of blocks that are kept decompressed.
+     */
+    public static final int DEFAULT_CACHED_BLOCKS = 16;
+
+    /**
+     * Statistics about the compression of a {@link CompressedStorage}.
+     *
+     * @param storedBytes        the uncompressed size of all blocks that are stored compressed.
+     * @param compressedBytes    the compressed size of all blocks that are stored compressed.
+     * @param compressedInput    the amount of bytes that were compressed so far.
+     * @param compressionNanos   the time spent compressing, in nanoseconds.
+     * @param decompressedOutput the amount of bytes that were decompressed so far.
+     * @param decompressionNanos the time spent decompressing, in nanoseconds.
+     */
+    public record Statistics(long storedBytes, long compressedBytes, long compressedInput, long compressionNanos,
+                             long decompressedOutput, long decompressionNanos) {
+
+        /**
+         * Returns the ratio between the uncompressed and the compressed size of the stored blocks.
+         *
+         * @return the compression ratio or 1 if no block is stored.
+         */
+        public double compressionRatio() {
+            return compressedBytes == 0 ? 1 : (double) storedBytes / compressedBytes;
+        }
+
+        /**
+         * Returns the amount of bytes that were compressed per second.
+         *
+         * @return the compression throughput in bytes per second.
+         */
+        public double compressionThroughput() {
+            return compressionNanos == 0 ? 0 : compressedInput * 1e9 / compressionNanos;
+        }
+
+        /**
+         * Returns the amount of bytes that were decompressed per second.
+         *
+         * @return the decompression throughput in bytes per second.
+         */
+        public double decompressionThroughput() {
+            return decompressionNanos == 0 ? 0 : decompressedOutput * 1e9 / decompressionNanos;
+        }
+    }
+
+    /**
+     * The size of the storage.
+     */
+    private final int size;
+
+    /**
+     * The size of a block.
+     */
+    private final int blockSize;
+
+    /**
+     * The compressed content of each block or {@code null} if the block was never written.
+     */
+    private final byte[][] blocks;
+
+    /**
+     * Whether a block is stored uncompressed because compressing it did not save any space.
+     */
+    private final boolean[] uncompressed;
+
+    /**
+     * The blocks that are currently decompressed, in the order of their last access.
+     */
+    private final LinkedHashMap<Integer, CachedBlock> cache;
+
+    /**
+     * A buffer for the output of the compressor.
+     */
+    private final byte[] compressionBuffer;
+
+    private long storedBytes = 0;
+    private long compressedBytes = 0;
+    private long compressedInput = 0;
+    private long compressionNanos = 0;
+    private long decompressedOutput = 0;
+    private long decompressionNanos = 0;
+
+    /**
+     * A decompressed block.
+     */
+    private static final class CachedBlock {
+
+        /**
+         * The decompressed content of the block.
+         */
+        final byte[] data;
+
+        /**
+         * Whether the block was modified since it was decompressed.
+         */
+        boolean dirty = false;
+
+        CachedBlock(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    /**
+     * Creates a new storage with the given size that uses the default block size and cache size.
+     *
+     * @param size the size of the storage.
+     */
+    public CompressedStorage(int size) {
+        this(size, DEFAULT_BLOCK_SIZE, DEFAULT_CACHED_BLOCKS);
+    }
+
+    /**
+     * Creates a new storage with the given size.
+     *
+     * @param size         the size of the storage.
+     * @param blockSize    the size of a block that is compressed individually.
+     * @param cachedBlocks the number of blocks that are kept decompressed.
+     */
+    public CompressedStorage(int size, int blockSize, int cachedBlocks) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must be non-negative");
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        if (cachedBlocks <= 0) {
+            throw new IllegalArgumentException("cachedBlocks must be positive");
+        }
+
+        this.size = size;
+        this.blockSize = blockSize;
+        blocks = new byte[(int) (((long) size + blockSize - 1) / blockSize)][];
+        uncompressed = new boolean[blocks.length];
+        compressionBuffer = new byte[LzCodec.maxCompressedLength(blockSize)];
+
+        cache = new LinkedHashMap<>(cachedBlocks * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CachedBlock> eldest) {
+                if (size() <= cachedBlocks) {
+                    return false;
+                }
+                if (eldest.getValue().dirty) {
+                    compressBlock(eldest.getKey(), eldest.getValue().data);
+                }
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public void write(int storagePos, byte[] source, int sourcePos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        while (length > 0) {
+            int blockPos = storagePos % blockSize;
+            int chunk = Math.min(length, blockSize - blockPos);
+
+            CachedBlock block = getBlock(storagePos / blockSize);
+            System.arraycopy(source, sourcePos, block.data, blockPos, chunk);
+            block.dirty = true;
+
+            storagePos += chunk;
+            sourcePos += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public void read(int storagePos, byte[] dest, int destPos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        while (length > 0) {
+            int blockPos = storagePos % blockSize;
+            int chunk = Math.min(length, blockSize - blockPos);
+
+            CachedBlock block = getBlock(storagePos / blockSize);
+            System.arraycopy(block.data, blockPos, dest, destPos, chunk);
+
+            storagePos += chunk;
+            destPos += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Compresses all modified blocks that are currently kept decompressed.
+     */
+    public void flush() {
+        for (Map.Entry<Integer, CachedBlock> entry : cache.entrySet()) {
+            if (entry.getValue().dirty) {
+                compressBlock(entry.getKey(), entry.getValue().data);
+                entry.getValue().dirty = false;
+            }
+        }
+    }
+
+    /**
+     * Returns statistics about the compression of this storage.
+     * Modified blocks that are still kept decompressed are not included until they are {@linkplain #flush() flushed}.
+     *
+     * @return the statistics.
+     */
+    public Statistics getStatistics() {
+        return new Statistics(storedBytes, compressedBytes, compressedInput, compressionNanos,
+            decompressedOutput, decompressionNanos);
+    }
+
+    /**
+     * Returns the decompressed block with the given index and decompresses it if necessary.
+     *
+     * @param index the index of the block.
+     * @return the decompressed block.
+     */
+    private CachedBlock getBlock(int index) {
+        CachedBlock block = cache.get(index);
+
+        if (block != null) {
+            return block;
+        }
+
+        byte[] data = new byte[blockLength(index)];
+        byte[] compressed = blocks[index];
+
+        if (compressed != null && uncompressed[index]) {
+            System.arraycopy(compressed, 0, data, 0, data.length);
+        } else if (compressed != null) {
+            long start = System.nanoTime();
+            LzCodec.decompress(compressed, 0, compressed.length, data, 0);
+            decompressionNanos += System.nanoTime() - start;
+            decompressedOutput += data.length;
+        }
+
+        block = new CachedBlock(data);
+        cache.put(index, block);
+        return block;
+    }
+
+    private void compressBlock(int index, byte[] data) {
+        long start = System.nanoTime();
+        int length = LzCodec.compress(data, 0, data.length, compressionBuffer, 0);
+        compressionNanos += System.nanoTime() - start;
+        compressedInput += data.length;
+
+        if (blocks[index] != null) {
+            storedBytes -= data.length;
+            compressedBytes -= blocks[index].length;
+        }
+
+        uncompressed[index] = length >= data.length;
+        blocks[index] = uncompressed[index] ? data.clone()
+            : Arrays.copyOf(compressionBuffer, length);
+
+        storedBytes += data.length;
+        compressedBytes += blocks[index].length;
+    }
+
+    private int blockLength(int index) {
+        return Math.min(blockSize, size - index * blockSize);
+    }
+
+    private void checkAccess(int start, int length) throws SegmentationFault {
+        if (start < 0) {
+            throw new SegmentationFault(getSize(), start);
+        }
+        if (start + length > getSize()) {
+            throw new SegmentationFault(getSize(), start + length);
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package p2.storage;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
 /**
  * An empty storage view that does not contain any data and has a length of 0.
  */
@@ -33,11 +37,30 @@ public class EmptyStorageView implements StorageView {
         return data;
     }
 
+    @Override
+    public void readInto(byte[] dest, int destPos) {
+    }
+
+    @Override
+    public void readInto(ByteBuffer dest) {
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target) {
+        return 0;
+    }
+
     @Override
     public StorageView plus(StorageView other) {
         return other;
     }
 
+    @Override
+    public StorageView slice(int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, 0);
+        return this;
+    }
+
     @Override
     public Storage getStorage() {
         return storage;
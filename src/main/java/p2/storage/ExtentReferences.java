@@ -0,0 +1,122 @@
+package p2.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts how many times each byte of a storage is referenced by the keys of the files in a {@link FileSystem}.
+ * Extents that are referenced once, which is the case for all data that was not deduplicated, are not stored,
+ * so the counts only take memory for shared extents.
+ */
+final class ExtentReferences {
+
+    /**
+     * The amount of additional references of the bytes from each key up to the next key.
+     * A value of zero means that the bytes are referenced once or not at all.
+     */
+    private final TreeMap<Integer, Integer> additionalReferences = new TreeMap<>();
+
+    /**
+     * Returns the number of references to the byte at the given position, assuming that it is in use.
+     *
+     * @param position the position of the byte in the storage.
+     * @return the number of references.
+     */
+    int getReferences(int position) {
+        Map.Entry<Integer, Integer> entry = additionalReferences.floorEntry(position);
+        return 1 + (entry == null ? 0 : entry.getValue());
+    }
+
+    /**
+     * Returns whether a byte of the given interval is referenced more than once, assuming that it is in use.
+     *
+     * @param interval the interval.
+     * @return whether a byte of the interval is shared.
+     */
+    boolean isShared(Interval interval) {
+        Map.Entry<Integer, Integer> entry = additionalReferences.floorEntry(interval.start());
+
+        if (entry != null && entry.getValue() > 0) {
+            return true;
+        }
+
+        int end = interval.start() + interval.length();
+        return additionalReferences.subMap(interval.start(), false, end, false).values().stream()
+            .anyMatch(count -> count > 0);
+    }
+
+    /**
+     * Adds a reference to every byte of the given interval.
+     *
+     * @param interval the interval.
+     */
+    void increment(Interval interval) {
+        int end = interval.start() + interval.length();
+        split(interval.start());
+        split(end);
+
+        for (Map.Entry<Integer, Integer> entry : additionalReferences.subMap(interval.start(), end).entrySet()) {
+            entry.setValue(entry.getValue() + 1);
+        }
+
+        merge(interval.start(), end);
+    }
+
+    /**
+     * Removes a reference from every byte of the given interval.
+     *
+     * @param interval the interval.
+     * @return the parts of the interval that are not referenced anymore.
+     */
+    List<Interval> decrement(Interval interval) {
+        List<Interval> unreferenced = new ArrayList<>();
+        int end = interval.start() + interval.length();
+        split(interval.start());
+        split(end);
+
+        for (Map.Entry<Integer, Integer> entry : additionalReferences.subMap(interval.start(), end).entrySet()) {
+            int next = additionalReferences.higherKey(entry.getKey());
+
+            if (entry.getValue() == 0) {
+                unreferenced.add(new Interval(entry.getKey(), next - entry.getKey()));
+            } else {
+                entry.setValue(entry.getValue() - 1);
+            }
+        }
+
+        merge(interval.start(), end);
+        return unreferenced;
+    }
+
+    /**
+     * Ensures that a range starts at the given position.
+     */
+    private void split(int position) {
+        Map.Entry<Integer, Integer> entry = additionalReferences.floorEntry(position);
+        additionalReferences.putIfAbsent(position, entry == null ? 0 : entry.getValue());
+    }
+
+    /**
+     * Removes the range boundaries between the given positions that separate ranges with the same count.
+     */
+    private void merge(int start, int end) {
+        Integer previous = additionalReferences.lowerKey(start);
+        int from = previous == null ? start : previous;
+
+        // ranges in front of the first key are referenced once
+        Map.Entry<Integer, Integer> lower = additionalReferences.lowerEntry(from);
+        int value = lower == null ? 0 : lower.getValue();
+
+        List<Integer> redundant = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : additionalReferences.subMap(from, true, end, true).entrySet()) {
+            if (entry.getValue() == value) {
+                redundant.add(entry.getKey());
+            }
+            value = entry.getValue();
+        }
+
+        redundant.forEach(additionalReferences::remove);
+    }
+}
@@ -2,15 +2,41 @@ package p2.storage;
 
 import p2.btrfs.BtrfsFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
 
 /**
  * A file system that uses {@linkplain BtrfsFile BtrfsFiles} to represent its files.
  * It manages the allocation and files in a given storage.
  * It does not support directories or multiple data types in a file.
+ * Closing the file system closes the underlying storage.
  */
-public class FileSystem {
+public class FileSystem implements AutoCloseable {
+
+    /**
+     * The logger for failures in background threads.
+     */
+    private static final System.Logger LOGGER = System.getLogger(FileSystem.class.getName());
 
     /**
      * The storage that this file system uses to store the files.
@@ -23,16 +49,95 @@ public class FileSystem {
     private final List<BtrfsFile> files = new ArrayList<>();
 
     /**
-     * The array that is used to mark intervals as used.
-     * This is necessary to allocate new intervals without overwriting existing files.
+     * The factory that creates the allocation strategy, also when it is rebuilt by a garbage collection.
      */
-    private boolean[] used;
+    private final AllocationStrategy.Factory factory;
 
     /**
      * The allocation strategy that is used to allocate new intervals.
      */
     AllocationStrategy allocator;
 
+    /**
+     * The maximum size of the intervals that are allocated for the data of files.
+     */
+    private int maxIntervalSize = Integer.MAX_VALUE;
+
+    /**
+     * The executor that defragments the files in the background or {@code null} if it was not started.
+     */
+    private ScheduledExecutorService defragmenter;
+
+    /**
+     * The executor that completes asynchronous insertions, including the commit of their journal records, or
+     * {@code null} if there was none yet.
+     */
+    private ExecutorService completer;
+
+    /**
+     * The journal that logs all modifications or {@code null} if modifications are not journaled.
+     */
+    private Journal journal;
+
+    /**
+     * The size of the journal at which it is replaced by a checkpoint or {@code 0} if checkpoints are only made
+     * explicitly.
+     */
+    private long maxJournalSize = 0;
+
+    /**
+     * The number of references to each extent in the storage.
+     */
+    private final ExtentReferences references = new ExtentReferences();
+
+    /**
+     * The extents that store previously written chunks, by the hash and length of their content.
+     */
+    private final Map<Long, List<Interval>> chunks = new HashMap<>();
+
+    /**
+     * The hashes of the stored chunks by the start of their intervals, so that a chunk can be forgotten when its
+     * intervals are freed.
+     */
+    private final TreeMap<Integer, Long> chunkStarts = new TreeMap<>();
+
+    /**
+     * The size of the chunks that are deduplicated or {@code 0} if deduplication is disabled.
+     */
+    private int chunkSize = 0;
+
+    /**
+     * The number of asynchronous reads that have not completed yet and of channels that are still open.
+     */
+    private int pendingReads = 0;
+
+    /**
+     * The intervals that were released while asynchronous reads were pending or channels were open. They are freed
+     * once all of these reads have completed and the channels were closed, so that the readers do not observe data
+     * that is written into the intervals later.
+     */
+    private final List<Interval> deferredFrees = new ArrayList<>();
+
+    /**
+     * The intervals that were allocated by asynchronous insertions that have not completed yet.
+     */
+    private final List<Interval> pendingInserts = new ArrayList<>();
+
+    /**
+     * The amount of bytes that were not written because identical data was already stored.
+     */
+    private long deduplicatedBytes = 0;
+
+    /**
+     * The data that was inserted into files, but not stored yet, by file.
+     */
+    private final Map<BtrfsFile, InsertBuffer> insertBuffers = new HashMap<>();
+
+    /**
+     * The amount of data that is buffered for a file before it is stored or {@code 0} if allocation is not delayed.
+     */
+    private int maxBufferSize = 0;
+
     /**
      * Creates a new file system of a given size that uses the given allocation strategy.
      *
@@ -40,10 +145,56 @@ public class FileSystem {
      * @param size The size of the storage that will be used to store the files.
      */
     public FileSystem(AllocationStrategy.Factory factory, int size) {
-        storage = new ArrayStorage(size);
-        used = new boolean[size];
-        this.allocator = factory.create(used);
-        allocator.setMaxIntervalSize(2); //for easier testing; can be removed
+        this(factory, new ArrayStorage(size));
+        maxIntervalSize = 2; //for easier testing; can be removed
+        allocator.setMaxIntervalSize(maxIntervalSize);
+    }
+
+    /**
+     * Creates a new file system that stores its files in the given storage and uses the given allocation strategy.
+     * The whole storage is considered to be free.
+     *
+     * @param factory The factory that will be used to create the allocation strategy.
+     * @param storage The storage that will be used to store the files.
+     */
+    public FileSystem(AllocationStrategy.Factory factory, Storage storage) {
+        this.storage = storage;
+        this.factory = factory;
+        this.allocator = factory.create(storage.getSize());
+    }
+
+    /**
+     * Creates a new file system that stores its files in the given storage and logs all modifications in the given
+     * journal. The operations that are already stored in the journal are replayed on the given storage first,
+     * which has to be empty or contain the data written by a previous replay. Afterwards, the journal is replaced by
+     * a {@linkplain #checkpoint() checkpoint}.
+     * Every modification is logged before it is applied and only returns after its record in the journal is
+     * durable. If the modification fails, it is marked as aborted in the journal, so that it is not replayed.
+     *
+     * @param factory The factory that will be used to create the allocation strategy.
+     * @param storage The storage that will be used to store the files.
+     * @param journal The journal that is used to make modifications durable.
+     */
+    public FileSystem(AllocationStrategy.Factory factory, Storage storage, Journal journal) {
+        this(factory, storage);
+
+        List<Journal.Record> records = journal.getRecords();
+
+        for (int i = 0; i < records.size(); i++) {
+            // an aborted operation had no effect
+            if (i + 1 < records.size() && records.get(i + 1).operation() == Journal.Operation.ABORT) {
+                i++;
+                continue;
+            }
+
+            replay(records.get(i));
+        }
+
+        this.journal = journal;
+
+        if (!records.isEmpty()) {
+            checkpoint();
+        }
     }
 
     /**
@@ -57,10 +208,21 @@ public class FileSystem {
      */
     public <T> BtrfsFile createFile(String name, T data, DataEncoder<T> encoder) {
         byte[] encoded = encoder.encode(data);
-        List<Interval> intervals = allocator.allocate(encoded.length);
-        BtrfsFile file = new BtrfsFile(name, storage, 3);
-        file.insert(0, intervals, encoded);
-        files.add(file);
+        BtrfsFile file;
+        long position;
+
+        synchronized (this) {
+            position = log(Journal.Operation.CREATE, name, 0, encoded.length, encoded);
+
+            try {
+                file = createFile(name, encoded);
+            } catch (RuntimeException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        commit(position);
         return file;
     }
 
@@ -75,15 +237,111 @@ public class FileSystem {
      * @throws NoSuchBtrfsFileException If there is no file with the given name.
      */
     public <T> void insertIntoFile(String fileName, int start, T data, DataEncoder<T> encoder) throws NoSuchBtrfsFileException {
-        BtrfsFile file = getFile(fileName);
+        byte[] encoded = encoder.encode(data);
+        long position;
 
-        if (!files.contains(file)) {
-            throw new IllegalArgumentException("File not part of this fileSystem");
+        synchronized (this) {
+            BtrfsFile file = getFile(fileName);
+
+            if (!files.contains(file)) {
+                throw new IllegalArgumentException("File not part of this fileSystem");
+            }
+
+            position = log(Journal.Operation.INSERT, fileName, start, encoded.length, encoded);
+
+            try {
+                bufferInsert(file, start, encoded);
+            } catch (RuntimeException e) {
+                abort();
+                throw e;
+            }
         }
 
+        commit(position);
+    }
+
+    /**
+     * Asynchronously inserts data into a file at a given position.
+     * If the storage is an {@link AsyncStorage}, new intervals are allocated immediately and the data is written
+     * to all of them concurrently without blocking the caller. Once the data is written, the intervals are
+     * inserted into the file at the given position, as if the insertion was made at that moment. The position
+     * therefore refers to the file at that moment: modifications that complete in the meantime, including other
+     * asynchronous insertions, shift the data behind them, and the insertion fails if the position is not inside
+     * the file anymore. If the data cannot be written or inserted, the intervals are freed again.
+     * Otherwise, or if deduplication is enabled, the data is inserted synchronously.
+     *
+     * @param fileName the name of the file.
+     * @param start The position (logical address) at which the data will be inserted.
+     * @param data The data that will be inserted.
+     * @param encoder The encoder that will be used to encode the data.
+     * @param <T> The type of the data that will be inserted.
+     * @return A future that is completed when the data was inserted.
+     * @throws NoSuchBtrfsFileException If there is no file with the given name.
+     */
+    public <T> CompletableFuture<Void> insertIntoFileAsync(String fileName, int start, T data, DataEncoder<T> encoder) throws NoSuchBtrfsFileException {
         byte[] encoded = encoder.encode(data);
-        List<Interval> intervals = allocator.allocate(encoded.length);
-        file.insert(start, intervals, encoded);
+        BtrfsFile file;
+        List<Interval> intervals;
+
+        synchronized (this) {
+            file = getFile(fileName);
+
+            if (!files.contains(file)) {
+                throw new IllegalArgumentException("File not part of this fileSystem");
+            }
+
+            flush(file);
+
+            intervals = storage instanceof AsyncStorage && chunkSize == 0 ? allocator.allocate(encoded.length) : null;
+
+            if (intervals != null) {
+                pendingInserts.addAll(intervals);
+            }
+
+            if (intervals != null && completer == null) {
+                completer = Executors.newCachedThreadPool(runnable -> {
+                    Thread thread = new Thread(runnable, "insert-completer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+
+        if (intervals == null) {
+            insertIntoFile(fileName, start, data, encoder);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // the journal is committed on a dedicated executor, because forcing it blocks
+        return ((AsyncStorage) storage).writevAsync(intervals.toArray(new Interval[0]), encoded, 0)
+            .handleAsync((ignored, exception) -> {
+                long position;
+
+                synchronized (this) {
+                    pendingInserts.removeAll(intervals);
+
+                    if (exception != null || start < 0 || start > file.getSize()) {
+                        allocator.free(intervals);
+                        throw exception instanceof CompletionException completion ? completion
+                            : exception != null ? new CompletionException(exception)
+                            : new IndexOutOfBoundsException("start %d is outside of the file of size %d"
+                                .formatted(start, file.getSize()));
+                    }
+
+                    position = log(Journal.Operation.INSERT, fileName, start, encoded.length, encoded);
+
+                    try {
+                        file.insert(start, intervals);
+                    } catch (RuntimeException e) {
+                        abort();
+                        allocator.free(intervals);
+                        throw e;
+                    }
+                }
+
+                commit(position);
+                return null;
+            }, completer);
     }
 
     /**
@@ -97,17 +355,27 @@ public class FileSystem {
      * @throws NoSuchBtrfsFileException If there is no file with the given name.
      */
     public <T> void writeIntoFile(String fileName, int start, T data, DataEncoder<T> encoder) throws NoSuchBtrfsFileException {
-        BtrfsFile file = getFile(fileName);
+        byte[] encoded = encoder.encode(data);
+        long position;
 
-        if (!files.contains(file)) {
-            throw new IllegalArgumentException("File not part of this fileSystem");
-        }
+        synchronized (this) {
+            BtrfsFile file = getFile(fileName);
 
-        byte[] encoded = encoder.encode(data);
-        List<Interval> intervals = allocator.allocate(encoded.length);
-        file.write(start, intervals, encoded);
+            if (!files.contains(file)) {
+                throw new IllegalArgumentException("File not part of this fileSystem");
+            }
 
-        file.shrink();
+            position = log(Journal.Operation.WRITE, fileName, start, encoded.length, encoded);
+
+            try {
+                bufferWrite(file, start, encoded);
+            } catch (RuntimeException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        commit(position);
     }
 
     /**
@@ -119,17 +387,103 @@ public class FileSystem {
      * @return The data that is stored inside the file.
      * @throws NoSuchBtrfsFileException If there is no file with the given name.
      */
-    public <T> T readFile(String fileName, DataEncoder<T> encoder) throws NoSuchBtrfsFileException {
+    public synchronized <T> T readFile(String fileName, DataEncoder<T> encoder) throws NoSuchBtrfsFileException {
         BtrfsFile file = getFile(fileName);
 
         if (!files.contains(file)) {
             throw new IllegalArgumentException("File not part of this fileSystem");
         }
 
+        flush(file);
+
         StorageView data = file.read(0, file.getSize());
         return encoder.decode(data);
     }
 
+    /**
+     * Opens a stream that reads the whole data stored inside a file.
+     * The data is read while the stream is consumed, and each read only looks up the intervals it needs, so neither
+     * the data nor the intervals of the file have to fit into memory. Each read is synchronized with the
+     * modifications of this file system, which are visible to subsequent reads.
+     * Intervals that are removed from any file while the stream is open are not reused before it is closed, so the
+     * stream has to be closed.
+     *
+     * @param fileName The name of the file.
+     * @return The stream.
+     * @throws NoSuchBtrfsFileException If there is no file with the given name.
+     */
+    public synchronized InputStream openStream(String fileName) throws NoSuchBtrfsFileException {
+        return Channels.newInputStream(openChannel(fileName));
+    }
+
+    /**
+     * Opens a channel that reads the whole data stored inside a file, like {@link #openStream(String)}.
+     * Unlike a channel opened on the {@link BtrfsFile} directly, it is safe to use while the file system is modified
+     * or {@linkplain #startDefragmentation(long, TimeUnit) defragmented} concurrently. It has to be closed.
+     *
+     * @param fileName The name of the file.
+     * @return The channel.
+     * @throws NoSuchBtrfsFileException If there is no file with the given name.
+     */
+    public synchronized ReadableByteChannel openChannel(String fileName) throws NoSuchBtrfsFileException {
+        BtrfsFile file = getFile(fileName);
+
+        if (!files.contains(file)) {
+            throw new IllegalArgumentException("File not part of this fileSystem");
+        }
+
+        flush(file);
+
+        return new StreamChannel(file);
+    }
+
+    /**
+     * Asynchronously reads the whole data stored inside a file.
+     * If the storage is an {@link AsyncStorage}, the intervals of the file are determined immediately and then
+     * read concurrently without blocking the caller. Intervals that are removed from the file in the meantime are
+     * not reused before the read has completed. Otherwise, the data is read synchronously.
+     *
+     * @param fileName The name of the file.
+     * @param decoder The decoder that will be used to decode the data.
+     * @param <T> The type of the data that is stored inside the file.
+     * @return A future that is completed with the data that is stored inside the file.
+     * @throws NoSuchBtrfsFileException If there is no file with the given name.
+     */
+    public <T> CompletableFuture<T> readFileAsync(String fileName, DataEncoder<T> decoder) throws NoSuchBtrfsFileException {
+        StorageView view;
+
+        synchronized (this) {
+            BtrfsFile file = getFile(fileName);
+
+            if (!files.contains(file)) {
+                throw new IllegalArgumentException("File not part of this fileSystem");
+            }
+
+            flush(file);
+
+            view = file.read(0, file.getSize());
+
+            if (!(storage instanceof AsyncStorage)) {
+                return CompletableFuture.completedFuture(decoder.decode(view));
+            }
+
+            pendingReads++;
+        }
+
+        byte[] data = new byte[view.length()];
+        CompletableFuture<Void> read;
+
+        try {
+            read = ((AsyncStorage) storage).readvAsync(view.getIntervals(), data, 0);
+        } catch (RuntimeException e) {
+            completeRead();
+            throw e;
+        }
+
+        return read.whenComplete((ignored, exception) -> completeRead())
+            .thenApply(ignored -> decoder.decode(data));
+    }
+
     /**
      * Reads a portion of the data stored inside a file.
      *
@@ -140,17 +494,41 @@ public class FileSystem {
      * @param <T> The type of the data that is stored inside the file.
      * @return The data that was read
      */
-    public <T> T readFile(String fileName, DataEncoder<T> decoder, int start, int length) throws NoSuchBtrfsFileException {
+    public synchronized <T> T readFile(String fileName, DataEncoder<T> decoder, int start, int length) throws NoSuchBtrfsFileException {
         BtrfsFile file = getFile(fileName);
 
         if (!files.contains(file)) {
             throw new IllegalArgumentException("File not part of this fileSystem");
         }
 
+        flush(file);
+
         StorageView data = file.read(start, length);
         return decoder.decode(data);
     }
 
+    /**
+     * Writes the whole data stored inside a file to the given channel.
+     * The data is transferred interval by interval, without copying the whole file into an array first.
+     *
+     * @param fileName The name of the file.
+     * @param target The channel to which the data will be written.
+     * @return The amount of bytes that were written.
+     * @throws NoSuchBtrfsFileException If there is no file with the given name.
+     * @throws IOException If the channel could not be written to.
+     */
+    public synchronized long readFile(String fileName, WritableByteChannel target) throws NoSuchBtrfsFileException, IOException {
+        BtrfsFile file = getFile(fileName);
+
+        if (!files.contains(file)) {
+            throw new IllegalArgumentException("File not part of this fileSystem");
+        }
+
+        flush(file);
+
+        return file.read(0, file.getSize()).transferTo(target);
+    }
+
     /**
      * Removes a portion of the data stored inside a file.
      *
@@ -160,41 +538,936 @@ public class FileSystem {
      * @throws NoSuchBtrfsFileException If there is no file with the given name.
      */
     public void removeFromFile(String fileName, int start, int length) throws NoSuchBtrfsFileException {
+        long position;
+
+        synchronized (this) {
+            BtrfsFile file = getFile(fileName);
+
+            if (!files.contains(file)) {
+                throw new IllegalArgumentException("File not part of this fileSystem");
+            }
+
+            flush(file);
+
+            position = log(Journal.Operation.REMOVE, fileName, start, length, new byte[0]);
+
+            try {
+                removeFromFile(file, start, length);
+            } catch (RuntimeException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        commit(position);
+    }
+
+    /**
+     * Creates a snapshot of a file. The snapshot is a new file of this file system that initially has the same
+     * content as the given file. Afterwards, both files can be modified independently. The tree of the file is shared
+     * in constant time, but a reference is added to each of its intervals, which takes time linear in their number.
+     * Data that is removed from one of the files is freed once the other file does not reference it either.
+     *
+     * @param fileName the name of the file.
+     * @param snapshotName the name of the snapshot.
+     * @return The snapshot.
+     * @throws NoSuchBtrfsFileException If there is no file with the given name.
+     */
+    public BtrfsFile snapshot(String fileName, String snapshotName) throws NoSuchBtrfsFileException {
+        BtrfsFile snapshot;
+        long position;
+
+        synchronized (this) {
+            BtrfsFile file = getFile(fileName);
+
+            if (!files.contains(file)) {
+                throw new IllegalArgumentException("File not part of this fileSystem");
+            }
+
+            flush(file);
+
+            byte[] name = snapshotName.getBytes(StandardCharsets.UTF_8);
+            position = log(Journal.Operation.SNAPSHOT, fileName, 0, name.length, name);
+
+            try {
+                snapshot = snapshot(file, snapshotName);
+            } catch (RuntimeException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        commit(position);
+        return snapshot;
+    }
+
+    /**
+     * Defragments a file. Runs of adjacent intervals of the file are copied into newly allocated contiguous
+     * intervals, which replace them in the file, so that the file consists of as few intervals as possible and is
+     * read with few copies. The old intervals are freed, and the keys of contiguous intervals are merged.
+     * The content of the file does not change. If there is not enough contiguous free space for a run, smaller runs
+     * are tried. Intervals that are shared with a snapshot or another file are not moved.
+     *
+     * @param fileName the name of the file.
+     * @return The amount of bytes that were moved.
+     * @throws NoSuchBtrfsFileException If there is no file with the given name.
+     */
+    public synchronized int defragment(String fileName) throws NoSuchBtrfsFileException {
         BtrfsFile file = getFile(fileName);
 
         if (!files.contains(file)) {
             throw new IllegalArgumentException("File not part of this fileSystem");
         }
 
-        file.remove(start, length);
+        flush(file);
+
+        return defragment(file);
     }
 
     /**
-     * Returns the size of the storage that is used by this file system.
-     * This is equal to the amount of bytes that can be stored in this file system.
+     * Starts to {@linkplain #defragment(String) defragment} all files periodically in a background thread.
+     * Defragmentation moves data while files may be read, so files have to be read through this file system, e.g.
+     * with {@link #openStream(String)} or {@link #openChannel(String)}, and not through the {@link BtrfsFile}
+     * directly. A defragmentation that fails is logged, and the next one runs as scheduled.
      *
-     * @return The size of the storage that is used by this file system.
+     * @param period the time between two defragmentations.
+     * @param unit   the unit of the period.
      */
-    public int getSize() {
-        return storage.getSize();
+    public synchronized void startDefragmentation(long period, TimeUnit unit) {
+        if (defragmenter != null) {
+            throw new IllegalStateException("defragmentation was already started");
+        }
+
+        defragmenter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "defragmenter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        defragmenter.scheduleWithFixedDelay(this::defragmentAll, period, period, unit);
     }
 
     /**
-     * Recycles unused intervals in the storage and marks them as free.
+     * Enables delayed allocation. Data that is inserted into a file is buffered instead of being stored immediately,
+     * and further insertions that are adjacent to the buffered data as well as writes into it are merged into the
+     * buffer. The buffered data of a file is stored with a single allocation once it reaches the given size, before
+     * the file is read or modified in any other way, and when {@link #flush()} is called.
+     * The modifications are journaled immediately. A {@link BtrfsFile} returned by this file system does not contain
+     * the buffered data until it is stored. Space for buffered data is reserved when it is inserted, so an insertion
+     * that does not fit throws a {@link NoDiskSpaceException} right away, and storing the buffered data never fails
+     * for lack of space.
+     *
+     * @param maxBufferSize the amount of data that is buffered for a file before it is stored.
      */
-    public void garbageCollect() {
+    public synchronized void enableDelayedAllocation(int maxBufferSize) {
+        if (maxBufferSize <= 0) {
+            throw new IllegalArgumentException("maxBufferSize must be positive");
+        }
 
-        boolean[] used = new boolean[storage.getSize()];
+        this.maxBufferSize = maxBufferSize;
+    }
 
-        for (BtrfsFile file : files) {
-            for (Interval interval : file.readAll().getIntervals()) {
-                for (int i = interval.start(); i < interval.start() + interval.length(); i++) {
-                    used[i] = true;
-                }
-            }
+    /**
+     * Stores all data that was buffered because of {@linkplain #enableDelayedAllocation(int) delayed allocation}.
+     */
+    public synchronized void flush() {
+        for (BtrfsFile file : new ArrayList<>(insertBuffers.keySet())) {
+            flush(file);
+        }
+    }
+
+    /**
+     * Replaces the records of the journal with records that create the files with their current content,
+     * so that the journal and the time to replay it do not grow with the history of the file system.
+     * Data that a file shares with a file recorded before it, e.g. with the file that it is a snapshot of, is
+     * recorded as a reference to that file, so the files share the data again after a replay and do not need more
+     * space than before. Data that is buffered because of {@linkplain #enableDelayedAllocation(int) delayed
+     * allocation} is recorded as an insertion and stays buffered.
+     *
+     * @throws IllegalStateException if this file system has no journal.
+     */
+    public synchronized void checkpoint() {
+        if (journal == null) {
+            throw new IllegalStateException("the file system has no journal");
+        }
+
+        Stream<Journal.Record> deduplication = chunkSize == 0 ? Stream.empty()
+            : Stream.of(new Journal.Record(Journal.Operation.DEDUPLICATE, "", chunkSize, 0, new byte[0]));
+
+        // the stored data by its start in the storage, with the file and position where it was recorded first
+        TreeMap<Integer, StoredExtent> stored = new TreeMap<>();
+
+        journal.checkpoint(() -> Stream.concat(deduplication,
+            files.stream().flatMap(file -> Stream.concat(checkpointRecords(file, stored).stream(),
+                bufferedRecords(file)))).iterator());
+    }
+
+    /**
+     * Enables automatic {@linkplain #checkpoint() checkpoints}. A checkpoint is made whenever a modification is
+     * committed and the journal has grown larger than the given size.
+     *
+     * @param maxJournalSize the size of the journal in bytes at which a checkpoint is made.
+     */
+    public synchronized void enableCheckpoints(long maxJournalSize) {
+        if (maxJournalSize <= 0) {
+            throw new IllegalArgumentException("maxJournalSize must be positive");
         }
 
-        this.used = used;
+        this.maxJournalSize = maxJournalSize;
+    }
+
+    /**
+     * Enables the deduplication of the data that is written to this file system.
+     * The data of new and modified files is divided into chunks of the given size. If the content of a chunk is
+     * already stored in the storage, the file references the existing extents instead of new ones, and the
+     * chunk is not written again. Only data written after this method was called is deduplicated.
+     * The change is journaled, so a replay deduplicates the same data and restores the same references.
+     *
+     * @param chunkSize the size of the chunks.
+     */
+    public void enableDeduplication(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+
+        long position;
+
+        synchronized (this) {
+            position = log(Journal.Operation.DEDUPLICATE, "", chunkSize, 0, new byte[0]);
+            this.chunkSize = chunkSize;
+        }
+
+        commit(position);
+    }
+
+    /**
+     * Returns the amount of bytes that were not stored again because identical data was already stored.
+     *
+     * @return the amount of deduplicated bytes.
+     */
+    public synchronized long getDeduplicatedBytes() {
+        return deduplicatedBytes;
+    }
+
+    /**
+     * Returns the number of file keys that reference the byte at the given position of the storage.
+     *
+     * @param position the position in the storage.
+     * @return the number of references, which is {@code 1} for all data that is not shared.
+     */
+    public synchronized int getReferences(int position) {
+        return references.getReferences(position);
+    }
+
+    /**
+     * Returns the size of the storage that is used by this file system.
+     * This is equal to the amount of bytes that can be stored in this file system.
+     *
+     * @return The size of the storage that is used by this file system.
+     */
+    public int getSize() {
+        return storage.getSize();
+    }
+
+    /**
+     * Recycles unused intervals in the storage and marks them as free.
+     * The allocator is rebuilt from the intervals that are still in use by a file, by a pending asynchronous read or
+     * by a pending asynchronous insertion, so space that was lost, e.g. because it was never freed, becomes free
+     * again.
+     */
+    public synchronized void garbageCollect() {
+        flush();
+
+        List<Interval> inUse = new ArrayList<>(deferredFrees);
+        inUse.addAll(pendingInserts);
+
+        for (BtrfsFile file : files) {
+            inUse.addAll(List.of(file.readAll().getIntervals()));
+        }
+
+        // the ends of the used extents by their start; intervals of snapshots overlap, so they are merged
+        inUse.sort(Comparator.comparingInt(Interval::start));
+        TreeMap<Integer, Integer> used = new TreeMap<>();
+
+        for (Interval interval : inUse) {
+            int end = interval.start() + interval.length();
+            Map.Entry<Integer, Integer> last = used.lastEntry();
+
+            if (last != null && interval.start() <= last.getValue()) {
+                used.put(last.getKey(), Math.max(last.getValue(), end));
+            } else if (interval.length() > 0) {
+                used.put(interval.start(), end);
+            }
+        }
+
+        allocator = factory.create(storage.getSize(), used.entrySet().stream()
+            .map(extent -> new Interval(extent.getKey(), extent.getValue() - extent.getKey()))
+            .toList());
+        allocator.setMaxIntervalSize(maxIntervalSize);
+
+        // chunks in space that is free now must not be deduplicated anymore
+        for (Map.Entry<Integer, Long> entry : new ArrayList<>(chunkStarts.entrySet())) {
+            Map.Entry<Integer, Integer> extent = used.floorEntry(entry.getKey());
+
+            if (extent == null || extent.getValue() <= entry.getKey()) {
+                forgetChunks(new Interval(entry.getKey(), 1));
+            }
+        }
+    }
+
+    /**
+     * Closes this file system and releases the resources of the underlying storage and journal.
+     * Buffered data is stored first. The journal and the storage are closed even if that fails, and the buffered
+     * data is still part of the journal.
+     * The file system must not be used after it was closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (defragmenter != null) {
+            defragmenter.shutdownNow();
+        }
+        if (completer != null) {
+            completer.shutdown();
+        }
+
+        try {
+            flush();
+        } finally {
+            try {
+                if (journal != null) {
+                    journal.close();
+                }
+            } finally {
+                storage.close();
+            }
+        }
+    }
+
+    private BtrfsFile createFile(String name, byte[] data) {
+        BtrfsFile file = new BtrfsFile(name, storage, 3);
+
+        if (chunkSize > 0) {
+            file.insert(0, store(data));
+        } else {
+            List<Interval> intervals = allocator.allocate(data.length);
+            file.insert(0, intervals, data);
+        }
+
+        files.add(file);
+        return file;
+    }
+
+    private void insertIntoFile(BtrfsFile file, int start, byte[] data) {
+        if (chunkSize > 0) {
+            file.insert(start, store(data));
+            return;
+        }
+
+        List<Interval> intervals = allocator.allocate(data.length);
+        file.insert(start, intervals, data);
+    }
+
+    private void writeIntoFile(BtrfsFile file, int start, byte[] data) {
+        List<Interval> overwritten = intervalsOf(file, start, data.length);
+
+        if (chunkSize > 0) {
+            file.write(start, store(data));
+        } else {
+            List<Interval> intervals = allocator.allocate(data.length);
+            file.write(start, intervals, data);
+        }
+
+        file.shrink();
+        release(overwritten);
+    }
+
+    /**
+     * Defragments all files. A failure is logged instead of thrown, because it would cancel the periodic
+     * defragmentation.
+     */
+    private synchronized void defragmentAll() {
+        try {
+            flush();
+
+            for (BtrfsFile file : files) {
+                defragment(file);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(System.Logger.Level.WARNING, "defragmentation failed", e);
+        }
+    }
+
+    /**
+     * Moves runs of adjacent intervals of the given file into contiguous intervals.
+     * The intervals of a whole file are boundaries of keys, so a run of them can be relocated in the tree.
+     * Intervals that are shared with a snapshot or deduplicated are not moved, because the copy would only be used
+     * by this file and the data would be stored twice. If no contiguous interval is found for a run, shorter runs are
+     * tried, and the run length grows again after each run that was moved.
+     *
+     * @return the amount of bytes that were moved.
+     */
+    private int defragment(BtrfsFile file) {
+        Interval[] extents = file.readAll().getIntervals();
+        int runLength = file.getSize();
+        int position = 0;
+        int moved = 0;
+
+        // the intervals of the runs may be larger than the intervals of new data
+        allocator.setMaxIntervalSize(Integer.MAX_VALUE);
+
+        try {
+            for (int first = 0; first < extents.length; ) {
+                if (references.isShared(extents[first])) {
+                    position += extents[first].length();
+                    first++;
+                    continue;
+                }
+
+                int last = first;
+                int length = extents[first].length();
+
+                while (last + 1 < extents.length && length + extents[last + 1].length() <= runLength
+                    && !references.isShared(extents[last + 1])) {
+                    length += extents[++last].length();
+                }
+
+                // a single interval is contiguous already
+                if (last == first) {
+                    position += length;
+                    first++;
+                    continue;
+                }
+
+                Interval target = allocateContiguous(length);
+
+                if (target == null) {
+                    runLength = length / 2;
+                    continue;
+                }
+
+                Interval[] run = Arrays.copyOfRange(extents, first, last + 1);
+                byte[] data = new byte[length];
+
+                try {
+                    storage.readv(run, data, 0);
+                    storage.write(target.start(), data, 0, length);
+                } catch (RuntimeException e) {
+                    allocator.free(target);
+                    throw e;
+                }
+
+                file.relocate(position, target);
+                release(List.of(run));
+
+                moved += length;
+                position += length;
+                first = last + 1;
+                runLength = (int) Math.min(file.getSize(), 2L * runLength);
+            }
+        } finally {
+            allocator.setMaxIntervalSize(maxIntervalSize);
+        }
+
+        // merge the keys of contiguous intervals, unless that only copies the nodes that are shared with a snapshot
+        if (moved > 0 || !file.isShared()) {
+            file.shrink();
+        }
+
+        return moved;
+    }
+
+    /**
+     * Allocates a single interval of the given length.
+     *
+     * @return the interval or {@code null} if there is no contiguous free space of the given length.
+     */
+    private Interval allocateContiguous(int length) {
+        List<Interval> intervals;
+
+        try {
+            intervals = allocator.allocate(length);
+        } catch (NoDiskSpaceException e) {
+            return null;
+        }
+
+        if (intervals.size() == 1) {
+            return intervals.get(0);
+        }
+
+        allocator.free(intervals);
+        return null;
+    }
+
+    /**
+     * Inserts the given data into the given file or, if allocation is delayed, into the buffer of the file.
+     * A buffer that the data is not adjacent to is stored first. Space for buffered data is reserved right away, so
+     * an insertion that does not fit fails without changing the buffer.
+     */
+    private void bufferInsert(BtrfsFile file, int start, byte[] data) {
+        if (maxBufferSize == 0) {
+            insertIntoFile(file, start, data);
+            return;
+        }
+
+        InsertBuffer buffer = insertBuffers.get(file);
+
+        if (buffer != null && !buffer.isAdjacent(start)) {
+            flush(file);
+            buffer = null;
+        }
+
+        // an invalid position is reported by the file
+        if (buffer == null && (start < 0 || start > file.getSize())) {
+            insertIntoFile(file, start, data);
+            return;
+        }
+
+        List<Interval> reserved = data.length == 0 ? List.of() : allocator.allocate(data.length);
+
+        if (buffer == null) {
+            buffer = new InsertBuffer(start);
+            insertBuffers.put(file, buffer);
+        }
+
+        buffer.insert(start, data);
+        buffer.reserve(reserved);
+
+        if (buffer.length() >= maxBufferSize) {
+            flush(file);
+        }
+    }
+
+    /**
+     * Writes the given data into the buffer of the given file if it lies completely inside of the buffered data.
+     * Otherwise, the buffer is stored and the data is written into the file.
+     */
+    private void bufferWrite(BtrfsFile file, int start, byte[] data) {
+        InsertBuffer buffer = insertBuffers.get(file);
+
+        if (buffer != null && buffer.covers(start, data.length)) {
+            buffer.write(start, data);
+            return;
+        }
+
+        flush(file);
+        writeIntoFile(file, start, data);
+    }
+
+    /**
+     * Stores the buffered data of the given file, if there is any. The data is stored in as few intervals as
+     * possible, regardless of the maximum interval size. If the reserved space is fragmented and there is not enough
+     * space for a single allocation besides it, the data is stored in the reserved intervals instead. The buffer is
+     * only dropped once the data was stored, so it is kept if the data cannot be written.
+     */
+    private void flush(BtrfsFile file) {
+        InsertBuffer buffer = insertBuffers.get(file);
+
+        if (buffer == null) {
+            return;
+        }
+
+        byte[] data = buffer.toByteArray();
+        List<Interval> reserved = buffer.reserved();
+        List<Interval> intervals = reserved;
+
+        if (chunkSize > 0) {
+            // the chunks that are not deduplicated fit into the reserved space once it is freed
+            insertBuffers.remove(file);
+            allocator.free(reserved);
+            file.insert(buffer.start(), store(data));
+            return;
+        }
+
+        if (reserved.size() > 1) {
+            allocator.setMaxIntervalSize(Integer.MAX_VALUE);
+
+            try {
+                intervals = allocator.allocate(data.length);
+            } catch (NoDiskSpaceException e) {
+                // the reserved intervals are used
+            } finally {
+                allocator.setMaxIntervalSize(maxIntervalSize);
+            }
+        }
+
+        try {
+            file.insert(buffer.start(), new ArrayList<>(intervals), data);
+        } catch (RuntimeException e) {
+            if (intervals != reserved) {
+                allocator.free(intervals);
+            }
+            throw e;
+        }
+
+        if (intervals != reserved) {
+            allocator.free(reserved);
+        }
+        insertBuffers.remove(file);
+    }
+
+    /**
+     * Stores the given data chunk by chunk. Chunks whose content is already stored are not written again;
+     * instead, the existing extents are referenced once more.
+     *
+     * @param data the data to store.
+     * @return the intervals that contain the data, in the order of the data.
+     */
+    private List<Interval> store(byte[] data) {
+        List<Interval> intervals = new ArrayList<>();
+
+        for (int chunkStart = 0; chunkStart < data.length; chunkStart += chunkSize) {
+            int length = Math.min(chunkSize, data.length - chunkStart);
+            long key = (long) length << 32 | checksum(data, chunkStart, length) & 0xFFFFFFFFL;
+            List<Interval> existing = chunks.get(key);
+
+            if (existing != null && contentEquals(existing, data, chunkStart, length)) {
+                existing.forEach(references::increment);
+                intervals.addAll(existing);
+                deduplicatedBytes += length;
+                continue;
+            }
+
+            List<Interval> allocated = allocator.allocate(length);
+            storage.writev(allocated.toArray(new Interval[0]), data, chunkStart);
+
+            if (existing != null) {
+                existing.forEach(interval -> chunkStarts.remove(interval.start()));
+            }
+            chunks.put(key, List.copyOf(allocated));
+            allocated.forEach(interval -> chunkStarts.put(interval.start(), key));
+            intervals.addAll(allocated);
+        }
+
+        return intervals;
+    }
+
+    /**
+     * Checks whether the given intervals contain the given part of the data.
+     * This guards against chunks with the same hash but different content.
+     */
+    private boolean contentEquals(List<Interval> intervals, byte[] data, int start, int length) {
+        byte[] stored = new byte[length];
+        storage.readv(intervals.toArray(new Interval[0]), stored, 0);
+        return Arrays.equals(stored, 0, length, data, start, start + length);
+    }
+
+    private static int checksum(byte[] data, int start, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, start, length);
+        return (int) crc.getValue();
+    }
+
+    private void removeFromFile(BtrfsFile file, int start, int length) {
+        List<Interval> removed = intervalsOf(file, start, length);
+
+        file.remove(start, length);
+        release(removed);
+    }
+
+    /**
+     * Returns the intervals that store the given range of the given file, as far as it is part of the file.
+     */
+    private List<Interval> intervalsOf(BtrfsFile file, int start, int length) {
+        int available = Math.min(length, file.getSize() - start);
+
+        if (start < 0 || available <= 0) {
+            return List.of();
+        }
+
+        return List.of(file.read(start, available).getIntervals());
+    }
+
+    /**
+     * Frees the given intervals, which were removed from a file, as far as they are not referenced anymore.
+     * Intervals that are shared with a snapshot or a deduplicated chunk stay allocated until their last reference
+     * is removed.
+     * While asynchronous reads are pending, the intervals are only freed once the reads have completed.
+     */
+    private void release(List<Interval> intervals) {
+        for (Interval interval : intervals) {
+            for (Interval unreferenced : references.decrement(interval)) {
+                forgetChunks(unreferenced);
+
+                if (pendingReads > 0) {
+                    deferredFrees.add(unreferenced);
+                } else {
+                    allocator.free(unreferenced);
+                }
+            }
+        }
+    }
+
+    /**
+     * An extent of the storage that was recorded in a checkpoint as part of the given file at the given position.
+     */
+    private record StoredExtent(String fileName, int position, int length) {
+    }
+
+    /**
+     * Creates the checkpoint record of the data that is buffered for the given file, if there is any.
+     */
+    private Stream<Journal.Record> bufferedRecords(BtrfsFile file) {
+        InsertBuffer buffer = insertBuffers.get(file);
+
+        if (buffer == null) {
+            return Stream.empty();
+        }
+
+        return Stream.of(new Journal.Record(Journal.Operation.INSERT, file.getName(), buffer.start(), buffer.length(),
+            buffer.toByteArray()));
+    }
+
+    /**
+     * Creates the checkpoint records of the given file. Its data is recorded in {@link Journal.Operation#CREATE} and
+     * {@link Journal.Operation#INSERT} records, except for the parts that are stored in the given extents, which are
+     * recorded in {@link Journal.Operation#SHARE} records. The extents of the recorded data are added to them.
+     */
+    private List<Journal.Record> checkpointRecords(BtrfsFile file, TreeMap<Integer, StoredExtent> stored) {
+        List<Journal.Record> records = new ArrayList<>();
+        List<Interval> unshared = new ArrayList<>();
+        int position = 0;
+        int recorded = 0;
+
+        for (Interval interval : file.readAll().getIntervals()) {
+            int start = interval.start();
+            int end = interval.start() + interval.length();
+
+            while (start < end) {
+                Map.Entry<Integer, StoredExtent> entry = stored.floorEntry(start);
+                int length;
+
+                if (entry != null && entry.getKey() + entry.getValue().length() > start) {
+                    StoredExtent extent = entry.getValue();
+                    length = Math.min(end, entry.getKey() + extent.length()) - start;
+
+                    recorded = recordData(records, file.getName(), recorded, unshared);
+                    byte[] source = extent.fileName().getBytes(StandardCharsets.UTF_8);
+                    byte[] data = ByteBuffer.allocate(Integer.BYTES + source.length)
+                        .putInt(extent.position() + start - entry.getKey())
+                        .put(source)
+                        .array();
+
+                    records.add(new Journal.Record(Journal.Operation.SHARE, file.getName(), recorded, length, data));
+                    recorded += length;
+                } else {
+                    Integer next = stored.higherKey(start);
+                    length = Math.min(end, next == null ? end : next) - start;
+
+                    unshared.add(new Interval(start, length));
+                    stored.put(start, new StoredExtent(file.getName(), position, length));
+                }
+
+                start += length;
+                position += length;
+            }
+        }
+
+        recordData(records, file.getName(), recorded, unshared);
+        return records;
+    }
+
+    /**
+     * Adds a record that appends the data of the given intervals to the given file at the given position and clears
+     * the intervals. The first record of a file creates it, even if there is no data.
+     *
+     * @return the position behind the appended data.
+     */
+    private int recordData(List<Journal.Record> records, String fileName, int position, List<Interval> intervals) {
+        if (intervals.isEmpty() && !records.isEmpty()) {
+            return position;
+        }
+
+        byte[] data = new byte[intervals.stream().mapToInt(Interval::length).sum()];
+        storage.readv(intervals.toArray(new Interval[0]), data, 0);
+        intervals.clear();
+
+        Journal.Operation operation = records.isEmpty() ? Journal.Operation.CREATE : Journal.Operation.INSERT;
+        records.add(new Journal.Record(operation, fileName, position, data.length, data));
+        return position + data.length;
+    }
+
+    /**
+     * Inserts the given range of the source file into the given file at the given position. The data is not copied;
+     * the file references the intervals of the source file.
+     */
+    private void share(BtrfsFile file, int start, BtrfsFile source, int sourceStart, int length) {
+        List<Interval> intervals = intervalsOf(source, sourceStart, length);
+
+        if (intervals.stream().mapToInt(Interval::length).sum() != length) {
+            throw new IndexOutOfBoundsException("the range is not part of the file " + source.getName());
+        }
+
+        intervals.forEach(references::increment);
+        file.insert(start, new ArrayList<>(intervals));
+    }
+
+    /**
+     * Marks an asynchronous read as completed and frees the intervals that were released while it was pending.
+     */
+    private synchronized void completeRead() {
+        if (--pendingReads == 0) {
+            allocator.free(deferredFrees);
+            deferredFrees.clear();
+        }
+    }
+
+    /**
+     * Removes the chunks that are stored in the given interval from the chunks that can be deduplicated,
+     * because the interval is freed and may be overwritten.
+     */
+    private void forgetChunks(Interval interval) {
+        int end = interval.start() + interval.length();
+        Integer chunkStart = chunkStarts.floorKey(interval.start());
+
+        if (chunkStart == null) {
+            chunkStart = interval.start();
+        }
+
+        for (Map.Entry<Integer, Long> entry : new ArrayList<>(chunkStarts.subMap(chunkStart, end).entrySet())) {
+            List<Interval> chunk = chunks.get(entry.getValue());
+
+            if (chunk == null) {
+                continue;
+            }
+
+            boolean overlaps = chunk.stream().anyMatch(part -> part.start() == entry.getKey()
+                && part.start() < end && interval.start() < part.start() + part.length());
+
+            if (overlaps) {
+                chunks.remove(entry.getValue());
+                chunk.forEach(part -> chunkStarts.remove(part.start()));
+            }
+        }
+    }
+
+    /**
+     * Creates a snapshot of the given file and adds a reference to all of its intervals, so that they are only freed
+     * when neither file references them anymore.
+     */
+    private BtrfsFile snapshot(BtrfsFile file, String snapshotName) {
+        BtrfsFile snapshot = file.snapshot(snapshotName);
+
+        for (Interval interval : file.readAll().getIntervals()) {
+            references.increment(interval);
+        }
+
+        files.add(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Applies the operation of the given journal record to this file system without logging it again.
+     *
+     * @param record the record to replay.
+     */
+    private void replay(Journal.Record record) {
+        switch (record.operation()) {
+            case CREATE -> createFile(record.fileName(), record.data());
+            case INSERT -> insertIntoFile(getFile(record.fileName()), record.start(), record.data());
+            case WRITE -> writeIntoFile(getFile(record.fileName()), record.start(), record.data());
+            case REMOVE -> removeFromFile(getFile(record.fileName()), record.start(), record.length());
+            case SNAPSHOT -> snapshot(getFile(record.fileName()), new String(record.data(), StandardCharsets.UTF_8));
+            case DEDUPLICATE -> chunkSize = record.start();
+            case SHARE -> {
+                ByteBuffer data = ByteBuffer.wrap(record.data());
+                int sourceStart = data.getInt();
+                String source = StandardCharsets.UTF_8.decode(data).toString();
+
+                share(getFile(record.fileName()), record.start(), getFile(source), sourceStart, record.length());
+            }
+        }
+    }
+
+    /**
+     * Appends an operation to the journal if this file system has one.
+     *
+     * @return the position that has to be committed or {@code -1} if there is no journal.
+     */
+    private long log(Journal.Operation operation, String fileName, int start, int length, byte[] data) {
+        if (journal == null) {
+            return -1;
+        }
+
+        return journal.append(new Journal.Record(operation, fileName, start, length, data));
+    }
+
+    /**
+     * Marks the operation that was logged last as failed, so that it is not replayed. The mark is made durable
+     * immediately, because the caller is told that the operation failed.
+     */
+    private void abort() {
+        commit(log(Journal.Operation.ABORT, "", 0, 0, new byte[0]));
+    }
+
+    /**
+     * Waits until the journal is durable up to the given position. Concurrent callers are committed together.
+     * If the journal has grown too large, it is replaced by a checkpoint first, which makes it durable as well.
+     * The modification is applied already, so a failed checkpoint is logged and leaves the journal as it is.
+     *
+     * @param position the position returned by {@link #log(Journal.Operation, String, int, int, byte[])}.
+     */
+    private void commit(long position) {
+        if (journal == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (maxJournalSize > 0 && journal.getSize() > maxJournalSize) {
+                try {
+                    checkpoint();
+                } catch (RuntimeException e) {
+                    LOGGER.log(System.Logger.Level.WARNING, "checkpoint failed", e);
+                }
+            }
+        }
+
+        journal.commit(position);
+    }
+
+    /**
+     * A channel that reads a file of this file system from its beginning. Every read walks the tree of the file, so
+     * it is synchronized with the modifications of the file system, and buffered data of the file is stored first.
+     * The channel counts as a pending read until it is closed, so released intervals are not reused in the meantime.
+     */
+    private class StreamChannel implements ReadableByteChannel {
+
+        /**
+         * The file that is read.
+         */
+        private final BtrfsFile file;
+
+        /**
+         * The channel of the file.
+         */
+        private final ReadableByteChannel channel;
+
+        StreamChannel(BtrfsFile file) {
+            this.file = file;
+            channel = file.openChannel(0);
+            pendingReads++;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            synchronized (FileSystem.this) {
+                flush(file);
+                return channel.read(dst);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (FileSystem.this) {
+                if (channel.isOpen()) {
+                    channel.close();
+                    completeRead();
+                }
+            }
+        }
     }
 
     private BtrfsFile getFile(String name) {
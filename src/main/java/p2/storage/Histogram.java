@@ -0,0 +1,138 @@
+package p2.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of non-negative values with log-linear buckets.
+ * Values are grouped by their binary order of magnitude, and every order is divided into a fixed number of linear
+ * sub-buckets, so the relative error of a bucket is bounded independent of the magnitude of the values.
+ * All buckets are allocated when the histogram is created, so {@linkplain #record(long) recording} a value does
+ * not allocate memory.
+ */
+public class Histogram {
+
+    /**
+     * The binary logarithm of the number of sub-buckets per order of magnitude.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * The number of sub-buckets per order of magnitude.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of buckets, which is enough for all non-negative long values.
+     */
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * A snapshot of a histogram.
+     *
+     * @param count  the number of recorded values.
+     * @param sum    the sum of the recorded values.
+     * @param max    the largest recorded value or {@code 0} if no value was recorded.
+     * @param counts the number of values in each bucket.
+     */
+    public record Snapshot(long count, long sum, long max, long[] counts) {
+
+        /**
+         * Returns the mean of the recorded values.
+         *
+         * @return the mean or {@code 0} if no value was recorded.
+         */
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile of the recorded values.
+         * It is the upper end of the bucket that contains the percentile, but never larger than the maximum.
+         *
+         * @param percentile the percentile, between 0 and 100.
+         * @return the percentile or {@code 0} if no value was recorded.
+         */
+        public long percentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+            }
+
+            long rank = (long) Math.ceil(percentile / 100 * count);
+            long seen = 0;
+
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(bucket), max);
+                }
+            }
+
+            return max;
+        }
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records the given value.
+     *
+     * @param value the value, which must not be negative.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must not be negative");
+        }
+
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Returns a snapshot of the recorded values.
+     * Values that are recorded concurrently may be missing from some parts of the snapshot.
+     *
+     * @return the snapshot.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            copy[bucket] = counts.get(bucket);
+        }
+
+        return new Snapshot(count.get(), sum.get(), max.get(), copy);
+    }
+
+    /**
+     * Returns the bucket of the given value. Values below {@link #SUB_BUCKETS} have their own bucket;
+     * larger values are assigned to one of the sub-buckets of their order of magnitude.
+     */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int order = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (order - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (order - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value that belongs to the given bucket.
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int order = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowerBound = (1L << order) + (subBucket << (order - SUB_BUCKET_BITS));
+        return lowerBound + (1L << (order - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,147 @@
+package p2.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Data that was inserted into a file, but not stored yet. The data is inserted at a single position of the file,
+ * and further insertions and writes that are adjacent to or inside of it are merged into it, so that it can be
+ * stored with a single allocation. Space for the data is reserved when it is inserted, so that it can be stored
+ * even if the rest of the storage fills up in the meantime.
+ */
+final class InsertBuffer {
+
+    /**
+     * The position of the file at which the data is inserted.
+     */
+    private final int start;
+
+    /**
+     * The buffered data. Only the first {@link #length} bytes are used.
+     */
+    private byte[] data = new byte[64];
+
+    /**
+     * The number of buffered bytes.
+     */
+    private int length = 0;
+
+    /**
+     * The intervals of the storage that are allocated for the buffered data, in the order of their allocation.
+     * Adjacent intervals are merged.
+     */
+    private final List<Interval> reserved = new ArrayList<>();
+
+    /**
+     * Creates a new, empty buffer for data that is inserted at the given position.
+     *
+     * @param start the position of the file at which the data is inserted.
+     */
+    InsertBuffer(int start) {
+        this.start = start;
+    }
+
+    /**
+     * Returns the position of the file at which the data is inserted.
+     *
+     * @return the position.
+     */
+    int start() {
+        return start;
+    }
+
+    /**
+     * Returns the number of buffered bytes.
+     *
+     * @return the number of bytes.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Checks whether data that is inserted at the given position of the file can be merged into this buffer,
+     * which is the case if the position is inside of the buffered data or directly in front of or behind it.
+     *
+     * @param position the position of the file, including the buffered data.
+     * @return whether the data can be merged.
+     */
+    boolean isAdjacent(int position) {
+        return start <= position && position <= start + length;
+    }
+
+    /**
+     * Checks whether the given range of the file lies completely inside of the buffered data.
+     *
+     * @param position the start of the range, including the buffered data.
+     * @param length   the length of the range.
+     * @return whether the range lies inside of the buffered data.
+     */
+    boolean covers(int position, int length) {
+        return start <= position && position + length <= start + this.length;
+    }
+
+    /**
+     * Inserts the given data at the given position, which has to be {@linkplain #isAdjacent(int) adjacent}.
+     *
+     * @param position the position of the file, including the buffered data.
+     * @param bytes    the data to insert.
+     */
+    void insert(int position, byte[] bytes) {
+        if (length + bytes.length > data.length) {
+            data = Arrays.copyOf(data, Math.max(2 * data.length, length + bytes.length));
+        }
+
+        int offset = position - start;
+        System.arraycopy(data, offset, data, offset + bytes.length, length - offset);
+        System.arraycopy(bytes, 0, data, offset, bytes.length);
+        length += bytes.length;
+    }
+
+    /**
+     * Overwrites the buffered data at the given position, which has to be {@linkplain #covers(int, int) covered}.
+     *
+     * @param position the position of the file, including the buffered data.
+     * @param bytes    the data to write.
+     */
+    void write(int position, byte[] bytes) {
+        System.arraycopy(bytes, 0, data, position - start, bytes.length);
+    }
+
+    /**
+     * Adds the given intervals to the space that is reserved for the buffered data.
+     *
+     * @param intervals the allocated intervals.
+     */
+    void reserve(List<Interval> intervals) {
+        for (Interval interval : intervals) {
+            Interval last = reserved.isEmpty() ? null : reserved.get(reserved.size() - 1);
+
+            if (last != null && last.start() + last.length() == interval.start()) {
+                reserved.set(reserved.size() - 1, new Interval(last.start(), last.length() + interval.length()));
+            } else {
+                reserved.add(interval);
+            }
+        }
+    }
+
+    /**
+     * Returns the intervals that are reserved for the buffered data. Their total length is the number of buffered
+     * bytes.
+     *
+     * @return the reserved intervals.
+     */
+    List<Interval> reserved() {
+        return reserved;
+    }
+
+    /**
+     * Returns a copy of the buffered data.
+     *
+     * @return the buffered data.
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(data, length);
+    }
+}
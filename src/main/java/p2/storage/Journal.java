@@ -0,0 +1,415 @@
+package p2.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * A sequential log of the operations that modified a {@link FileSystem}.
+ * Records are appended to the end of a file and become durable when they are {@linkplain #commit(long) committed}.
+ * Concurrent commits are batched, so that a single {@link FileChannel#force(boolean)} makes the records of all
+ * waiting callers durable (group commit).
+ *
+ * <p>Each record is stored as its length, its CRC32C checksum and its content. Records that were not completely
+ * written, e.g. because of a crash, are detected by their checksum and discarded when the journal is opened.</p>
+ *
+ * <p>A {@linkplain #checkpoint(Iterable) checkpoint} replaces all records with fewer records that have the same
+ * effect, so that the journal and the time to replay it do not grow with the whole history of the file system.</p>
+ */
+public class Journal implements AutoCloseable {
+
+    /**
+     * The size of the header of a record, i.e. its length and its checksum.
+     */
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    /**
+     * The operations that can be stored in the journal.
+     */
+    public enum Operation {
+
+        /**
+         * A file was created with the data of the record.
+         */
+        CREATE,
+
+        /**
+         * The data of the record was inserted into a file.
+         */
+        INSERT,
+
+        /**
+         * The data of the record was written into a file, overwriting existing data.
+         */
+        WRITE,
+
+        /**
+         * The given amount of bytes was removed from a file.
+         */
+        REMOVE,
+
+        /**
+         * A snapshot of a file was created. The data of the record is the UTF-8 encoded name of the snapshot.
+         */
+        SNAPSHOT,
+
+        /**
+         * The operation of the preceding record failed and must not be replayed.
+         */
+        ABORT,
+
+        /**
+         * Deduplication was enabled. The start of the record is the size of the chunks.
+         */
+        DEDUPLICATE,
+
+        /**
+         * Data of another file was inserted into a file without copying it. The data of the record is the position
+         * of the data in the other file as an {@code int}, followed by the UTF-8 encoded name of the other file.
+         */
+        SHARE
+    }
+
+    /**
+     * A single operation stored in the journal.
+     *
+     * @param operation the operation.
+     * @param fileName  the name of the modified file.
+     * @param start     the position in the file at which the operation starts.
+     * @param length    the amount of bytes affected by the operation.
+     * @param data      the data that was written by the operation. It is empty for {@link Operation#REMOVE}
+     *                  and contains the name of the snapshot for {@link Operation#SNAPSHOT}.
+     */
+    public record Record(Operation operation, String fileName, int start, int length, byte[] data) {
+    }
+
+    /**
+     * The path of the journal file.
+     */
+    private final Path path;
+
+    /**
+     * The channel of the journal file.
+     */
+    private FileChannel channel;
+
+    /**
+     * The records that were read when the journal was opened. They are dropped at the first checkpoint.
+     */
+    private List<Record> records;
+
+    /**
+     * The position after the last appended record. Positions keep growing when the file is replaced by a checkpoint,
+     * so that they can still be compared with positions that were returned before.
+     */
+    private long appendedPosition;
+
+    /**
+     * The position that corresponds to the beginning of the current journal file.
+     */
+    private long filePosition = 0;
+
+    /**
+     * The position up to which all records are durable.
+     */
+    private long durablePosition;
+
+    /**
+     * Whether a caller is currently forcing the journal to the disk.
+     */
+    private boolean forcing = false;
+
+    /**
+     * Opens the journal stored in the file at the given path. If the file does not exist, it will be created.
+     * Incomplete records at the end of the file are discarded.
+     *
+     * @param path the path of the journal file.
+     * @throws IOException if the file could not be opened or read.
+     */
+    public Journal(Path path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            records = readRecords();
+            channel.truncate(appendedPosition);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        durablePosition = appendedPosition;
+    }
+
+    /**
+     * Returns the records that were stored in the journal when it was opened, in the order they were appended.
+     *
+     * @return the stored records.
+     */
+    public List<Record> getRecords() {
+        return records;
+    }
+
+    /**
+     * Appends the given record to the journal. The record is not durable until it is {@linkplain #commit(long)
+     * committed}. If the record cannot be written completely, the written part is removed again, so that records
+     * appended afterwards are not hidden behind an incomplete record.
+     *
+     * @param record the record to append.
+     * @return the position after the record, which has to be passed to {@link #commit(long)}.
+     */
+    public synchronized long append(Record record) {
+        ByteBuffer buffer = encode(record);
+        long start = appendedPosition - filePosition;
+
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, start + buffer.position());
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(start);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new UncheckedIOException(e);
+        }
+
+        appendedPosition += buffer.position();
+        return appendedPosition;
+    }
+
+    /**
+     * Replaces all records of the journal with the given records, which have to describe the current state of the
+     * file system. The new records are written to a new file, which is made durable and then atomically replaces
+     * the journal file, so that a crash leaves either the old or the new journal. All records that were appended
+     * before are durable afterwards.
+     *
+     * @param records the records that replace the journal. They are encoded one at a time, so they can be created
+     *                lazily.
+     */
+    public synchronized void checkpoint(Iterable<Record> records) {
+        // a running force uses the current channel
+        while (forcing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for a commit", e);
+            }
+        }
+
+        Path checkpoint = path.resolveSibling(path.getFileName() + ".checkpoint");
+        long size = 0;
+
+        try {
+            try (FileChannel target = FileChannel.open(checkpoint, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+                for (Record record : records) {
+                    ByteBuffer buffer = encode(record);
+
+                    while (buffer.hasRemaining()) {
+                        size += target.write(buffer, size);
+                    }
+                }
+                target.force(false);
+            }
+
+            Files.move(checkpoint, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            forceDirectory();
+
+            channel.close();
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        filePosition = appendedPosition - size;
+        durablePosition = appendedPosition;
+        this.records = List.of();
+    }
+
+    /**
+     * Returns the size of the journal file, i.e. the size of the records appended since the last checkpoint.
+     *
+     * @return the size in bytes.
+     */
+    public synchronized long getSize() {
+        return appendedPosition - filePosition;
+    }
+
+    /**
+     * Encodes the given record with its header.
+     */
+    private static ByteBuffer encode(Record record) {
+        byte[] name = record.fileName().getBytes(StandardCharsets.UTF_8);
+        int contentSize = 1 + Integer.BYTES + name.length + 3 * Integer.BYTES + record.data().length;
+
+        ByteBuffer content = ByteBuffer.allocate(contentSize)
+            .put((byte) record.operation().ordinal())
+            .putInt(name.length)
+            .put(name)
+            .putInt(record.start())
+            .putInt(record.length())
+            .putInt(record.data().length)
+            .put(record.data())
+            .flip();
+
+        CRC32C crc = new CRC32C();
+        crc.update(content.duplicate());
+
+        return ByteBuffer.allocate(HEADER_SIZE + contentSize)
+            .putInt(contentSize)
+            .putInt((int) crc.getValue())
+            .put(content)
+            .flip();
+    }
+
+    /**
+     * Makes the replacement of the journal file durable. Directories cannot be forced on every platform, in which
+     * case the replacement becomes durable when the operating system writes the directory.
+     */
+    private void forceDirectory() {
+        Path directory = path.toAbsolutePath().getParent();
+
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported for directories on this platform
+        }
+    }
+
+    /**
+     * Waits until all records up to the given position are durable.
+     * If no other caller is currently forcing the journal, this caller forces all records appended so far,
+     * including those of other callers. Otherwise, it waits for the running force to finish.
+     *
+     * @param position the position returned by {@link #append(Record)}.
+     */
+    public void commit(long position) {
+        long target;
+        FileChannel channel;
+
+        synchronized (this) {
+            while (durablePosition < position && forcing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for a commit", e);
+                }
+            }
+
+            if (durablePosition >= position) {
+                return;
+            }
+
+            forcing = true;
+            target = appendedPosition;
+            channel = this.channel;
+        }
+
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            synchronized (this) {
+                forcing = false;
+                notifyAll();
+            }
+            throw new UncheckedIOException(e);
+        }
+
+        synchronized (this) {
+            durablePosition = Math.max(durablePosition, target);
+            forcing = false;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Forces all appended records to the disk and closes the journal.
+     */
+    @Override
+    public void close() {
+        commit(appendedPosition);
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads all complete records of the journal file and sets the append position after the last one.
+     *
+     * @return the records.
+     * @throws IOException if the file could not be read.
+     */
+    private List<Record> readRecords() throws IOException {
+        List<Record> records = new ArrayList<>();
+        long position = 0;
+        long size = channel.size();
+
+        while (position + HEADER_SIZE <= size) {
+            ByteBuffer header = readFully(position, HEADER_SIZE);
+            int contentSize = header.getInt();
+            int checksum = header.getInt();
+
+            if (contentSize < 0 || position + HEADER_SIZE + contentSize > size) {
+                break;
+            }
+
+            ByteBuffer content = readFully(position + HEADER_SIZE, contentSize);
+
+            CRC32C crc = new CRC32C();
+            crc.update(content.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            records.add(decode(content));
+            position += HEADER_SIZE + contentSize;
+        }
+
+        appendedPosition = position;
+        return records;
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of journal");
+            }
+        }
+
+        return buffer.flip();
+    }
+
+    private Record decode(ByteBuffer content) {
+        Operation operation = Operation.values()[content.get()];
+
+        byte[] name = new byte[content.getInt()];
+        content.get(name);
+
+        int start = content.getInt();
+        int length = content.getInt();
+
+        byte[] data = new byte[content.getInt()];
+        content.get(data);
+
+        return new Record(operation, new String(name, StandardCharsets.UTF_8), start, length, data);
+    }
+}
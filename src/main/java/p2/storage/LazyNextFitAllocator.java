@@ -0,0 +1,263 @@
+package p2.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A next-fit {@linkplain AllocationStrategy allocation strategy} whose state is allocated lazily.
+ * It marks used bytes in a bitmap that is divided into pages, and a page is only allocated when a byte in it is
+ * marked and released when all of its bytes are free again. The memory used by the allocator is therefore
+ * proportional to the used part of the
+ * storage instead of its size, which makes it suitable for large, mostly empty storages.
+ *
+ * <p>Like the {@link NextFitAllocator}, it continues searching after the last allocated interval.</p>
+ */
+public class LazyNextFitAllocator implements AllocationStrategy {
+
+    /**
+     * The binary logarithm of the number of bits in a page of the bitmap.
+     */
+    private static final int PAGE_BITS_LOG = 16;
+
+    /**
+     * The number of bits in a page of the bitmap.
+     */
+    private static final int PAGE_BITS = 1 << PAGE_BITS_LOG;
+
+    /**
+     * The size of the storage.
+     */
+    private final int size;
+
+    /**
+     * The pages of the bitmap, in which a set bit marks a used byte. Pages without used bytes are {@code null}.
+     */
+    private final long[][] pages;
+
+    /**
+     * The number of used bytes in each page.
+     */
+    private final int[] usedInPage;
+
+    /**
+     * The number of free bytes in the storage.
+     */
+    private int free;
+
+    /**
+     * The index of the last byte that was allocated.
+     */
+    private int lastFit = -1;
+
+    /**
+     * The maximum size of an interval that will be allocated.
+     */
+    private int maxIntervalSize = Integer.MAX_VALUE;
+
+    /**
+     * Creates a new {@link LazyNextFitAllocator} for a storage of the given size, which is initially free.
+     *
+     * @param size the size of the storage.
+     */
+    public LazyNextFitAllocator(int size) {
+        this.size = size;
+        free = size;
+
+        int pageCount = (int) (((long) size + PAGE_BITS - 1) >>> PAGE_BITS_LOG);
+        pages = new long[pageCount][];
+        usedInPage = new int[pageCount];
+    }
+
+    /**
+     * Creates a new {@link LazyNextFitAllocator} for a storage in which the given bytes are used.
+     *
+     * @param used the array that marks the used bytes of the storage.
+     */
+    public LazyNextFitAllocator(boolean[] used) {
+        this(used.length);
+
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                mark(i, 1);
+            }
+        }
+    }
+
+    /**
+     * Creates a new {@link LazyNextFitAllocator} for a storage of the given size in which the given intervals are used.
+     *
+     * @param size the size of the storage.
+     * @param used the used intervals, sorted by their start and not overlapping.
+     */
+    public LazyNextFitAllocator(int size, List<Interval> used) {
+        this(size);
+
+        for (Interval interval : used) {
+            mark(interval.start(), interval.length());
+        }
+    }
+
+    @Override
+    public void setMaxIntervalSize(int size) {
+        maxIntervalSize = size;
+    }
+
+    @Override
+    public List<Interval> allocate(int size) throws NoDiskSpaceException {
+        if (size > free) {
+            throw new NoDiskSpaceException();
+        }
+
+        List<Interval> intervals = new ArrayList<>();
+        int position = lastFit + 1 == this.size ? 0 : lastFit + 1;
+        int remaining = size;
+
+        while (remaining > 0) {
+            int start = nextFree(position);
+
+            // continue at the beginning; there is enough free space, so the search terminates
+            if (start == this.size) {
+                position = 0;
+                continue;
+            }
+
+            int limit = start + Math.min(Math.min(remaining, maxIntervalSize), this.size - start);
+            int end = nextUsed(start, limit);
+
+            mark(start, end - start);
+            intervals.add(new Interval(start, end - start));
+
+            remaining -= end - start;
+            lastFit = end - 1;
+            position = end == this.size ? 0 : end;
+        }
+
+        return intervals;
+    }
+
+    /**
+     * Marks the given interval as free. Pages of the bitmap that do not contain used bytes anymore are released.
+     *
+     * @param interval the interval, which has to be allocated.
+     * @throws IllegalArgumentException if a part of the interval is not allocated.
+     */
+    @Override
+    public void free(Interval interval) {
+        int end = interval.start() + interval.length();
+
+        if (nextFree(interval.start()) < end) {
+            throw new IllegalArgumentException("interval " + interval + " is not allocated");
+        }
+
+        for (int position = interval.start(); position < end; ) {
+            int pageIndex = position >>> PAGE_BITS_LOG;
+            int pageStart = pageIndex << PAGE_BITS_LOG;
+            int pageEnd = (int) Math.min((long) pageStart + PAGE_BITS, end);
+
+            Bitmaps.clear(pages[pageIndex], position - pageStart, pageEnd - pageStart);
+            usedInPage[pageIndex] -= pageEnd - position;
+            if (usedInPage[pageIndex] == 0) {
+                pages[pageIndex] = null;
+            }
+            position = pageEnd;
+        }
+
+        free += interval.length();
+    }
+
+    /**
+     * Returns the amount of memory that is allocated for the bitmap.
+     *
+     * @return the amount of allocated bytes.
+     */
+    public long getAllocatedBytes() {
+        long allocated = 0;
+
+        for (long[] page : pages) {
+            if (page != null) {
+                allocated += (long) page.length * Long.BYTES;
+            }
+        }
+
+        return allocated;
+    }
+
+    /**
+     * Returns the position of the first free byte at or after the given position.
+     *
+     * @return the position of the free byte or the size of the storage if there is none.
+     */
+    private int nextFree(int position) {
+        while (position < size) {
+            int pageIndex = position >>> PAGE_BITS_LOG;
+            int pageStart = pageIndex << PAGE_BITS_LOG;
+            int pageEnd = (int) Math.min((long) pageStart + PAGE_BITS, size);
+            long[] page = pages[pageIndex];
+
+            if (page == null) {
+                return position;
+            }
+
+            if (usedInPage[pageIndex] < PAGE_BITS) {
+                int found = Bitmaps.nextClear(page, position - pageStart, pageEnd - pageStart);
+
+                if (found < pageEnd - pageStart) {
+                    return pageStart + found;
+                }
+            }
+
+            position = pageEnd;
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns the position of the first used byte at or after the given position, but before the given limit.
+     *
+     * @return the position of the used byte or the limit if there is none.
+     */
+    private int nextUsed(int position, int limit) {
+        while (position < limit) {
+            int pageIndex = position >>> PAGE_BITS_LOG;
+            int pageStart = pageIndex << PAGE_BITS_LOG;
+            int pageEnd = (int) Math.min((long) pageStart + PAGE_BITS, limit);
+            long[] page = pages[pageIndex];
+
+            if (page != null) {
+                int found = Bitmaps.nextSet(page, position - pageStart, pageEnd - pageStart);
+
+                if (found < pageEnd - pageStart) {
+                    return pageStart + found;
+                }
+            }
+
+            position = pageEnd;
+        }
+
+        return limit;
+    }
+
+    /**
+     * Marks the given bytes, which have to be free, as used.
+     */
+    private void mark(int start, int length) {
+        int end = start + length;
+
+        for (int position = start; position < end; ) {
+            int pageIndex = position >>> PAGE_BITS_LOG;
+            int pageStart = pageIndex << PAGE_BITS_LOG;
+            int pageEnd = (int) Math.min((long) pageStart + PAGE_BITS, end);
+
+            if (pages[pageIndex] == null) {
+                pages[pageIndex] = new long[Bitmaps.words(PAGE_BITS)];
+            }
+
+            Bitmaps.set(pages[pageIndex], position - pageStart, pageEnd - pageStart);
+            usedInPage[pageIndex] += pageEnd - position;
+            position = pageEnd;
+        }
+
+        free -= length;
+    }
+}
@@ -0,0 +1,131 @@
+package p2.storage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The long-addressed counterpart of the {@link BestFitAllocator} for storages that are larger than 2 GiB.
+ * A request is satisfied by the smallest free extent that is large enough, which is split if it is larger than
+ * needed. If there is no such extent, the largest extents are used. Freed intervals are merged with adjacent free
+ * extents.
+ */
+public class LongBestFitAllocator {
+
+    /**
+     * The free extents by their start. The values are the lengths of the extents.
+     */
+    private final TreeMap<Long, Long> byStart = new TreeMap<>();
+
+    /**
+     * The free extents ordered by their length and then by their start.
+     */
+    private final TreeSet<LongInterval> byLength = new TreeSet<>(Comparator.comparingLong(LongInterval::length)
+        .thenComparingLong(LongInterval::start));
+
+    /**
+     * The number of free bytes.
+     */
+    private long free = 0;
+
+    /**
+     * Creates a new {@link LongBestFitAllocator} for a storage of the given size, which is initially free.
+     *
+     * @param size the size of the storage.
+     */
+    public LongBestFitAllocator(long size) {
+        if (size > 0) {
+            add(0, size);
+        }
+    }
+
+    /**
+     * Allocates the given number of bytes.
+     *
+     * @param size the number of bytes.
+     * @return the allocated intervals.
+     * @throws NoDiskSpaceException if there are not enough free bytes.
+     */
+    public List<LongInterval> allocate(long size) throws NoDiskSpaceException {
+        if (size > free) {
+            throw new NoDiskSpaceException();
+        }
+
+        List<LongInterval> intervals = new ArrayList<>();
+        long remaining = size;
+
+        while (remaining > 0) {
+            // the smallest extent that fits or, if there is none, the largest extent
+            LongInterval extent = byLength.ceiling(new LongInterval(0, remaining));
+            if (extent == null) {
+                extent = byLength.last();
+            }
+
+            long length = Math.min(remaining, extent.length());
+
+            remove(extent);
+            if (length < extent.length()) {
+                add(extent.start() + length, extent.length() - length);
+            }
+
+            intervals.add(new LongInterval(extent.start(), length));
+            remaining -= length;
+        }
+
+        return intervals;
+    }
+
+    /**
+     * Marks the given interval as free again and merges it with adjacent free extents.
+     *
+     * @param interval the interval, which has to be allocated.
+     * @throws IllegalArgumentException if a part of the interval is already free.
+     */
+    public void free(LongInterval interval) {
+        long start = interval.start();
+        long end = interval.start() + interval.length();
+
+        Map.Entry<Long, Long> previous = byStart.floorEntry(start);
+        Map.Entry<Long, Long> next = byStart.ceilingEntry(start);
+
+        if (previous != null && previous.getKey() + previous.getValue() > start || next != null && next.getKey() < end) {
+            throw new IllegalArgumentException("interval " + interval + " is already free");
+        }
+
+        if (previous != null && previous.getKey() + previous.getValue() == start) {
+            remove(new LongInterval(previous.getKey(), previous.getValue()));
+            start = previous.getKey();
+        }
+
+        if (next != null && next.getKey() == end) {
+            remove(new LongInterval(next.getKey(), next.getValue()));
+            end += next.getValue();
+        }
+
+        add(start, end - start);
+    }
+
+    /**
+     * Returns the number of free bytes.
+     *
+     * @return the number of free bytes.
+     */
+    public long getFreeBytes() {
+        return free;
+    }
+
+    private void add(long start, long length) {
+        byStart.put(start, length);
+        byLength.add(new LongInterval(start, length));
+        free += length;
+    }
+
+    private void remove(LongInterval extent) {
+        byStart.remove(extent.start());
+        byLength.remove(extent);
+        free -= extent.length();
+    }
+}
@@ -0,0 +1,162 @@
+package p2.storage;
+
+import p2.btrfs.LongBtrfsFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A file system whose volume and files can be larger than 2 GiB. It stores its files in a {@link SegmentedStorage}
+ * and addresses the storage and the files with {@code long} positions. Each single read or insertion is still
+ * limited by the size of a byte array.
+ *
+ * <p>It is the long-addressed counterpart of the {@link FileSystem}, with the basic operations only: it does not
+ * support journaling, snapshots, deduplication or asynchronous operations.</p>
+ */
+public class LongFileSystem {
+
+    /**
+     * The degree of the B-trees of the files.
+     */
+    private static final int DEGREE = 64;
+
+    /**
+     * The storage that is used to store the files.
+     */
+    private final SegmentedStorage storage;
+
+    /**
+     * The files that are stored in this file system.
+     */
+    private final List<LongBtrfsFile> files = new ArrayList<>();
+
+    /**
+     * The allocator that is used to allocate space for the files.
+     */
+    private final LongBestFitAllocator allocator;
+
+    /**
+     * Creates a new file system that stores its files in the given storage. The whole storage is considered to be
+     * free.
+     *
+     * @param storage The storage that will be used to store the files.
+     */
+    public LongFileSystem(SegmentedStorage storage) {
+        this.storage = storage;
+        allocator = new LongBestFitAllocator(storage.getLongSize());
+    }
+
+    /**
+     * Creates a new, empty file in this file system.
+     *
+     * @param name The name of the file.
+     * @return The new file.
+     */
+    public synchronized LongBtrfsFile createFile(String name) {
+        LongBtrfsFile file = new LongBtrfsFile(name, DEGREE);
+        files.add(file);
+        return file;
+    }
+
+    /**
+     * Inserts data into a file at a given position.
+     *
+     * @param fileName the name of the file.
+     * @param start The position (logical address) at which the data will be inserted.
+     * @param data The data that will be inserted.
+     * @param encoder The encoder that will be used to encode the data.
+     * @param <T> The type of the data that will be inserted.
+     * @throws NoSuchBtrfsFileException If there is no file with the given name.
+     */
+    public synchronized <T> void insertIntoFile(String fileName, long start, T data, DataEncoder<T> encoder) throws NoSuchBtrfsFileException {
+        LongBtrfsFile file = getFile(fileName);
+        byte[] encoded = encoder.encode(data);
+
+        if (start < 0 || start > file.getSize()) {
+            throw new IndexOutOfBoundsException("start %d is outside of the file of size %d"
+                .formatted(start, file.getSize()));
+        }
+
+        List<LongInterval> intervals = allocator.allocate(encoded.length);
+        int offset = 0;
+
+        for (LongInterval interval : intervals) {
+            storage.write(interval.start(), encoded, offset, (int) interval.length());
+            offset += (int) interval.length();
+        }
+
+        file.insert(start, intervals);
+    }
+
+    /**
+     * Reads the given range of a file.
+     *
+     * @param fileName the name of the file.
+     * @param decoder The decoder that will be used to decode the data.
+     * @param start The position (logical address) at which the read starts.
+     * @param length The amount of data to read.
+     * @param <T> The type of the data that will be read.
+     * @return The decoded data.
+     * @throws NoSuchBtrfsFileException If there is no file with the given name.
+     */
+    public synchronized <T> T readFile(String fileName, DataEncoder<T> decoder, long start, int length) throws NoSuchBtrfsFileException {
+        byte[] data = new byte[length];
+        int offset = 0;
+
+        for (LongInterval interval : getFile(fileName).read(start, length)) {
+            storage.read(interval.start(), data, offset, (int) interval.length());
+            offset += (int) interval.length();
+        }
+
+        return decoder.decode(data);
+    }
+
+    /**
+     * Removes the given range from a file and frees the space that held it.
+     *
+     * @param fileName the name of the file.
+     * @param start The position (logical address) at which the removal starts.
+     * @param length The amount of data to remove.
+     * @throws NoSuchBtrfsFileException If there is no file with the given name.
+     */
+    public synchronized void removeFromFile(String fileName, long start, long length) throws NoSuchBtrfsFileException {
+        for (LongInterval interval : getFile(fileName).remove(start, length)) {
+            allocator.free(interval);
+        }
+    }
+
+    /**
+     * Returns the size of the volume.
+     *
+     * @return The size of the storage.
+     */
+    public long getSize() {
+        return storage.getLongSize();
+    }
+
+    /**
+     * Returns the number of bytes that are not used by any file.
+     *
+     * @return The number of free bytes.
+     */
+    public synchronized long getFreeBytes() {
+        return allocator.getFreeBytes();
+    }
+
+    /**
+     * Returns the file with the given name.
+     *
+     * @param name The name of the file.
+     * @return The file.
+     * @throws NoSuchBtrfsFileException If there is no file with the given name.
+     */
+    public synchronized LongBtrfsFile getFile(String name) throws NoSuchBtrfsFileException {
+        for (LongBtrfsFile file : files) {
+            if (file.getName().equals(name)) {
+                return file;
+            }
+        }
+
+        throw new NoSuchBtrfsFileException(name);
+    }
+}
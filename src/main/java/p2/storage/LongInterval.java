@@ -0,0 +1,29 @@
+package p2.storage;
+
+/**
+ * An interval with a start and a length that are addressed with {@code long} positions, so that it can describe
+ * data beyond the first 2 GiB of a storage. The start must be non-negative and the length must be positive.
+ *
+ * @param start the start.
+ * @param length the length.
+ * @see Interval
+ */
+public record LongInterval(long start, long length) {
+
+    /**
+     * Creates a new interval with the given start and length.
+     *
+     * @param start the start.
+     * @param length the length.
+     */
+    public LongInterval {
+        if (start < 0) {
+            throw new IllegalArgumentException("start must be non-negative");
+        }
+
+        if (length <= 0) {
+            throw new IllegalArgumentException("length must be positive");
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package p2.storage;
+
+import java.util.Arrays;
+
+/**
+ * A small LZ77 codec that uses the sequence layout of the LZ4 block format.
+ * Each sequence consists of a token, the literals and a back reference (offset and length) into the
+ * already decoded data. The last sequence only contains literals.
+ */
+final class LzCodec {
+
+    /**
+     * The minimum length of a back reference.
+     */
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * The maximum distance of a back reference.
+     */
+    private static final int MAX_OFFSET = 0xFFFF;
+
+    /**
+     * The binary logarithm of the size of the hash table that finds back references.
+     */
+    private static final int HASH_BITS = 12;
+
+    /**
+     * This class cannot be instantiated.
+     */
+    private LzCodec() {
+    }
+
+    /**
+     * Returns the maximum size of the compressed representation of data with the given length.
+     *
+     * @param length the length of the uncompressed data.
+     * @return the maximum compressed size.
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses the given data.
+     *
+     * @param src    the array that contains the data.
+     * @param srcPos the position of the data in the array.
+     * @param length the length of the data.
+     * @param dest   the array to which the compressed data will be written.
+     *               It must hold at least {@link #maxCompressedLength(int)} bytes after {@code destPos}.
+     * @param destPos the position in the destination array at which the compressed data will start.
+     * @return the length of the compressed data.
+     */
+    static int compress(byte[] src, int srcPos, int length, byte[] dest, int destPos) {
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+
+        int end = srcPos + length;
+        int anchor = srcPos;
+        int pos = srcPos;
+        int out = destPos;
+
+        while (pos + MIN_MATCH <= end) {
+            int sequence = readInt(src, pos);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[hash];
+            table[hash] = pos;
+
+            if (ref < 0 || pos - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                pos++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (pos + matchLength < end && src[ref + matchLength] == src[pos + matchLength]) {
+                matchLength++;
+            }
+
+            out = writeSequence(src, anchor, pos - anchor, dest, out, pos - ref, matchLength);
+
+            pos += matchLength;
+            anchor = pos;
+        }
+
+        // the last sequence only consists of literals
+        return writeSequence(src, anchor, end - anchor, dest, out, 0, 0) - destPos;
+    }
+
+    /**
+     * Decompresses the given data.
+     *
+     * @param src     the array that contains the compressed data.
+     * @param srcPos  the position of the compressed data in the array.
+     * @param length  the length of the compressed data.
+     * @param dest    the array to which the decompressed data will be written.
+     * @param destPos the position in the destination array at which the decompressed data will start.
+     * @return the length of the decompressed data.
+     */
+    static int decompress(byte[] src, int srcPos, int length, byte[] dest, int destPos) {
+        int end = srcPos + length;
+        int in = srcPos;
+        int out = destPos;
+
+        while (in < end) {
+            int token = src[in++] & 0xFF;
+
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int extension;
+                do {
+                    extension = src[in++] & 0xFF;
+                    literalLength += extension;
+                } while (extension == 255);
+            }
+
+            System.arraycopy(src, in, dest, out, literalLength);
+            in += literalLength;
+            out += literalLength;
+
+            if (in >= end) {
+                break;
+            }
+
+            int offset = (src[in] & 0xFF) | (src[in + 1] & 0xFF) << 8;
+            in += 2;
+
+            int matchLength = token & 0xF;
+            if (matchLength == 15) {
+                int extension;
+                do {
+                    extension = src[in++] & 0xFF;
+                    matchLength += extension;
+                } while (extension == 255);
+            }
+            matchLength += MIN_MATCH;
+
+            // the back reference may overlap the bytes it produces, so it is copied byte by byte
+            for (int i = 0; i < matchLength; i++) {
+                dest[out + i] = dest[out - offset + i];
+            }
+            out += matchLength;
+        }
+
+        return out - destPos;
+    }
+
+    private static int writeSequence(byte[] src, int literalPos, int literalLength, byte[] dest, int out,
+                                     int offset, int matchLength) {
+        int tokenPos = out++;
+        int token = Math.min(literalLength, 15) << 4;
+
+        if (literalLength >= 15) {
+            out = writeLength(dest, out, literalLength - 15);
+        }
+
+        System.arraycopy(src, literalPos, dest, out, literalLength);
+        out += literalLength;
+
+        if (matchLength > 0) {
+            dest[out++] = (byte) offset;
+            dest[out++] = (byte) (offset >>> 8);
+
+            int encodedLength = matchLength - MIN_MATCH;
+            token |= Math.min(encodedLength, 15);
+            if (encodedLength >= 15) {
+                out = writeLength(dest, out, encodedLength - 15);
+            }
+        }
+
+        dest[tokenPos] = (byte) token;
+        return out;
+    }
+
+    private static int writeLength(byte[] dest, int out, int length) {
+        while (length >= 255) {
+            dest[out++] = (byte) 255;
+            length -= 255;
+        }
+        dest[out++] = (byte) length;
+        return out;
+    }
+
+    private static int readInt(byte[] array, int pos) {
+        return (array[pos] & 0xFF) | (array[pos + 1] & 0xFF) << 8 | (array[pos + 2] & 0xFF) << 16
+            | (array[pos + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,122 @@
+package p2.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A storage that stores data in a file which is mapped into memory.
+ * The data is cached by the page cache of the operating system instead of the java heap,
+ * and it is persisted in the file when the storage is {@linkplain #force() forced} or closed.
+ *
+ * <p>Only the bytes of the storage are persisted. The metadata of a {@link FileSystem} that uses the storage, i.e.
+ * its files and the allocated intervals, is kept in memory only, so a file system on a reopened storage is empty
+ * and overwrites the old data. To reopen a file system, its operations have to be logged in a {@link Journal},
+ * which replays them when the file system is created again.</p>
+ */
+public class MappedFileStorage implements Storage {
+
+    /**
+     * The channel of the mapped file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The mapped region of the file that stores the data.
+     */
+    private final MappedByteBuffer data;
+
+    /**
+     * Creates a new storage with the given size that is backed by the file at the given path.
+     * If the file does not exist, it will be created. If it is smaller than the given size, it will be extended.
+     * Existing data in the file is preserved.
+     *
+     * @param path the path of the file.
+     * @param size the size of the storage.
+     * @throws IOException if the file could not be opened or mapped.
+     */
+    public MappedFileStorage(Path path, int size) throws IOException {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must be non-negative");
+        }
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            data = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(int storagePos, byte[] source, int sourcePos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        data.put(storagePos, source, sourcePos, length);
+    }
+
+    @Override
+    public void read(int storagePos, byte[] dest, int destPos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        data.get(storagePos, dest, destPos, length);
+    }
+
+    @Override
+    public void read(int storagePos, ByteBuffer dest, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        dest.put(data.slice(storagePos, length));
+    }
+
+    @Override
+    public long transferTo(int storagePos, int length, WritableByteChannel target) throws IOException {
+        checkAccess(storagePos, length);
+
+        Storage.writeFully(target, data.slice(storagePos, length));
+        return length;
+    }
+
+    @Override
+    public int getSize() {
+        return data.capacity();
+    }
+
+    /**
+     * Writes all modifications of the storage to the underlying file.
+     */
+    public void force() {
+        data.force();
+    }
+
+    /**
+     * Writes all modifications to the underlying file and closes it.
+     * The mapping stays valid until it is garbage collected, but it must not be used anymore.
+     */
+    @Override
+    public void close() {
+        force();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void checkAccess(int start, int length) throws SegmentationFault {
+        if (start < 0) {
+            throw new SegmentationFault(getSize(), start);
+        }
+        if (start + length > getSize()) {
+            throw new SegmentationFault(getSize(), start + length);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package p2.storage;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A storage that measures the accesses to another storage. It counts the read and write calls and the transferred
+ * bytes, and records the latency of every call and the length of every accessed interval in {@linkplain Histogram
+ * histograms}. The metrics are available through {@link #getStatistics()} and, once the storage is
+ * {@linkplain #register(String) registered}, through JMX.
+ *
+ * <p>Recording does not allocate memory, so the storage can stay in place in production.</p>
+ */
+public class MeteredStorage implements Storage, MeteredStorageMXBean {
+
+    /**
+     * A snapshot of the metrics of a {@link MeteredStorage}. Latencies are given in nanoseconds.
+     *
+     * @param reads           the number of read calls.
+     * @param writes          the number of write calls.
+     * @param bytesRead       the amount of bytes that were read.
+     * @param bytesWritten    the amount of bytes that were written.
+     * @param readLatency     the latency of the read calls.
+     * @param writeLatency    the latency of the write calls.
+     * @param intervalLengths the lengths of the intervals that were read or written.
+     */
+    public record Statistics(long reads, long writes, long bytesRead, long bytesWritten,
+                             Histogram.Snapshot readLatency, Histogram.Snapshot writeLatency,
+                             Histogram.Snapshot intervalLengths) {
+    }
+
+    /**
+     * The measured storage.
+     */
+    private final Storage delegate;
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final Histogram readLatency = new Histogram();
+    private final Histogram writeLatency = new Histogram();
+    private final Histogram intervalLengths = new Histogram();
+
+    /**
+     * The name under which this storage is registered or {@code null} if it is not registered.
+     */
+    private ObjectName objectName;
+
+    /**
+     * Creates a new storage that measures the accesses to the given storage.
+     *
+     * @param delegate the storage to measure.
+     */
+    public MeteredStorage(Storage delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void write(int storagePos, byte[] source, int sourcePos, int length) throws SegmentationFault {
+        long start = System.nanoTime();
+        delegate.write(storagePos, source, sourcePos, length);
+        recordWrite(start, length);
+        intervalLengths.record(length);
+    }
+
+    @Override
+    public void read(int storagePos, byte[] dest, int destPos, int length) throws SegmentationFault {
+        long start = System.nanoTime();
+        delegate.read(storagePos, dest, destPos, length);
+        recordRead(start, length);
+        intervalLengths.record(length);
+    }
+
+    @Override
+    public void writev(Interval[] intervals, byte[] source, int sourcePos) throws SegmentationFault {
+        long start = System.nanoTime();
+        delegate.writev(intervals, source, sourcePos);
+        recordWrite(start, recordIntervals(intervals));
+    }
+
+    @Override
+    public void readv(Interval[] intervals, byte[] dest, int destPos) throws SegmentationFault {
+        long start = System.nanoTime();
+        delegate.readv(intervals, dest, destPos);
+        recordRead(start, recordIntervals(intervals));
+    }
+
+    @Override
+    public void read(int storagePos, ByteBuffer dest, int length) throws SegmentationFault {
+        long start = System.nanoTime();
+        delegate.read(storagePos, dest, length);
+        recordRead(start, length);
+        intervalLengths.record(length);
+    }
+
+    @Override
+    public long transferTo(int storagePos, int length, WritableByteChannel target) throws IOException {
+        long start = System.nanoTime();
+        long transferred = delegate.transferTo(storagePos, length, target);
+        recordRead(start, transferred);
+        intervalLengths.record(length);
+        return transferred;
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+    /**
+     * Returns a snapshot of the metrics of this storage.
+     *
+     * @return the snapshot.
+     */
+    public Statistics getStatistics() {
+        return new Statistics(reads.sum(), writes.sum(), bytesRead.sum(), bytesWritten.sum(),
+            readLatency.snapshot(), writeLatency.snapshot(), intervalLengths.snapshot());
+    }
+
+    /**
+     * Registers this storage at the platform MBean server, so that its metrics can be observed through JMX.
+     *
+     * @param name the name of the storage, which is used as the {@code name} key of the object name.
+     * @throws JMException if the storage could not be registered, e.g. because the name is already in use.
+     */
+    public synchronized void register(String name) throws JMException {
+        if (objectName != null) {
+            throw new IllegalStateException("storage is already registered");
+        }
+
+        ObjectName objectName = new ObjectName("p2.storage", "name", name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.objectName = objectName;
+    }
+
+    /**
+     * Unregisters this storage from JMX if it is registered and closes the measured storage.
+     */
+    @Override
+    public synchronized void close() {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                throw new IllegalStateException("could not unregister " + objectName, e);
+            }
+            objectName = null;
+        }
+
+        delegate.close();
+    }
+
+    @Override
+    public long getReads() {
+        return reads.sum();
+    }
+
+    @Override
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public double getMeanReadLatency() {
+        return readLatency.snapshot().mean();
+    }
+
+    @Override
+    public long getReadLatency99thPercentile() {
+        return readLatency.snapshot().percentile(99);
+    }
+
+    @Override
+    public double getMeanWriteLatency() {
+        return writeLatency.snapshot().mean();
+    }
+
+    @Override
+    public long getWriteLatency99thPercentile() {
+        return writeLatency.snapshot().percentile(99);
+    }
+
+    @Override
+    public double getMeanIntervalLength() {
+        return intervalLengths.snapshot().mean();
+    }
+
+    private void recordRead(long start, long length) {
+        readLatency.record(System.nanoTime() - start);
+        reads.increment();
+        bytesRead.add(length);
+    }
+
+    private void recordWrite(long start, long length) {
+        writeLatency.record(System.nanoTime() - start);
+        writes.increment();
+        bytesWritten.add(length);
+    }
+
+    /**
+     * Records the lengths of the given intervals.
+     *
+     * @return the total length of the intervals.
+     */
+    private long recordIntervals(Interval[] intervals) {
+        long length = 0;
+
+        for (Interval interval : intervals) {
+            intervalLengths.record(interval.length());
+            length += interval.length();
+        }
+
+        return length;
+    }
+}
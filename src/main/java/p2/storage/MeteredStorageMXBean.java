@@ -0,0 +1,71 @@
+package p2.storage;
+
+/**
+ * The management interface of a {@link MeteredStorage}, which exports its metrics through JMX.
+ * Latencies are given in nanoseconds.
+ */
+public interface MeteredStorageMXBean {
+
+    /**
+     * Returns the number of read calls.
+     *
+     * @return the number of read calls.
+     */
+    long getReads();
+
+    /**
+     * Returns the number of write calls.
+     *
+     * @return the number of write calls.
+     */
+    long getWrites();
+
+    /**
+     * Returns the amount of bytes that were read.
+     *
+     * @return the amount of bytes that were read.
+     */
+    long getBytesRead();
+
+    /**
+     * Returns the amount of bytes that were written.
+     *
+     * @return the amount of bytes that were written.
+     */
+    long getBytesWritten();
+
+    /**
+     * Returns the mean latency of a read call.
+     *
+     * @return the mean read latency.
+     */
+    double getMeanReadLatency();
+
+    /**
+     * Returns the 99th percentile of the latency of a read call.
+     *
+     * @return the 99th percentile of the read latency.
+     */
+    long getReadLatency99thPercentile();
+
+    /**
+     * Returns the mean latency of a write call.
+     *
+     * @return the mean write latency.
+     */
+    double getMeanWriteLatency();
+
+    /**
+     * Returns the 99th percentile of the latency of a write call.
+     *
+     * @return the 99th percentile of the write latency.
+     */
+    long getWriteLatency99thPercentile();
+
+    /**
+     * Returns the mean length of an accessed interval.
+     *
+     * @return the mean interval length.
+     */
+    double getMeanIntervalLength();
+}
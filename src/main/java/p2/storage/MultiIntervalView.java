@@ -1,6 +1,11 @@
 package p2.storage;
 
-import java.util.stream.Stream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
  * A view of multiple intervals in a storage.
@@ -22,6 +27,11 @@ class MultiIntervalView implements StorageView {
      */
     private final Interval[] intervals;
 
+    /**
+     * The position in this view at which each interval starts (the prefix sums of the interval lengths).
+     */
+    private final int[] offsets;
+
     /**
      * Creates a new {@link MultiIntervalView} instance.
      *
@@ -30,10 +40,15 @@ class MultiIntervalView implements StorageView {
      */
     MultiIntervalView(Storage storage, Interval... intervals) {
         this.storage = storage;
-        totalLength = Stream.of(intervals)
-            .mapToInt(Interval::length)
-            .sum();
         this.intervals = intervals;
+
+        offsets = new int[intervals.length];
+        int length = 0;
+        for (int i = 0; i < intervals.length; i++) {
+            offsets[i] = length;
+            length += intervals[i].length();
+        }
+        totalLength = length;
     }
 
     @Override
@@ -49,21 +64,63 @@ class MultiIntervalView implements StorageView {
     @Override
     public byte[] getData() {
         byte[] data = new byte[length()];
-        int pos = 0;
+        readInto(data, 0);
+        return data;
+    }
+
+    @Override
+    public void readInto(byte[] dest, int destPos) {
+        storage.readv(intervals, dest, destPos);
+    }
+
+    @Override
+    public void readInto(ByteBuffer dest) {
+        if (dest.remaining() < totalLength) {
+            throw new BufferOverflowException();
+        }
+
         for (final Interval interval : intervals) {
-            storage.read(interval.start(), data, pos, interval.length());
-            pos += interval.length();
+            storage.read(interval.start(), dest, interval.length());
         }
-        return data;
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target) throws IOException {
+        long transferred = 0;
+        for (final Interval interval : intervals) {
+            transferred += storage.transferTo(interval.start(), interval.length(), target);
+        }
+        return transferred;
     }
 
     @Override
     public StorageView plus(StorageView other) {
-        final Interval[] otherIntervals = other.getIntervals();
-        final Interval[] newIntervals = new Interval[intervals.length + otherIntervals.length];
-        System.arraycopy(intervals, 0, newIntervals, 0, intervals.length);
-        System.arraycopy(otherIntervals, 0, newIntervals, intervals.length, otherIntervals.length);
-        return new MultiIntervalView(storage, newIntervals);
+        return new StorageViewBuilder(storage).add(this).add(other).build();
+    }
+
+    @Override
+    public StorageView slice(int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, totalLength);
+
+        StorageViewBuilder builder = new StorageViewBuilder(storage);
+        int end = offset + length;
+
+        // the interval that contains the offset
+        int index = Arrays.binarySearch(offsets, offset);
+        if (index < 0) {
+            index = -index - 2;
+        }
+
+        for (; index < intervals.length && offsets[index] < end; index++) {
+            int from = Math.max(offset, offsets[index]);
+            int to = Math.min(end, offsets[index] + intervals[index].length());
+
+            if (from < to) {
+                builder.add(new Interval(intervals[index].start() + from - offsets[index], to - from));
+            }
+        }
+
+        return builder.build();
     }
 
     @Override
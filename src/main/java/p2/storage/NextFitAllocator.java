@@ -87,4 +87,17 @@ public class NextFitAllocator implements AllocationStrategy {
         return intervals;
     }
 
+    @Override
+    public void free(Interval interval) {
+        for (int i = interval.start(); i < interval.start() + interval.length(); i++) {
+            if (!used[i]) {
+                throw new IllegalArgumentException("interval " + interval + " is not allocated");
+            }
+        }
+
+        for (int i = interval.start(); i < interval.start() + interval.length(); i++) {
+            used[i] = false;
+        }
+    }
+
 }
@@ -0,0 +1,87 @@
+package p2.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A storage that stores data in a direct {@link ByteBuffer} outside the java heap.
+ * In contrast to {@link ArrayStorage}, the data is never moved or scanned by the garbage collector.
+ */
+public class OffHeapStorage implements Storage {
+
+    /**
+     * The size of the storage.
+     */
+    private final int size;
+
+    /**
+     * The direct buffer that stores the data or {@code null} if the storage was closed.
+     */
+    private ByteBuffer data;
+
+    /**
+     * Creates a new storage with the given size.
+     *
+     * @param size the size of the storage.
+     */
+    public OffHeapStorage(int size) {
+        this.size = size;
+        data = ByteBuffer.allocateDirect(size);
+    }
+
+    @Override
+    public void write(int storagePos, byte[] source, int sourcePos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        data.put(storagePos, source, sourcePos, length);
+    }
+
+    @Override
+    public void read(int storagePos, byte[] dest, int destPos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        data.get(storagePos, dest, destPos, length);
+    }
+
+    @Override
+    public void read(int storagePos, ByteBuffer dest, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        dest.put(data.slice(storagePos, length));
+    }
+
+    @Override
+    public long transferTo(int storagePos, int length, WritableByteChannel target) throws IOException {
+        checkAccess(storagePos, length);
+
+        Storage.writeFully(target, data.slice(storagePos, length));
+        return length;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Drops the reference to the direct buffer, so that its native memory is released by the buffer's cleaner.
+     * Java 17 offers no supported way to free a direct buffer synchronously.
+     */
+    @Override
+    public void close() {
+        data = null;
+    }
+
+    private void checkAccess(int start, int length) throws SegmentationFault {
+        if (data == null) {
+            throw new IllegalStateException("storage is closed");
+        }
+        if (start < 0) {
+            throw new SegmentationFault(getSize(), start);
+        }
+        if (start + length > getSize()) {
+            throw new SegmentationFault(getSize(), start + length);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package p2.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A storage that stores data in a file that is accessed in fixed-size pages, like a block device.
+ * The pages are cached in a {@link BufferPool}, so that repeated accesses to the same pages do not access the file.
+ * Modified pages are written to the file when they are replaced, when the storage is {@linkplain #flush() flushed}
+ * or when it is closed.
+ */
+public class PagedFileStorage implements Storage {
+
+    /**
+     * The default size of a page (4 KiB).
+     */
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    /**
+     * The channel of the file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The pool that caches the pages of the file.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The size of the storage.
+     */
+    private final int size;
+
+    /**
+     * Creates a new storage with the given size that is backed by the file at the given path and uses pages of
+     * {@link #DEFAULT_PAGE_SIZE} bytes. If the file does not exist, it will be created.
+     *
+     * @param path         the path of the file.
+     * @param size         the size of the storage.
+     * @param memoryBudget the maximum amount of bytes that is used to cache pages.
+     * @throws IOException if the file could not be opened.
+     */
+    public PagedFileStorage(Path path, int size, long memoryBudget) throws IOException {
+        this(path, size, DEFAULT_PAGE_SIZE, memoryBudget);
+    }
+
+    /**
+     * Creates a new storage with the given size that is backed by the file at the given path.
+     * If the file does not exist, it will be created.
+     *
+     * @param path         the path of the file.
+     * @param size         the size of the storage.
+     * @param pageSize     the size of a page.
+     * @param memoryBudget the maximum amount of bytes that is used to cache pages.
+     * @throws IOException if the file could not be opened.
+     */
+    public PagedFileStorage(Path path, int size, int pageSize, long memoryBudget) throws IOException {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must be non-negative");
+        }
+
+        this.size = size;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            pool = new BufferPool(channel, pageSize, memoryBudget);
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(int storagePos, byte[] source, int sourcePos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        int pageSize = pool.getPageSize();
+
+        while (length > 0) {
+            int pagePos = storagePos % pageSize;
+            int chunk = Math.min(length, pageSize - pagePos);
+
+            int frame = pool.pin(storagePos / pageSize);
+            try {
+                System.arraycopy(source, sourcePos, pool.getFrame(frame), pagePos, chunk);
+            } finally {
+                pool.unpin(frame, true);
+            }
+
+            storagePos += chunk;
+            sourcePos += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public void read(int storagePos, byte[] dest, int destPos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        int pageSize = pool.getPageSize();
+
+        while (length > 0) {
+            int pagePos = storagePos % pageSize;
+            int chunk = Math.min(length, pageSize - pagePos);
+
+            int frame = pool.pin(storagePos / pageSize);
+            try {
+                System.arraycopy(pool.getFrame(frame), pagePos, dest, destPos, chunk);
+            } finally {
+                pool.unpin(frame, false);
+            }
+
+            storagePos += chunk;
+            destPos += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public void writev(Interval[] intervals, byte[] source, int sourcePos) throws SegmentationFault {
+        copyIntervals(intervals, source, sourcePos, true);
+    }
+
+    @Override
+    public void readv(Interval[] intervals, byte[] dest, int destPos) throws SegmentationFault {
+        copyIntervals(intervals, dest, destPos, false);
+    }
+
+    @Override
+    public void read(int storagePos, ByteBuffer dest, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        int pageSize = pool.getPageSize();
+
+        while (length > 0) {
+            int pagePos = storagePos % pageSize;
+            int chunk = Math.min(length, pageSize - pagePos);
+
+            int frame = pool.pin(storagePos / pageSize);
+            try {
+                dest.put(pool.getFrame(frame), pagePos, chunk);
+            } finally {
+                pool.unpin(frame, false);
+            }
+
+            storagePos += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public long transferTo(int storagePos, int length, WritableByteChannel target) throws IOException {
+        checkAccess(storagePos, length);
+
+        int pageSize = pool.getPageSize();
+
+        for (int remaining = length; remaining > 0; ) {
+            int pagePos = storagePos % pageSize;
+            int chunk = Math.min(remaining, pageSize - pagePos);
+
+            int frame = pool.pin(storagePos / pageSize);
+            try {
+                Storage.writeFully(target, ByteBuffer.wrap(pool.getFrame(frame), pagePos, chunk));
+            } finally {
+                pool.unpin(frame, false);
+            }
+
+            storagePos += chunk;
+            remaining -= chunk;
+        }
+
+        return length;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the pool that caches the pages of this storage. It can be used to inspect the hit and miss counters.
+     *
+     * @return the buffer pool.
+     */
+    public BufferPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Writes all modified pages to the file and forces them to the disk.
+     */
+    public void flush() {
+        pool.flush();
+
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes all modified pages to the file and closes it.
+     */
+    @Override
+    public void close() {
+        flush();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Copies data between the given intervals and the given array.
+     * A page stays pinned while consecutive intervals access it, so that small neighbouring intervals
+     * only pin it once.
+     *
+     * @param intervals the intervals of the storage.
+     * @param array     the array.
+     * @param arrayPos  the position in the array at which the data of the first interval starts.
+     * @param write     whether the data is copied from the array into the storage or the other way round.
+     */
+    private void copyIntervals(Interval[] intervals, byte[] array, int arrayPos, boolean write) {
+        for (Interval interval : intervals) {
+            checkAccess(interval.start(), interval.length());
+        }
+
+        int pageSize = pool.getPageSize();
+        int pinnedPage = -1;
+        int frame = -1;
+
+        try {
+            for (Interval interval : intervals) {
+                int storagePos = interval.start();
+                int length = interval.length();
+
+                while (length > 0) {
+                    int page = storagePos / pageSize;
+
+                    if (page != pinnedPage) {
+                        if (frame != -1) {
+                            pool.unpin(frame, write);
+                            frame = -1;
+                        }
+                        frame = pool.pin(page);
+                        pinnedPage = page;
+                    }
+
+                    int pagePos = storagePos % pageSize;
+                    int chunk = Math.min(length, pageSize - pagePos);
+
+                    if (write) {
+                        System.arraycopy(array, arrayPos, pool.getFrame(frame), pagePos, chunk);
+                    } else {
+                        System.arraycopy(pool.getFrame(frame), pagePos, array, arrayPos, chunk);
+                    }
+
+                    storagePos += chunk;
+                    arrayPos += chunk;
+                    length -= chunk;
+                }
+            }
+        } finally {
+            if (frame != -1) {
+                pool.unpin(frame, write);
+            }
+        }
+    }
+
+    private void checkAccess(int start, int length) throws SegmentationFault {
+        if (start < 0) {
+            throw new SegmentationFault(getSize(), start);
+        }
+        if (start + length > getSize()) {
+            throw new SegmentationFault(getSize(), start + length);
+        }
+    }
+}
@@ -13,6 +13,16 @@ public class SegmentationFault extends RuntimeException {
      * @param location the location that was accessed.
      */
     SegmentationFault(int storageSize, int location) {
+        this((long) storageSize, location);
+    }
+
+    /**
+     * Creates a new segmentation fault exception for a storage that is addressed with {@code long} positions.
+     *
+     * @param storageSize the size of the storage.
+     * @param location the location that was accessed.
+     */
+    SegmentationFault(long storageSize, long location) {
         super("Could no access byte at location %d in a storage of length %d".formatted(location, storageSize));
     }
 }
@@ -0,0 +1,160 @@
+package p2.storage;
+
+/**
+ * A storage that is made of several byte arrays (segments) and can therefore be larger than 2 GiB.
+ * Its bytes are addressed with {@code long} positions. The {@code int} based methods of {@link Storage}
+ * address the first {@link Integer#MAX_VALUE} bytes of the storage, so a {@link FileSystem} only uses that part.
+ * A {@link LongFileSystem} uses the whole storage.
+ */
+public class SegmentedStorage implements Storage {
+
+    /**
+     * The default size of a segment (1 GiB).
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    /**
+     * The segments that store the data. Every segment except the last one has exactly {@code segmentSize} bytes.
+     */
+    private final byte[][] segments;
+
+    /**
+     * The binary logarithm of the segment size.
+     */
+    private final int segmentShift;
+
+    /**
+     * The mask that extracts the position inside a segment from a storage position.
+     */
+    private final long segmentMask;
+
+    /**
+     * The size of the storage.
+     */
+    private final long size;
+
+    /**
+     * Creates a new storage with the given size that uses segments of {@link #DEFAULT_SEGMENT_SIZE} bytes.
+     *
+     * @param size the size of the storage.
+     */
+    public SegmentedStorage(long size) {
+        this(size, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a new storage with the given size that uses segments of the given size.
+     *
+     * @param size        the size of the storage.
+     * @param segmentSize the size of a segment. It must be a positive power of two.
+     */
+    public SegmentedStorage(long size, int segmentSize) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must be non-negative");
+        }
+        if (segmentSize <= 0 || Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("segmentSize must be a positive power of two");
+        }
+
+        this.size = size;
+        segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+        segmentMask = segmentSize - 1;
+
+        int segmentCount = Math.toIntExact((size + segmentMask) >>> segmentShift);
+        segments = new byte[segmentCount][];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new byte[(int) Math.min(segmentSize, size - ((long) i << segmentShift))];
+        }
+    }
+
+    /**
+     * Writes the given data to the storage at the given position.
+     * The data may span multiple segments.
+     *
+     * @param storagePos The position at which the data will be written.
+     * @param source     The data that will be written.
+     * @param sourcePos  The position in the source array at which the data starts.
+     * @param length     The length of the data that will be written.
+     * @throws SegmentationFault If the data is written outside the storage.
+     */
+    public void write(long storagePos, byte[] source, int sourcePos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        while (length > 0) {
+            byte[] segment = segments[(int) (storagePos >>> segmentShift)];
+            int segmentPos = (int) (storagePos & segmentMask);
+            int chunk = Math.min(length, segment.length - segmentPos);
+
+            System.arraycopy(source, sourcePos, segment, segmentPos, chunk);
+
+            storagePos += chunk;
+            sourcePos += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Reads data from the storage at the given position and stores it in the given array.
+     * The data may span multiple segments.
+     *
+     * @param storagePos The position at which the data will be read.
+     * @param dest       The array to which the data will be written.
+     * @param destPos    The position in the destination array at which the data will start.
+     * @param length     The length of the data that will be read.
+     * @throws SegmentationFault If the read data is outside the storage.
+     */
+    public void read(long storagePos, byte[] dest, int destPos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        while (length > 0) {
+            byte[] segment = segments[(int) (storagePos >>> segmentShift)];
+            int segmentPos = (int) (storagePos & segmentMask);
+            int chunk = Math.min(length, segment.length - segmentPos);
+
+            System.arraycopy(segment, segmentPos, dest, destPos, chunk);
+
+            storagePos += chunk;
+            destPos += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public void write(int storagePos, byte[] source, int sourcePos, int length) throws SegmentationFault {
+        write((long) storagePos, source, sourcePos, length);
+    }
+
+    @Override
+    public void read(int storagePos, byte[] dest, int destPos, int length) throws SegmentationFault {
+        read((long) storagePos, dest, destPos, length);
+    }
+
+    /**
+     * Returns the part of the storage that is addressable with {@code int} positions.
+     * Use {@link #getLongSize()} to get the actual size of the storage, which is what a {@link LongFileSystem} uses.
+     *
+     * @return The size of the storage, but at most {@link Integer#MAX_VALUE}.
+     */
+    @Override
+    public int getSize() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the size of the storage.
+     *
+     * @return The size of the storage.
+     */
+    public long getLongSize() {
+        return size;
+    }
+
+    private void checkAccess(long start, int length) throws SegmentationFault {
+        if (start < 0) {
+            throw new SegmentationFault(size, start);
+        }
+        if (start + length > size) {
+            throw new SegmentationFault(size, start + length);
+        }
+    }
+}
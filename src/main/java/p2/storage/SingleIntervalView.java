@@ -1,5 +1,10 @@
 package p2.storage;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
 /**
  * A view of a single interval in a storage.
  */
@@ -45,17 +50,39 @@ class SingleIntervalView implements StorageView {
     @Override
     public byte[] getData() {
         byte[] data = new byte[length()];
-        storage.read(interval.start(), data, 0, interval.length());
+        readInto(data, 0);
         return data;
     }
 
+    @Override
+    public void readInto(byte[] dest, int destPos) {
+        storage.read(interval.start(), dest, destPos, interval.length());
+    }
+
+    @Override
+    public void readInto(ByteBuffer dest) {
+        storage.read(interval.start(), dest, interval.length());
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target) throws IOException {
+        return storage.transferTo(interval.start(), interval.length(), target);
+    }
+
     @Override
     public StorageView plus(StorageView other) {
-        final Interval[] otherIntervals = other.getIntervals();
-        final Interval[] newIntervals = new Interval[1 + otherIntervals.length];
-        newIntervals[0] = interval;
-        System.arraycopy(otherIntervals, 0, newIntervals, 1, otherIntervals.length);
-        return new MultiIntervalView(storage, newIntervals);
+        return new StorageViewBuilder(storage).add(interval).add(other).build();
+    }
+
+    @Override
+    public StorageView slice(int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, interval.length());
+
+        if (length == 0) {
+            return new EmptyStorageView(storage);
+        }
+
+        return new SingleIntervalView(storage, new Interval(interval.start() + offset, length));
     }
 
     @Override
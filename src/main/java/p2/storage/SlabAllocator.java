@@ -0,0 +1,410 @@
+package p2.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An {@linkplain AllocationStrategy allocation strategy} for many small intervals. Small requests are rounded up to
+ * a size class, which is a multiple of {@link #GRANULARITY} bytes, and served from slabs. A slab is a larger interval
+ * that is divided into slots of one size class, and each slab keeps a stack of its free slots, so a small allocation
+ * is a pop from a stack and does not depend on how full or fragmented the storage is.
+ *
+ * <p>The slabs are carved from a {@link BestFitAllocator}, which also serves requests larger than
+ * {@link #MAX_SMALL_SIZE} bytes and small requests for which no slab can be carved. A slab is given back to it when
+ * all of its slots are free, unless it is the last slab of its size class with free slots. If the storage is full,
+ * small requests also use free slots of larger size classes.</p>
+ *
+ * <p>The smallest size class has slots of {@link #GRANULARITY} bytes, so a request of a single byte still takes a
+ * whole slot. The unused bytes of a slot are not available to other requests until the slot is freed, which is
+ * acceptable for the intended use of many intervals of a few dozen bytes; storages that mostly hold intervals of a
+ * few bytes are better served by the {@link BestFitAllocator}.</p>
+ */
+public class SlabAllocator implements AllocationStrategy {
+
+    /**
+     * The largest request that is served from a slab.
+     */
+    public static final int MAX_SMALL_SIZE = 256;
+
+    /**
+     * The difference between the slot sizes of two adjacent size classes.
+     */
+    public static final int GRANULARITY = 16;
+
+    /**
+     * The size of the intervals that are carved into slots.
+     */
+    public static final int SLAB_SIZE = 4096;
+
+    /**
+     * An interval that is divided into slots of the same size.
+     */
+    private static final class Slab {
+
+        final int start;
+        final int slotSize;
+
+        /**
+         * The number of allocated bytes in each slot that are not freed yet.
+         */
+        final int[] live;
+
+        /**
+         * The bitmap of the allocated bytes of the slab that are not freed yet, relative to its start.
+         */
+        final long[] liveBytes;
+
+        /**
+         * The free slots. Only the first {@link #freeCount} elements are used.
+         */
+        final int[] freeSlots;
+
+        int freeCount;
+
+        /**
+         * Whether the slab is in the list of slabs with free slots of its size class.
+         */
+        boolean listed = false;
+
+        /**
+         * Whether the slab was given back to the extent allocator.
+         */
+        boolean released = false;
+
+        Slab(int start, int slotSize, int slots) {
+            this.start = start;
+            this.slotSize = slotSize;
+            live = new int[slots];
+            liveBytes = new long[Bitmaps.words(slots * slotSize)];
+            freeSlots = new int[slots];
+
+            // the lowest slot is used first
+            for (int i = 0; i < slots; i++) {
+                freeSlots[i] = slots - 1 - i;
+            }
+            freeCount = slots;
+        }
+
+        int end() {
+            return start + live.length * slotSize;
+        }
+    }
+
+    /**
+     * The allocator that the slabs are carved from and that serves large requests.
+     */
+    private final BestFitAllocator extents;
+
+    /**
+     * The slabs by their start.
+     */
+    private final TreeMap<Integer, Slab> slabs = new TreeMap<>();
+
+    /**
+     * The slabs with free slots of each size class. Slabs that became full or were released are removed lazily.
+     */
+    private final ArrayDeque<Slab>[] available;
+
+    /**
+     * The number of slabs of each size class that have free slots and were not released.
+     */
+    private final int[] availableCount;
+
+    /**
+     * The maximum size of an interval that will be allocated.
+     */
+    private int maxIntervalSize = Integer.MAX_VALUE;
+
+    /**
+     * Creates a new {@link SlabAllocator} for a storage of the given size, which is initially free.
+     *
+     * @param size the size of the storage.
+     */
+    public SlabAllocator(int size) {
+        this(new BestFitAllocator(size));
+    }
+
+    /**
+     * Creates a new {@link SlabAllocator} for a storage in which the given bytes are used.
+     *
+     * @param used the array that marks the used bytes of the storage.
+     */
+    public SlabAllocator(boolean[] used) {
+        this(new BestFitAllocator(used));
+    }
+
+    /**
+     * Creates a new {@link SlabAllocator} for a storage of the given size in which the given intervals are used.
+     *
+     * @param size the size of the storage.
+     * @param used the used intervals, sorted by their start and not overlapping.
+     */
+    public SlabAllocator(int size, List<Interval> used) {
+        this(new BestFitAllocator(size, used));
+    }
+
+    @SuppressWarnings("unchecked")
+    private SlabAllocator(BestFitAllocator extents) {
+        this.extents = extents;
+
+        int classes = MAX_SMALL_SIZE / GRANULARITY;
+        available = (ArrayDeque<Slab>[]) new ArrayDeque<?>[classes];
+        availableCount = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            available[i] = new ArrayDeque<>();
+        }
+    }
+
+    @Override
+    public void setMaxIntervalSize(int size) {
+        maxIntervalSize = size;
+        extents.setMaxIntervalSize(size);
+    }
+
+    @Override
+    public List<Interval> allocate(int size) throws NoDiskSpaceException {
+        if (size == 0 || size > MAX_SMALL_SIZE || size > maxIntervalSize) {
+            return allocateExtents(size);
+        }
+
+        int sizeClass = (size - 1) / GRANULARITY;
+        Slab slab = nextAvailable(sizeClass);
+
+        if (slab == null) {
+            slab = carve(sizeClass);
+        }
+
+        // the storage is too full or too fragmented for a new slab
+        if (slab == null) {
+            try {
+                return allocateExtents(size);
+            } catch (NoDiskSpaceException e) {
+                slab = nextAvailableLarger(sizeClass);
+                if (slab == null) {
+                    throw e;
+                }
+            }
+        }
+
+        int slot = slab.freeSlots[--slab.freeCount];
+        slab.live[slot] = size;
+        Bitmaps.set(slab.liveBytes, slot * slab.slotSize, slot * slab.slotSize + size);
+
+        if (slab.freeCount == 0) {
+            available[slab.slotSize / GRANULARITY - 1].pollFirst();
+            slab.listed = false;
+            availableCount[slab.slotSize / GRANULARITY - 1]--;
+        }
+
+        List<Interval> intervals = new ArrayList<>();
+        intervals.add(new Interval(slab.start + slot * slab.slotSize, size));
+        return intervals;
+    }
+
+    /**
+     * Frees the given interval. A slot is free again as soon as all of its allocated bytes were freed, so an interval
+     * can also be freed in parts. Parts of the interval that do not belong to a slab are freed in the extent allocator.
+     * The parts in slabs are checked before anything is freed.
+     *
+     * @param interval the interval, which has to be allocated.
+     * @throws IllegalArgumentException if a part of the interval is not allocated.
+     */
+    @Override
+    public void free(Interval interval) {
+        int end = interval.start() + interval.length();
+
+        for (int position = interval.start(); position < end; ) {
+            Map.Entry<Integer, Slab> entry = slabs.floorEntry(position);
+
+            if (entry == null || entry.getValue().end() <= position) {
+                Integer next = slabs.higherKey(position);
+                position = Math.min(end, next == null ? end : next);
+                continue;
+            }
+
+            Slab slab = entry.getValue();
+            int to = Math.min(end, slab.end());
+
+            if (Bitmaps.nextClear(slab.liveBytes, position - slab.start, to - slab.start) < to - slab.start) {
+                throw new IllegalArgumentException("interval " + interval + " is not allocated");
+            }
+
+            position = to;
+        }
+
+        for (int position = interval.start(); position < end; ) {
+            Map.Entry<Integer, Slab> entry = slabs.floorEntry(position);
+
+            if (entry == null || entry.getValue().end() <= position) {
+                Integer next = slabs.higherKey(position);
+                int length = Math.min(end, next == null ? end : next) - position;
+
+                extents.free(new Interval(position, length));
+                position += length;
+                continue;
+            }
+
+            Slab slab = entry.getValue();
+            int slot = (position - slab.start) / slab.slotSize;
+            int freed = Math.min(end, slab.start + (slot + 1) * slab.slotSize) - position;
+
+            Bitmaps.clear(slab.liveBytes, position - slab.start, position - slab.start + freed);
+            slab.live[slot] -= freed;
+            if (slab.live[slot] == 0) {
+                release(slab, slot);
+            }
+
+            position += freed;
+        }
+    }
+
+    /**
+     * Returns the number of slabs, which is a measure of the space that is reserved for small intervals.
+     *
+     * @return the number of slabs.
+     */
+    public int getSlabs() {
+        return slabs.size();
+    }
+
+    /**
+     * Allocates the given number of bytes in the extent allocator. If there is not enough space, the slabs whose
+     * slots are all free are given back to it first.
+     */
+    private List<Interval> allocateExtents(int size) throws NoDiskSpaceException {
+        try {
+            return extents.allocate(size);
+        } catch (NoDiskSpaceException e) {
+            if (!reclaim()) {
+                throw e;
+            }
+            return extents.allocate(size);
+        }
+    }
+
+    /**
+     * Gives all slabs whose slots are all free back to the extent allocator.
+     *
+     * @return whether a slab was given back.
+     */
+    private boolean reclaim() {
+        boolean reclaimed = false;
+
+        for (Iterator<Slab> iterator = slabs.values().iterator(); iterator.hasNext(); ) {
+            Slab slab = iterator.next();
+
+            if (slab.freeCount == slab.live.length) {
+                iterator.remove();
+                slab.released = true;
+                slab.listed = false;
+                availableCount[slab.slotSize / GRANULARITY - 1]--;
+                extents.free(new Interval(slab.start, slab.end() - slab.start));
+                reclaimed = true;
+            }
+        }
+
+        return reclaimed;
+    }
+
+    /**
+     * Returns a slab of the given size class with a free slot.
+     *
+     * @return the slab or {@code null} if there is none.
+     */
+    private Slab nextAvailable(int sizeClass) {
+        ArrayDeque<Slab> queue = available[sizeClass];
+
+        while (!queue.isEmpty() && queue.peekFirst().released) {
+            queue.pollFirst();
+        }
+
+        return queue.peekFirst();
+    }
+
+    /**
+     * Returns a slab of a size class larger than the given one with a free slot.
+     *
+     * @return the slab or {@code null} if there is none.
+     */
+    private Slab nextAvailableLarger(int sizeClass) {
+        for (int larger = sizeClass + 1; larger < available.length; larger++) {
+            Slab slab = nextAvailable(larger);
+
+            if (slab != null) {
+                return slab;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Carves a new slab of the given size class from the extent allocator. The slab is a single interval of
+     * {@link #SLAB_SIZE} bytes regardless of the maximum interval size, because only the allocated parts of its slots
+     * have to respect it.
+     *
+     * @return the new slab or {@code null} if there is no contiguous free space for it.
+     */
+    private Slab carve(int sizeClass) {
+        int slotSize = (sizeClass + 1) * GRANULARITY;
+        List<Interval> intervals;
+
+        extents.setMaxIntervalSize(Integer.MAX_VALUE);
+        try {
+            intervals = extents.allocate(SLAB_SIZE);
+        } catch (NoDiskSpaceException e) {
+            return null;
+        } finally {
+            extents.setMaxIntervalSize(maxIntervalSize);
+        }
+
+        // the free space is too fragmented for a slab
+        if (intervals.size() > 1) {
+            extents.free(intervals);
+            return null;
+        }
+
+        Interval interval = intervals.get(0);
+        int slots = SLAB_SIZE / slotSize;
+        int rest = SLAB_SIZE - slots * slotSize;
+
+        if (rest > 0) {
+            extents.free(new Interval(interval.start() + slots * slotSize, rest));
+        }
+
+        Slab slab = new Slab(interval.start(), slotSize, slots);
+        slabs.put(slab.start, slab);
+        available[sizeClass].addLast(slab);
+        slab.listed = true;
+        availableCount[sizeClass]++;
+
+        return slab;
+    }
+
+    /**
+     * Marks the given slot of the given slab as free. If all slots of the slab are free, the slab is given back to
+     * the extent allocator, unless it is the last slab of its size class with free slots.
+     */
+    private void release(Slab slab, int slot) {
+        int sizeClass = slab.slotSize / GRANULARITY - 1;
+        slab.freeSlots[slab.freeCount++] = slot;
+
+        if (!slab.listed) {
+            available[sizeClass].addFirst(slab);
+            slab.listed = true;
+            availableCount[sizeClass]++;
+        }
+
+        if (slab.freeCount == slab.live.length && availableCount[sizeClass] > 1) {
+            slabs.remove(slab.start);
+            slab.released = true;
+            slab.listed = false;
+            availableCount[sizeClass]--;
+            extents.free(new Interval(slab.start, slab.end() - slab.start));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package p2.storage;
+
+import java.util.Arrays;
+
+/**
+ * A storage that allocates its memory lazily in fixed-size pages.
+ * A page is allocated when it is written for the first time; pages that were never written are read as zeros.
+ * The memory used by the storage is therefore proportional to the amount of data stored in it, not to its size.
+ */
+public class SparsePageStorage implements Storage {
+
+    /**
+     * The default size of a page (64 KiB).
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1 << 16;
+
+    /**
+     * The size of the storage.
+     */
+    private final int size;
+
+    /**
+     * The size of a page.
+     */
+    private final int pageSize;
+
+    /**
+     * The pages of the storage. Pages that were never written are {@code null}.
+     */
+    private final byte[][] pages;
+
+    /**
+     * The number of allocated pages.
+     */
+    private int allocatedPages = 0;
+
+    /**
+     * Creates a new storage with the given size that uses pages of {@link #DEFAULT_PAGE_SIZE} bytes.
+     *
+     * @param size the size of the storage.
+     */
+    public SparsePageStorage(int size) {
+        this(size, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Creates a new storage with the given size.
+     *
+     * @param size     the size of the storage.
+     * @param pageSize the size of the pages that are allocated when they are first written.
+     */
+    public SparsePageStorage(int size, int pageSize) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must be non-negative");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+
+        this.size = size;
+        this.pageSize = pageSize;
+        pages = new byte[(int) (((long) size + pageSize - 1) / pageSize)][];
+    }
+
+    @Override
+    public void write(int storagePos, byte[] source, int sourcePos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        while (length > 0) {
+            int index = storagePos / pageSize;
+            int pagePos = storagePos % pageSize;
+            int chunk = Math.min(length, pageSize - pagePos);
+
+            if (pages[index] == null) {
+                pages[index] = new byte[Math.min(pageSize, size - index * pageSize)];
+                allocatedPages++;
+            }
+            System.arraycopy(source, sourcePos, pages[index], pagePos, chunk);
+
+            storagePos += chunk;
+            sourcePos += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public void read(int storagePos, byte[] dest, int destPos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        while (length > 0) {
+            int index = storagePos / pageSize;
+            int pagePos = storagePos % pageSize;
+            int chunk = Math.min(length, pageSize - pagePos);
+
+            if (pages[index] == null) {
+                Arrays.fill(dest, destPos, destPos + chunk, (byte) 0);
+            } else {
+                System.arraycopy(pages[index], pagePos, dest, destPos, chunk);
+            }
+
+            storagePos += chunk;
+            destPos += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the amount of memory that is allocated for the pages of this storage.
+     *
+     * @return the amount of allocated bytes.
+     */
+    public long getAllocatedBytes() {
+        return (long) allocatedPages * pageSize;
+    }
+
+    private void checkAccess(int start, int length) throws SegmentationFault {
+        if (start < 0) {
+            throw new SegmentationFault(getSize(), start);
+        }
+        if (start + length > getSize()) {
+            throw new SegmentationFault(getSize(), start + length);
+        }
+    }
+}
@@ -1,10 +1,22 @@
 package p2.storage;
 
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
 /**
  * Represents a storage that can be read from and written to.
  * This storage is byte-addressable, meaning that each byte has its own address.
+ * A storage that holds resources outside the java heap releases them when it is {@linkplain #close() closed}.
  */
-public interface Storage {
+public interface Storage extends AutoCloseable {
+
+    /**
+     * The size of the temporary buffer used by the default implementations of
+     * {@link #read(int, ByteBuffer, int)} and {@link #transferTo(int, int, WritableByteChannel)}.
+     */
+    int TRANSFER_CHUNK_SIZE = 8192;
 
     /**
      * Creates an unmodifiable view on the data stored at the given intervals.
@@ -14,7 +26,13 @@ public interface Storage {
      * @param intervals The intervals that will be used to create the view.
      * @return The created view.
      */
-    StorageView createView(Interval... intervals);
+    default StorageView createView(Interval... intervals) {
+        return switch (intervals.length) {
+            case 0 -> new EmptyStorageView(this);
+            case 1 -> new SingleIntervalView(this, intervals[0]);
+            default -> new MultiIntervalView(this, intervals);
+        };
+    }
 
     /**
      * Writes the given data to the storage at the given position.
@@ -38,10 +56,131 @@ public interface Storage {
      */
     void read(int storagePos, byte[] dest, int destPos, int length) throws SegmentationFault;
 
+    /**
+     * Writes consecutive data of the given array to the given intervals (gather write).
+     * The first interval receives the data starting at {@code sourcePos}, the next interval the data following it,
+     * and so on.
+     *
+     * <p>The default implementation calls {@link #write(int, byte[], int, int)} for every interval.
+     * Storages can override it to write all intervals in a single operation.</p>
+     *
+     * @param intervals The intervals that will be written to.
+     * @param source The data that will be written.
+     * @param sourcePos The position in the source array at which the data starts.
+     * @throws SegmentationFault If any interval is outside the storage.
+     */
+    default void writev(Interval[] intervals, byte[] source, int sourcePos) throws SegmentationFault {
+        for (Interval interval : intervals) {
+            write(interval.start(), source, sourcePos, interval.length());
+            sourcePos += interval.length();
+        }
+    }
+
+    /**
+     * Reads the data of the given intervals and stores it consecutively in the given array (scatter read).
+     * The data of the first interval is stored at {@code destPos}, the data of the next interval directly after it,
+     * and so on.
+     *
+     * <p>The default implementation calls {@link #read(int, byte[], int, int)} for every interval.
+     * Storages can override it to read all intervals in a single operation.</p>
+     *
+     * @param intervals The intervals that will be read.
+     * @param dest The array to which the data will be written.
+     * @param destPos The position in the destination array at which the data will start.
+     * @throws SegmentationFault If any interval is outside the storage.
+     */
+    default void readv(Interval[] intervals, byte[] dest, int destPos) throws SegmentationFault {
+        for (Interval interval : intervals) {
+            read(interval.start(), dest, destPos, interval.length());
+            destPos += interval.length();
+        }
+    }
+
+    /**
+     * Reads data from the storage at the given position and puts it into the given buffer at its current position.
+     * The position of the buffer is advanced by the given length.
+     *
+     * <p>The default implementation copies directly into the buffer if it is backed by an accessible array and
+     * uses a temporary array otherwise. Storages should override it to copy into the buffer directly.</p>
+     *
+     * @param storagePos The position at which the data will be read.
+     * @param dest The buffer to which the data will be written.
+     * @param length The length of the data that will be read.
+     * @throws SegmentationFault If the read data is outside the storage.
+     * @throws BufferOverflowException If the buffer has less than {@code length} bytes remaining.
+     */
+    default void read(int storagePos, ByteBuffer dest, int length) throws SegmentationFault {
+        if (dest.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+
+        if (dest.hasArray()) {
+            read(storagePos, dest.array(), dest.arrayOffset() + dest.position(), length);
+            dest.position(dest.position() + length);
+            return;
+        }
+
+        byte[] buffer = new byte[Math.min(length, TRANSFER_CHUNK_SIZE)];
+        while (length > 0) {
+            int chunk = Math.min(length, buffer.length);
+            read(storagePos, buffer, 0, chunk);
+            dest.put(buffer, 0, chunk);
+            storagePos += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Writes data from the storage at the given position to the given channel.
+     *
+     * <p>The default implementation copies the data through a temporary array. Storages should override it
+     * to hand their data to the channel without copying it first.</p>
+     *
+     * @param storagePos The position at which the data will be read.
+     * @param length The length of the data that will be transferred.
+     * @param target The channel to which the data will be written.
+     * @return The amount of bytes that were transferred.
+     * @throws SegmentationFault If the read data is outside the storage.
+     * @throws IOException If the channel could not be written to.
+     */
+    default long transferTo(int storagePos, int length, WritableByteChannel target) throws IOException {
+        byte[] buffer = new byte[Math.min(length, TRANSFER_CHUNK_SIZE)];
+
+        for (int transferred = 0; transferred < length; ) {
+            int chunk = Math.min(length - transferred, buffer.length);
+            read(storagePos + transferred, buffer, 0, chunk);
+            writeFully(target, ByteBuffer.wrap(buffer, 0, chunk));
+            transferred += chunk;
+        }
+
+        return length;
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffer to the given channel.
+     *
+     * @param target the channel.
+     * @param source the buffer.
+     * @throws IOException If the channel could not be written to.
+     */
+    static void writeFully(WritableByteChannel target, ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            target.write(source);
+        }
+    }
+
     /**
      * Returns the size of the storage.
      *
      * @return The size of the storage.
      */
     int getSize();
+
+    /**
+     * Releases all resources held by this storage. The storage must not be used after it was closed.
+     * Storages that do not hold any resources besides heap memory do nothing.
+     */
+    @Override
+    default void close() {
+    }
 }
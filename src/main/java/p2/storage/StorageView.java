@@ -2,6 +2,10 @@ package p2.storage;
 
 import org.jetbrains.annotations.ApiStatus;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.stream.Collectors;
@@ -37,11 +41,25 @@ public interface StorageView {
     /**
      * Returns a new view that is the concatenation of this view and the given view.
      * This means that the intervals of this view will be followed by the intervals of the given view.
+     * Intervals that are adjacent in the storage are merged.
      *
      * <p><b>Does not modify this view.</b>
      */
     StorageView plus(StorageView other);
 
+    /**
+     * Returns a view of the given part of this view. The returned view reads from the same intervals of the storage,
+     * so no data is copied.
+     *
+     * <p><b>Does not modify this view.</b>
+     *
+     * @param offset the position in this view at which the returned view starts.
+     * @param length the length of the returned view.
+     * @return the view of the given part.
+     * @throws IndexOutOfBoundsException if the part is not within this view.
+     */
+    StorageView slice(int offset, int length);
+
     /**
      * Returns the storage that this view is limited to.
      *
@@ -59,7 +77,45 @@ public interface StorageView {
     byte[] getData();
 
     /**
-     * Concatenates the given views into a single view.
+     * Copies the data that is stored in the underlying storage at the intervals of this view into the given array.
+     * In contrast to {@link #getData()}, no new array is allocated.
+     *
+     * @param dest    The array to which the data will be written.
+     * @param destPos The position in the array at which the data will start.
+     */
+    void readInto(byte[] dest, int destPos);
+
+    /**
+     * Copies the data that is stored in the underlying storage at the intervals of this view into the given buffer,
+     * starting at its current position. The position of the buffer is advanced by the length of this view.
+     *
+     * @param dest The buffer to which the data will be written.
+     */
+    void readInto(ByteBuffer dest);
+
+    /**
+     * Writes the data that is stored in the underlying storage at the intervals of this view to the given channel.
+     * The data is handed to the channel without materializing the whole view.
+     *
+     * @param target The channel to which the data will be written.
+     * @return The amount of bytes that were written.
+     * @throws IOException If the channel could not be written to.
+     */
+    long transferTo(WritableByteChannel target) throws IOException;
+
+    /**
+     * Returns an input stream that reads the data of this view interval by interval.
+     * The data is copied directly from the storage into the arrays passed to the stream,
+     * so the view is never materialized as a whole.
+     *
+     * @return the input stream.
+     */
+    default InputStream openStream() {
+        return new StorageViewInputStream(this);
+    }
+
+    /**
+     * Concatenates the given views into a single view. Intervals that are adjacent in the storage are merged.
      *
      * <p><b>Does not modify any of the given views.</b></p>
      */
@@ -74,9 +130,11 @@ public interface StorageView {
                     .size() != 1) {
                     throw new IllegalArgumentException("Cannot concatenate views from different storages");
                 }
-                final Interval[] intervals = Stream.of(views)
-                    .flatMap(view -> Stream.of(view.getIntervals())).toArray(Interval[]::new);
-                yield new MultiIntervalView(views[0].getStorage(), intervals);
+                final StorageViewBuilder builder = new StorageViewBuilder(views[0].getStorage());
+                for (final StorageView view : views) {
+                    builder.add(view);
+                }
+                yield builder.build();
             }
         };
     }
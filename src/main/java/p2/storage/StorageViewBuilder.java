@@ -0,0 +1,86 @@
+package p2.storage;
+
+import java.util.Arrays;
+
+/**
+ * A builder for {@linkplain StorageView storage views} that collects intervals in a growable array.
+ * Intervals that directly follow the previous interval in the storage are merged with it, so that a view of
+ * contiguous data consists of a single interval and can be read with a single copy.
+ */
+public class StorageViewBuilder {
+
+    /**
+     * The storage of the built view.
+     */
+    private final Storage storage;
+
+    /**
+     * The collected intervals. Only the first {@link #size} elements are used.
+     */
+    private Interval[] intervals = new Interval[8];
+
+    /**
+     * The number of collected intervals.
+     */
+    private int size = 0;
+
+    /**
+     * Creates a new builder for a view of the given storage.
+     *
+     * @param storage the storage of the view.
+     */
+    public StorageViewBuilder(Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Appends the given interval to the view. If it starts where the last interval ends, it is merged with it.
+     *
+     * @param interval the interval to append.
+     * @return this builder.
+     */
+    public StorageViewBuilder add(Interval interval) {
+        if (size > 0) {
+            Interval last = intervals[size - 1];
+
+            if (last.start() + last.length() == interval.start()) {
+                intervals[size - 1] = new Interval(last.start(), last.length() + interval.length());
+                return this;
+            }
+        }
+
+        if (size == intervals.length) {
+            intervals = Arrays.copyOf(intervals, 2 * size);
+        }
+
+        intervals[size++] = interval;
+        return this;
+    }
+
+    /**
+     * Appends the intervals of the given view to the view.
+     *
+     * @param view the view to append. It has to be a view of the same storage.
+     * @return this builder.
+     */
+    public StorageViewBuilder add(StorageView view) {
+        for (Interval interval : view.getIntervals()) {
+            add(interval);
+        }
+
+        return this;
+    }
+
+    /**
+     * Creates a view of the collected intervals.
+     *
+     * @return the view.
+     */
+    public StorageView build() {
+        return switch (size) {
+            case 0 -> new EmptyStorageView(storage);
+            case 1 -> new SingleIntervalView(storage, intervals[0]);
+            default -> new MultiIntervalView(storage, Arrays.copyOf(intervals, size));
+        };
+    }
+}
@@ -0,0 +1,112 @@
+package p2.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * An input stream that reads the data of a {@link StorageView} interval by interval.
+ * Data is copied from the storage directly into the arrays passed to {@link #read(byte[], int, int)}, so the view is
+ * never materialized as a whole.
+ */
+class StorageViewInputStream extends InputStream {
+
+    /**
+     * The storage of the view.
+     */
+    private final Storage storage;
+
+    /**
+     * The intervals of the view.
+     */
+    private final Interval[] intervals;
+
+    /**
+     * The index of the interval that is currently read.
+     */
+    private int index = 0;
+
+    /**
+     * The position in the current interval.
+     */
+    private int position = 0;
+
+    /**
+     * The amount of bytes that were not read yet.
+     */
+    private long remaining;
+
+    /**
+     * A buffer for {@link #read()}.
+     */
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * Creates a new stream that reads the given view.
+     *
+     * @param view the view.
+     */
+    StorageViewInputStream(StorageView view) {
+        storage = view.getStorage();
+        intervals = view.getIntervals();
+        remaining = view.length();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(singleByte, 0, 1) < 0 ? -1 : singleByte[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining == 0) {
+            return -1;
+        }
+
+        int read = 0;
+
+        while (read < len && remaining > 0) {
+            Interval interval = intervals[index];
+            int chunk = Math.min(len - read, interval.length() - position);
+
+            storage.read(interval.start() + position, b, off + read, chunk);
+            advance(chunk);
+            read += chunk;
+        }
+
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+
+        while (skipped < n && remaining > 0) {
+            int chunk = (int) Math.min(n - skipped, intervals[index].length() - position);
+            advance(chunk);
+            skipped += chunk;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    private void advance(int length) {
+        position += length;
+        remaining -= length;
+
+        if (position == intervals[index].length()) {
+            index++;
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package p2.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A storage that combines a small, fast storage with a large, slow one.
+ * The address space is the one of the slow tier, which is divided into fixed-size blocks. Frequently accessed
+ * (hot) blocks are kept in the fast tier, all other (cold) blocks are only stored in the slow tier.
+ * The storage counts the accesses to each block and {@linkplain #migrate() migrates} hot blocks up and cold blocks
+ * down, either on request or periodically in the background.
+ *
+ * <p>Since a block keeps its address when it is migrated, the intervals that reference it, e.g. the keys of a
+ * {@link p2.btrfs.BtrfsFile}, stay valid and do not have to be rewritten.</p>
+ */
+public class TieredStorage implements Storage {
+
+    /**
+     * The logger for failures of the background migration.
+     */
+    private static final System.Logger LOGGER = System.getLogger(TieredStorage.class.getName());
+
+    /**
+     * The default size of a block (4 KiB).
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /**
+     * The maximum value of an access counter.
+     */
+    private static final int MAX_ACCESSES = Integer.MAX_VALUE / 2;
+
+    /**
+     * The small storage that holds the hot blocks.
+     */
+    private final Storage fast;
+
+    /**
+     * The large storage that holds all blocks that are not in the fast tier.
+     */
+    private final Storage slow;
+
+    /**
+     * The size of a block.
+     */
+    private final int blockSize;
+
+    /**
+     * The slot in the fast tier of each block or {@code -1} if the block is only stored in the slow tier.
+     */
+    private final int[] slots;
+
+    /**
+     * The block stored in each slot of the fast tier or {@code -1} if the slot is free.
+     */
+    private final int[] residents;
+
+    /**
+     * Whether the block in each slot was modified since it was copied to the fast tier.
+     */
+    private final boolean[] dirty;
+
+    /**
+     * The number of accesses to each block since the last migration, halved after every migration.
+     */
+    private final int[] accesses;
+
+    /**
+     * A buffer that holds a single block while it is migrated.
+     */
+    private final byte[] blockBuffer;
+
+    /**
+     * The executor that migrates blocks in the background or {@code null} if it was not started.
+     */
+    private ScheduledExecutorService migrator;
+
+    private long fastAccesses = 0;
+    private long slowAccesses = 0;
+
+    /**
+     * Creates a new tiered storage with blocks of {@link #DEFAULT_BLOCK_SIZE} bytes.
+     *
+     * @param fast the small storage that holds the hot blocks.
+     * @param slow the large storage that holds all other blocks. Its size is the size of this storage.
+     */
+    public TieredStorage(Storage fast, Storage slow) {
+        this(fast, slow, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a new tiered storage.
+     *
+     * @param fast      the small storage that holds the hot blocks.
+     * @param slow      the large storage that holds all other blocks. Its size is the size of this storage.
+     * @param blockSize the size of the blocks that are migrated between the tiers.
+     */
+    public TieredStorage(Storage fast, Storage slow, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        if (fast.getSize() < blockSize) {
+            throw new IllegalArgumentException("the fast tier must hold at least one block");
+        }
+
+        this.fast = fast;
+        this.slow = slow;
+        this.blockSize = blockSize;
+
+        int blockCount = (int) (((long) slow.getSize() + blockSize - 1) / blockSize);
+        slots = new int[blockCount];
+        accesses = new int[blockCount];
+        Arrays.fill(slots, -1);
+
+        residents = new int[fast.getSize() / blockSize];
+        dirty = new boolean[residents.length];
+        Arrays.fill(residents, -1);
+
+        blockBuffer = new byte[blockSize];
+    }
+
+    @Override
+    public synchronized void write(int storagePos, byte[] source, int sourcePos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        while (length > 0) {
+            int block = storagePos / blockSize;
+            int blockPos = storagePos % blockSize;
+            int chunk = Math.min(length, blockSize - blockPos);
+            int slot = slots[block];
+
+            if (slot >= 0) {
+                fast.write(slot * blockSize + blockPos, source, sourcePos, chunk);
+                dirty[slot] = true;
+                fastAccesses++;
+            } else {
+                slow.write(storagePos, source, sourcePos, chunk);
+                slowAccesses++;
+            }
+            touch(block);
+
+            storagePos += chunk;
+            sourcePos += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public synchronized void read(int storagePos, byte[] dest, int destPos, int length) throws SegmentationFault {
+        checkAccess(storagePos, length);
+
+        while (length > 0) {
+            int block = storagePos / blockSize;
+            int blockPos = storagePos % blockSize;
+            int chunk = Math.min(length, blockSize - blockPos);
+            int slot = slots[block];
+
+            if (slot >= 0) {
+                fast.read(slot * blockSize + blockPos, dest, destPos, chunk);
+                fastAccesses++;
+            } else {
+                slow.read(storagePos, dest, destPos, chunk);
+                slowAccesses++;
+            }
+            touch(block);
+
+            storagePos += chunk;
+            destPos += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return slow.getSize();
+    }
+
+    /**
+     * Moves the most frequently accessed blocks to the fast tier. A block in the fast tier is only replaced by a
+     * block that was accessed more often. Modified blocks are written back to the slow tier when they are replaced.
+     * Afterwards, all access counters are halved, so that old accesses lose their weight over time.
+     *
+     * @return the number of blocks that were moved to the fast tier.
+     */
+    public synchronized int migrate() {
+        List<Integer> candidates = new ArrayList<>();
+        for (int block = 0; block < slots.length; block++) {
+            if (slots[block] < 0 && accesses[block] > 0) {
+                candidates.add(block);
+            }
+        }
+        candidates.sort(Comparator.comparingInt((Integer block) -> accesses[block]).reversed());
+
+        // the resident blocks, from the coldest to the hottest; free slots come first
+        List<Integer> victims = new ArrayList<>();
+        for (int slot = 0; slot < residents.length; slot++) {
+            victims.add(slot);
+        }
+        victims.sort(Comparator.comparingInt(slot -> residents[slot] < 0 ? -1 : accesses[residents[slot]]));
+
+        int promoted = 0;
+        for (int i = 0; i < candidates.size() && i < victims.size(); i++) {
+            int block = candidates.get(i);
+            int slot = victims.get(i);
+
+            if (residents[slot] >= 0 && accesses[residents[slot]] >= accesses[block]) {
+                break;
+            }
+
+            demote(slot);
+            promote(block, slot);
+            promoted++;
+        }
+
+        for (int block = 0; block < accesses.length; block++) {
+            accesses[block] >>>= 1;
+        }
+
+        return promoted;
+    }
+
+    /**
+     * Starts to {@linkplain #migrate() migrate} blocks periodically in a background thread.
+     * A migration that fails, e.g. because a tier could not be accessed, is logged, and the next one runs as scheduled.
+     *
+     * @param period the time between two migrations.
+     * @param unit   the unit of the period.
+     */
+    public synchronized void startMigration(long period, TimeUnit unit) {
+        if (migrator != null) {
+            throw new IllegalStateException("migration was already started");
+        }
+
+        migrator = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tier-migrator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        migrator.scheduleWithFixedDelay(this::migrateInBackground, period, period, unit);
+    }
+
+    /**
+     * Migrates blocks in the background thread. A failure is logged instead of thrown, because it would cancel the
+     * periodic migration.
+     */
+    private void migrateInBackground() {
+        try {
+            migrate();
+        } catch (RuntimeException e) {
+            LOGGER.log(System.Logger.Level.WARNING, "migration failed", e);
+        }
+    }
+
+    /**
+     * Writes all modified blocks of the fast tier back to the slow tier. They stay in the fast tier.
+     */
+    public synchronized void flush() {
+        for (int slot = 0; slot < residents.length; slot++) {
+            if (dirty[slot]) {
+                writeBack(slot);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of block accesses that were served by the fast tier.
+     *
+     * @return the number of accesses to the fast tier.
+     */
+    public synchronized long getFastAccesses() {
+        return fastAccesses;
+    }
+
+    /**
+     * Returns the number of block accesses that were served by the slow tier.
+     *
+     * @return the number of accesses to the slow tier.
+     */
+    public synchronized long getSlowAccesses() {
+        return slowAccesses;
+    }
+
+    /**
+     * Stops the background migration, writes all modified blocks back to the slow tier and closes both tiers.
+     */
+    @Override
+    public synchronized void close() {
+        if (migrator != null) {
+            migrator.shutdownNow();
+        }
+
+        flush();
+        fast.close();
+        slow.close();
+    }
+
+    private void touch(int block) {
+        if (accesses[block] < MAX_ACCESSES) {
+            accesses[block]++;
+        }
+    }
+
+    private void promote(int block, int slot) {
+        slow.read(block * blockSize, blockBuffer, 0, blockLength(block));
+        fast.write(slot * blockSize, blockBuffer, 0, blockLength(block));
+
+        slots[block] = slot;
+        residents[slot] = block;
+        dirty[slot] = false;
+    }
+
+    private void demote(int slot) {
+        int block = residents[slot];
+
+        if (block < 0) {
+            return;
+        }
+
+        if (dirty[slot]) {
+            writeBack(slot);
+        }
+
+        slots[block] = -1;
+        residents[slot] = -1;
+    }
+
+    private void writeBack(int slot) {
+        int block = residents[slot];
+
+        fast.read(slot * blockSize, blockBuffer, 0, blockLength(block));
+        slow.write(block * blockSize, blockBuffer, 0, blockLength(block));
+        dirty[slot] = false;
+    }
+
+    private int blockLength(int block) {
+        return Math.min(blockSize, slow.getSize() - block * blockSize);
+    }
+
+    private void checkAccess(int start, int length) throws SegmentationFault {
+        if (start < 0) {
+            throw new SegmentationFault(getSize(), start);
+        }
+        if (start + length > getSize()) {
+            throw new SegmentationFault(getSize(), start + length);
+        }
+    }
+}
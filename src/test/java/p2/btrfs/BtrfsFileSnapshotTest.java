@@ -0,0 +1,216 @@
+package p2.btrfs;
+
+import org.junit.jupiter.api.Test;
+import p2.storage.Interval;
+import p2.storage.StorageView;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@linkplain BtrfsFile#snapshot(String) snapshots} of a {@link BtrfsFile}.
+ */
+public class BtrfsFileSnapshotTest {
+
+    private static BtrfsNode node(Interval... keys) {
+        BtrfsNode node = new BtrfsNode(2);
+        System.arraycopy(keys, 0, node.keys, 0, keys.length);
+        node.size = keys.length;
+        return node;
+    }
+
+    private static int length(BtrfsNode node) {
+        int length = 0;
+        for (int i = 0; i < node.size; i++) {
+            length += node.keys[i].length() + node.childLengths[i];
+        }
+        return length + node.childLengths[node.size];
+    }
+
+    /**
+     * Creates a file of degree 2 with the given root, whose children have to be leaves.
+     */
+    private static BtrfsFile file(BtrfsNode root) throws ReflectiveOperationException {
+        BtrfsFile file = new BtrfsFile("file", null, 2);
+
+        for (int i = 0; i <= root.size && root.children[i] != null; i++) {
+            root.childLengths[i] = length(root.children[i]);
+        }
+
+        Field rootField = BtrfsFile.class.getDeclaredField("root");
+        rootField.setAccessible(true);
+        rootField.set(file, root);
+
+        Field sizeField = BtrfsFile.class.getDeclaredField("size");
+        sizeField.setAccessible(true);
+        sizeField.set(file, length(root));
+
+        return file;
+    }
+
+    private static BtrfsNode root(BtrfsFile file) throws ReflectiveOperationException {
+        Field rootField = BtrfsFile.class.getDeclaredField("root");
+        rootField.setAccessible(true);
+        return (BtrfsNode) rootField.get(file);
+    }
+
+    private static List<Interval> intervals(BtrfsFile file) {
+        StorageView view = file.readAll();
+        return List.of(view.getIntervals());
+    }
+
+    @Test
+    public void testShrinkOnlyCopiesMergedNodes() throws ReflectiveOperationException {
+        BtrfsNode root = node(new Interval(10, 2), new Interval(40, 2));
+        root.children[0] = node(new Interval(0, 2), new Interval(2, 2), new Interval(50, 1));
+        root.children[1] = node(new Interval(20, 1), new Interval(30, 1));
+        root.children[2] = node(new Interval(60, 1), new Interval(70, 1));
+
+        BtrfsFile file = file(root);
+        BtrfsFile snapshot = file.snapshot("snapshot");
+        List<Interval> before = intervals(file);
+
+        file.shrink();
+
+        // the merged keys were copied, the far right leaf is still shared
+        assertNotSame(root(snapshot), root(file));
+        assertNotSame(root(snapshot).children[0], root(file).children[0]);
+        assertSame(root(snapshot).children[2], root(file).children[2]);
+
+        // the snapshot is not changed
+        assertEquals(3, root(snapshot).children[0].size);
+        assertEquals(new Interval(0, 2), root(snapshot).children[0].keys[0]);
+        assertEquals(before, intervals(snapshot));
+        assertEquals(before, intervals(file));
+    }
+
+    @Test
+    public void testShrinkWithoutAdjacentKeysCopiesNothing() throws ReflectiveOperationException {
+        BtrfsNode root = node(new Interval(10, 2), new Interval(40, 2));
+        root.children[0] = node(new Interval(0, 2), new Interval(50, 1));
+        root.children[1] = node(new Interval(20, 1), new Interval(30, 1));
+        root.children[2] = node(new Interval(60, 1), new Interval(70, 1));
+
+        BtrfsFile file = file(root);
+        BtrfsFile snapshot = file.snapshot("snapshot");
+
+        file.shrink();
+
+        assertSame(root(snapshot), root(file));
+    }
+
+    /**
+     * Returns the positions in the storage of the bytes of the given file, in the order of the file.
+     */
+    private static List<Integer> positions(BtrfsFile file) {
+        List<Integer> positions = new ArrayList<>();
+
+        for (Interval interval : file.readAll().getIntervals()) {
+            for (int i = 0; i < interval.length(); i++) {
+                positions.add(interval.start() + i);
+            }
+        }
+
+        return positions;
+    }
+
+    /**
+     * Applies a random operation to the given file. Inserted and written intervals are new, so the positions of the
+     * bytes in the storage identify the data of the file.
+     *
+     * @return the next unused position in the storage.
+     */
+    private static int randomOperation(Random random, int next, BtrfsFile file) {
+        int size = file.getSize();
+        int choice = random.nextInt(8);
+
+        if (choice < 4 || size == 0) {
+            int start = random.nextInt(size + 1);
+            List<Interval> intervals = new ArrayList<>();
+            for (int i = random.nextInt(3); i >= 0; i--) {
+                int length = 1 + random.nextInt(3);
+                intervals.add(new Interval(next, length));
+                next += length + 1;
+            }
+
+            file.insert(start, intervals);
+        } else if (choice < 6) {
+            int start = random.nextInt(size);
+            int length = 1 + random.nextInt(Math.min(4, size - start));
+
+            file.remove(start, length);
+        } else if (choice < 7) {
+            int start = random.nextInt(size);
+            int length = 1 + random.nextInt(Math.min(3, size - start));
+
+            file.write(start, new ArrayList<>(List.of(new Interval(next, length))));
+            next += length + 1;
+        } else {
+            file.shrink();
+        }
+
+        return next;
+    }
+
+    @Test
+    public void testRandomOperationsDoNotChangeSnapshots() {
+        for (int seed = 0; seed < 500; seed++) {
+            Random random = new Random(seed);
+
+            // the same operations are applied to a file without snapshots, which the snapshotted file has to match
+            BtrfsFile reference = new BtrfsFile("reference", null, 2);
+            BtrfsFile file = new BtrfsFile("file", null, 2);
+            List<BtrfsFile> snapshots = new ArrayList<>();
+            List<List<Integer>> expected = new ArrayList<>();
+            int next = 0;
+
+            for (int operation = 0; operation < 60; operation++) {
+                if (random.nextInt(5) == 0) {
+                    snapshots.add(file.snapshot("snapshot" + operation));
+                    expected.add(positions(file));
+                }
+
+                long state = random.nextLong();
+                try {
+                    randomOperation(new Random(state), next, reference);
+                } catch (RuntimeException e) {
+                    // the operation fails without snapshots as well, so the rest of the sequence is not checked
+                    break;
+                }
+                next = randomOperation(new Random(state), next, file);
+
+                assertEquals(positions(reference), positions(file), "seed " + seed);
+                for (int i = 0; i < snapshots.size(); i++) {
+                    assertEquals(expected.get(i), positions(snapshots.get(i)), "seed " + seed);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshotsOfSnapshotsAreIndependent() {
+        Random random = new Random(1);
+        BtrfsFile file = new BtrfsFile("file", null, 2);
+
+        for (int i = 0; i < 30; i++) {
+            file.insert(file.getSize(), new ArrayList<>(List.of(new Interval(3 * i, 2))));
+        }
+
+        BtrfsFile snapshot = file.snapshot("snapshot");
+        BtrfsFile nested = snapshot.snapshot("nested");
+        List<Integer> before = positions(file);
+
+        for (int i = 0; i < 20; i++) {
+            snapshot.remove(random.nextInt(snapshot.getSize()), 1);
+            nested.insert(random.nextInt(nested.getSize() + 1), new ArrayList<>(List.of(new Interval(1000 + i, 1))));
+        }
+
+        assertEquals(before, positions(file));
+        assertEquals(before.size() - 20, snapshot.getSize());
+        assertEquals(before.size() + 20, nested.getSize());
+    }
+}
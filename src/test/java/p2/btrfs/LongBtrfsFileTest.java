@@ -0,0 +1,136 @@
+package p2.btrfs;
+
+import org.junit.jupiter.api.Test;
+import p2.storage.LongInterval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link LongBtrfsFile}.
+ */
+public class LongBtrfsFileTest {
+
+    @Test
+    public void testInsertAndRead() {
+        LongBtrfsFile file = new LongBtrfsFile("file", 2);
+
+        file.insert(0, List.of(new LongInterval(100, 4)));
+        file.insert(2, List.of(new LongInterval(200, 3)));
+
+        assertEquals(7, file.getSize());
+        assertEquals(List.of(new LongInterval(100, 2), new LongInterval(200, 3), new LongInterval(102, 2)),
+            file.read(0, 7));
+        assertEquals(List.of(new LongInterval(201, 2), new LongInterval(102, 1)), file.read(3, 3));
+    }
+
+    @Test
+    public void testAdjacentIntervalsAreMerged() {
+        LongBtrfsFile file = new LongBtrfsFile("file", 2);
+
+        for (int i = 0; i < 20; i++) {
+            file.insert(i, List.of(new LongInterval(i, 1)));
+        }
+
+        assertEquals(List.of(new LongInterval(0, 20)), file.read(0, 20));
+    }
+
+    @Test
+    public void testRemove() {
+        LongBtrfsFile file = new LongBtrfsFile("file", 2);
+
+        file.insert(0, List.of(new LongInterval(0, 10), new LongInterval(20, 10)));
+
+        assertEquals(List.of(new LongInterval(5, 5), new LongInterval(20, 2)), file.remove(5, 7));
+        assertEquals(13, file.getSize());
+        assertEquals(List.of(new LongInterval(0, 5), new LongInterval(22, 8)), file.read(0, 13));
+    }
+
+    @Test
+    public void testLargerThanIntRange() {
+        LongBtrfsFile file = new LongBtrfsFile("file", 2);
+        long gib = 1L << 30;
+
+        for (int i = 0; i < 6; i++) {
+            file.insert(file.getSize(), List.of(new LongInterval(2 * i * gib, gib)));
+        }
+
+        assertEquals(6 * gib, file.getSize());
+        assertEquals(List.of(new LongInterval(4 * gib + 10, gib - 10), new LongInterval(6 * gib, 10)),
+            file.read(2 * gib + 10, gib));
+
+        file.remove(gib, 3 * gib);
+
+        assertEquals(3 * gib, file.getSize());
+        assertEquals(List.of(new LongInterval(11 * gib - 1, 1)), file.read(3 * gib - 1, 1));
+    }
+
+    @Test
+    public void testOutOfBounds() {
+        LongBtrfsFile file = new LongBtrfsFile("file", 2);
+
+        file.insert(0, List.of(new LongInterval(0, 10)));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> file.read(5, 6));
+        assertThrows(IndexOutOfBoundsException.class, () -> file.insert(11, List.of(new LongInterval(0, 1))));
+        assertThrows(IndexOutOfBoundsException.class, () -> file.remove(-1, 2));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        for (int degree = 2; degree <= 4; degree++) {
+            Random random = new Random(degree);
+            LongBtrfsFile file = new LongBtrfsFile("file", degree);
+            // the storage position of each byte of the file
+            List<Long> expected = new ArrayList<>();
+            long nextStart = 0;
+
+            for (int operation = 0; operation < 2000; operation++) {
+                if (expected.isEmpty() || random.nextInt(3) > 0) {
+                    int start = random.nextInt(expected.size() + 1);
+                    List<LongInterval> intervals = new ArrayList<>();
+                    List<Long> positions = new ArrayList<>();
+
+                    for (int i = random.nextInt(3); i >= 0; i--) {
+                        int length = 1 + random.nextInt(5);
+
+                        // leave gaps, so that intervals are only merged where the test expects it
+                        intervals.add(new LongInterval(nextStart, length));
+                        for (int j = 0; j < length; j++) {
+                            positions.add(nextStart + j);
+                        }
+                        nextStart += length + 1;
+                    }
+
+                    file.insert(start, intervals);
+                    expected.addAll(start, positions);
+                } else {
+                    int start = random.nextInt(expected.size());
+                    int length = 1 + random.nextInt(Math.min(10, expected.size() - start));
+                    List<Long> removed = new ArrayList<>(expected.subList(start, start + length));
+
+                    assertEquals(removed, positions(file.remove(start, length)));
+                    expected.subList(start, start + length).clear();
+                }
+
+                assertEquals(expected.size(), file.getSize());
+                assertEquals(expected, positions(file.read(0, file.getSize())));
+            }
+        }
+    }
+
+    private static List<Long> positions(List<LongInterval> intervals) {
+        List<Long> positions = new ArrayList<>();
+
+        for (LongInterval interval : intervals) {
+            for (long i = 0; i < interval.length(); i++) {
+                positions.add(interval.start() + i);
+            }
+        }
+
+        return positions;
+    }
+}
@@ -0,0 +1,199 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the invariants of the {@linkplain AllocationStrategy allocation strategies}.
+ */
+public class AllocationStrategyTest {
+
+    /**
+     * Allocates and frees random intervals and checks that allocated intervals never overlap, that they respect the
+     * maximum interval size and that freeing bytes that are not allocated is rejected without changing the state.
+     * Strategies that reserve space may fail to allocate bytes that are free, but once everything was freed, the whole
+     * storage has to be available again.
+     */
+    private static void checkInvariants(AllocationStrategy.Factory factory, int size, long seed, boolean reserves) {
+        Random random = new Random(seed);
+        AllocationStrategy allocator = factory.create(size);
+        boolean[] used = new boolean[size];
+        List<Interval> allocated = new ArrayList<>();
+        int free = size;
+
+        for (int step = 0; step < 2000; step++) {
+            int maxIntervalSize = random.nextBoolean() ? Integer.MAX_VALUE : 1 + random.nextInt(64);
+            allocator.setMaxIntervalSize(maxIntervalSize);
+
+            if (random.nextInt(3) > 0 && free > 0) {
+                int length = 1 + random.nextInt(Math.min(free, 256));
+                int total = 0;
+                List<Interval> intervals;
+
+                try {
+                    intervals = allocator.allocate(length);
+                } catch (NoDiskSpaceException e) {
+                    assertTrue(reserves, "free bytes could not be allocated");
+                    continue;
+                }
+
+                for (Interval interval : intervals) {
+                    assertTrue(interval.length() <= maxIntervalSize, "interval " + interval + " is too large");
+                    for (int i = interval.start(); i < interval.start() + interval.length(); i++) {
+                        assertFalse(used[i], "byte " + i + " is allocated twice");
+                        used[i] = true;
+                    }
+                    allocated.add(interval);
+                    total += interval.length();
+                }
+
+                assertEquals(length, total);
+                free -= length;
+            } else if (!allocated.isEmpty()) {
+                // free a random part of a random interval
+                Interval interval = allocated.remove(random.nextInt(allocated.size()));
+                int offset = random.nextInt(interval.length());
+                int length = 1 + random.nextInt(interval.length() - offset);
+                Interval part = new Interval(interval.start() + offset, length);
+
+                allocator.free(part);
+                for (int i = part.start(); i < part.start() + part.length(); i++) {
+                    used[i] = false;
+                }
+                free += length;
+
+                if (offset > 0) {
+                    allocated.add(new Interval(interval.start(), offset));
+                }
+                if (offset + length < interval.length()) {
+                    allocated.add(new Interval(part.start() + length, interval.length() - offset - length));
+                }
+
+                // the part is free now, so freeing it again must fail
+                assertThrows(IllegalArgumentException.class, () -> allocator.free(part));
+            }
+        }
+
+        // after everything was freed, the whole storage can be allocated, and nothing more
+        allocator.free(allocated);
+        allocator.setMaxIntervalSize(Integer.MAX_VALUE);
+        assertEquals(size, allocator.allocate(size).stream().mapToInt(Interval::length).sum());
+        assertThrows(NoDiskSpaceException.class, () -> allocator.allocate(1));
+    }
+
+    @Test
+    public void testBitmapInvariants() {
+        for (long seed = 0; seed < 5; seed++) {
+            checkInvariants(AllocationStrategy.BITMAP, 1000 + (int) seed, seed, false);
+        }
+    }
+
+    @Test
+    public void testLazyNextFitInvariants() {
+        for (long seed = 0; seed < 5; seed++) {
+            checkInvariants(AllocationStrategy.LAZY_NEXT_FIT, 1000 + (int) seed, seed, false);
+        }
+    }
+
+    @Test
+    public void testBuddyInvariants() {
+        for (long seed = 0; seed < 5; seed++) {
+            checkInvariants(AllocationStrategy.BUDDY, 1000 + (int) seed, seed, false);
+        }
+    }
+
+    @Test
+    public void testBuddyRejectsDoubleFree() {
+        AllocationStrategy allocator = AllocationStrategy.BUDDY.create(16);
+        assertEquals(List.of(new Interval(0, 8)), allocator.allocate(8));
+
+        allocator.free(new Interval(0, 4));
+
+        // the freed half is rejected, even though the rest of the block is still allocated
+        assertThrows(IllegalArgumentException.class, () -> allocator.free(new Interval(0, 4)));
+        assertThrows(IllegalArgumentException.class, () -> allocator.free(new Interval(2, 4)));
+
+        // the freed half can be allocated again, the other half is still in use
+        assertEquals(12, allocator.allocate(12).stream().mapToInt(Interval::length).sum());
+        assertThrows(NoDiskSpaceException.class, () -> allocator.allocate(1));
+    }
+
+    @Test
+    public void testSlabInvariants() {
+        for (long seed = 0; seed < 5; seed++) {
+            checkInvariants(AllocationStrategy.SLAB, 20_000 + (int) seed, seed, true);
+        }
+    }
+
+    @Test
+    public void testSlabRejectsDoubleFree() {
+        AllocationStrategy allocator = AllocationStrategy.SLAB.create(8192);
+        Interval interval = allocator.allocate(10).get(0);
+
+        allocator.free(new Interval(interval.start(), 4));
+
+        // the freed part and the unused end of the slot are rejected, although the slot still has live bytes
+        assertThrows(IllegalArgumentException.class, () -> allocator.free(new Interval(interval.start(), 4)));
+        assertThrows(IllegalArgumentException.class, () -> allocator.free(new Interval(interval.start() + 4, 8)));
+
+        allocator.free(new Interval(interval.start() + 4, 6));
+        assertThrows(IllegalArgumentException.class, () -> allocator.free(interval));
+    }
+
+    @Test
+    public void testSlabIgnoresMaxIntervalSize() {
+        SlabAllocator allocator = new SlabAllocator(8192);
+        allocator.setMaxIntervalSize(2);
+
+        assertEquals(1, allocator.allocate(2).size());
+        assertEquals(1, allocator.getSlabs());
+
+        // the slab was carved from a single interval, so the rest of the storage is one interval as well
+        allocator.setMaxIntervalSize(Integer.MAX_VALUE);
+        assertEquals(1, allocator.allocate(8192 - SlabAllocator.SLAB_SIZE).size());
+    }
+
+    @Test
+    public void testLazyNextFitAcrossPages() {
+        AllocationStrategy allocator = AllocationStrategy.LAZY_NEXT_FIT.create(200_000);
+
+        // allocate from the end of the first page into the second page
+        allocator.allocate((1 << 16) - 10);
+        List<Interval> intervals = allocator.allocate(20);
+        assertEquals(List.of(new Interval((1 << 16) - 10, 20)), intervals);
+
+        allocator.free(new Interval((1 << 16) - 5, 10));
+        assertThrows(IllegalArgumentException.class, () -> allocator.free(new Interval((1 << 16) - 6, 2)));
+        assertEquals(List.of(new Interval((1 << 16) + 10, 100)), allocator.allocate(100));
+    }
+
+    @Test
+    public void testCreateWithUsedIntervals() {
+        List<Interval> used = List.of(new Interval(0, 10), new Interval(100, 300), new Interval(990, 10));
+
+        for (AllocationStrategy.Factory factory : List.of(AllocationStrategy.LAZY_NEXT_FIT, AllocationStrategy.BITMAP,
+            AllocationStrategy.BEST_FIT, AllocationStrategy.BUDDY, AllocationStrategy.SLAB)) {
+
+            AllocationStrategy allocator = factory.create(1000, used);
+            assertThrows(IllegalArgumentException.class, () -> allocator.free(new Interval(5, 10)));
+
+            // only the bytes between the used intervals are free
+            for (Interval interval : allocator.allocate(680)) {
+                for (Interval usedInterval : used) {
+                    assertTrue(interval.start() + interval.length() <= usedInterval.start()
+                        || usedInterval.start() + usedInterval.length() <= interval.start(), interval + " is used");
+                }
+            }
+            assertThrows(NoDiskSpaceException.class, () -> allocator.allocate(1));
+
+            // the used intervals are allocated, so they can be freed
+            allocator.free(new Interval(100, 300));
+            assertEquals(300, allocator.allocate(300).stream().mapToInt(Interval::length).sum());
+        }
+    }
+}
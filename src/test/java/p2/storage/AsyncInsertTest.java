@@ -0,0 +1,109 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link FileSystem#insertIntoFileAsync(String, int, Object, DataEncoder)}.
+ */
+public class AsyncInsertTest {
+
+    /**
+     * An asynchronous storage in memory whose writes and reads can be made to fail.
+     */
+    private static class TestStorage extends ArrayStorage implements AsyncStorage {
+
+        boolean failWrites = false;
+
+        boolean failReads = false;
+
+        TestStorage(int size) {
+            super(size);
+        }
+
+        @Override
+        public CompletableFuture<Void> writeAsync(int storagePos, byte[] source, int sourcePos, int length) {
+            if (failWrites) {
+                return CompletableFuture.failedFuture(new UncheckedIOException(new IOException("write failed")));
+            }
+
+            write(storagePos, source, sourcePos, length);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> readAsync(int storagePos, byte[] dest, int destPos, int length) {
+            if (failReads) {
+                throw new UncheckedIOException(new IOException("read failed"));
+            }
+
+            read(storagePos, dest, destPos, length);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    @Test
+    public void testInsert() throws Exception {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new TestStorage(16));
+
+        fileSystem.createFile("file", "Helo", StringEncoder.INSTANCE);
+        fileSystem.insertIntoFileAsync("file", 3, "l", StringEncoder.INSTANCE).get();
+
+        assertEquals("Hello", fileSystem.readFile("file", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testFailedWriteFreesIntervals() throws Exception {
+        TestStorage storage = new TestStorage(8);
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, storage);
+
+        fileSystem.createFile("file", "ab", StringEncoder.INSTANCE);
+
+        storage.failWrites = true;
+        CompletableFuture<Void> future = fileSystem.insertIntoFileAsync("file", 2, "cdefgh", StringEncoder.INSTANCE);
+        ExecutionException exception = assertThrows(ExecutionException.class, future::get);
+        assertTrue(exception.getCause() instanceof UncheckedIOException);
+
+        // the whole rest of the storage is free again
+        storage.failWrites = false;
+        fileSystem.insertIntoFileAsync("file", 2, "cdefgh", StringEncoder.INSTANCE).get();
+        assertEquals("abcdefgh", fileSystem.readFile("file", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testInvalidPositionFreesIntervals() throws Exception {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new TestStorage(8));
+
+        fileSystem.createFile("file", "ab", StringEncoder.INSTANCE);
+
+        CompletableFuture<Void> future = fileSystem.insertIntoFileAsync("file", 5, "cdefgh", StringEncoder.INSTANCE);
+        ExecutionException exception = assertThrows(ExecutionException.class, future::get);
+        assertTrue(exception.getCause() instanceof IndexOutOfBoundsException);
+
+        fileSystem.insertIntoFileAsync("file", 2, "cdefgh", StringEncoder.INSTANCE).get();
+        assertEquals("abcdefgh", fileSystem.readFile("file", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testFailedReadDoesNotDeferFrees() throws Exception {
+        TestStorage storage = new TestStorage(8);
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, storage);
+
+        fileSystem.createFile("file", "abcd", StringEncoder.INSTANCE);
+
+        storage.failReads = true;
+        assertThrows(UncheckedIOException.class, () -> fileSystem.readFileAsync("file", StringEncoder.INSTANCE));
+        storage.failReads = false;
+
+        // the removed intervals are freed immediately, because no read is pending
+        fileSystem.removeFromFile("file", 0, 4);
+        fileSystem.createFile("other", "efghijkl", StringEncoder.INSTANCE);
+        assertEquals("efghijkl", fileSystem.readFileAsync("other", StringEncoder.INSTANCE).get());
+    }
+}
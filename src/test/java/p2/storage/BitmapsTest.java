@@ -0,0 +1,58 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link Bitmaps}.
+ */
+public class BitmapsTest {
+
+    private static final int BITS = 300;
+
+    @Test
+    public void testAgainstBitSet() {
+        Random random = new Random(0);
+        long[] words = new long[Bitmaps.words(BITS)];
+        BitSet expected = new BitSet(BITS);
+
+        for (int step = 0; step < 5000; step++) {
+            int from = random.nextInt(BITS + 1);
+            int to = from + random.nextInt(BITS + 1 - from);
+
+            switch (random.nextInt(4)) {
+                case 0 -> {
+                    Bitmaps.set(words, from, to);
+                    expected.set(from, to);
+                }
+                case 1 -> {
+                    Bitmaps.clear(words, from, to);
+                    expected.clear(from, to);
+                }
+                case 2 -> {
+                    int next = expected.nextSetBit(from);
+                    assertEquals(next < 0 || next >= to ? to : next, Bitmaps.nextSet(words, from, to));
+                }
+                default -> assertEquals(Math.min(to, expected.nextClearBit(from)), Bitmaps.nextClear(words, from, to));
+            }
+        }
+    }
+
+    @Test
+    public void testWholeWords() {
+        long[] words = new long[Bitmaps.words(192)];
+
+        Bitmaps.set(words, 0, 192);
+        assertArrayEquals(new long[] {-1L, -1L, -1L}, words);
+        assertEquals(192, Bitmaps.nextClear(words, 0, 192));
+
+        Bitmaps.clear(words, 64, 128);
+        assertArrayEquals(new long[] {-1L, 0, -1L}, words);
+        assertEquals(64, Bitmaps.nextClear(words, 0, 192));
+        assertEquals(128, Bitmaps.nextSet(words, 64, 192));
+    }
+}
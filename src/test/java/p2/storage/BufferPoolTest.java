@@ -0,0 +1,143 @@
+package p2.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link BufferPool}.
+ */
+public class BufferPoolTest {
+
+    private static final int PAGE_SIZE = 4;
+
+    @TempDir
+    Path directory;
+
+    private FileChannel channel;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        channel = FileChannel.open(directory.resolve("pages"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        channel.close();
+    }
+
+    private static void touch(BufferPool pool, long pageId) {
+        pool.unpin(pool.pin(pageId), false);
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        BufferPool pool = new BufferPool(channel, PAGE_SIZE, 2 * PAGE_SIZE);
+
+        touch(pool, 0);
+        touch(pool, 0);
+        touch(pool, 1);
+
+        assertEquals(2, pool.getCapacity());
+        assertEquals(1, pool.getHits());
+        assertEquals(2, pool.getMisses());
+    }
+
+    @Test
+    public void testClockEviction() {
+        BufferPool pool = new BufferPool(channel, PAGE_SIZE, 2 * PAGE_SIZE);
+
+        touch(pool, 0);
+        touch(pool, 1);
+
+        // both reference bits are cleared, then the first frame is replaced
+        touch(pool, 2);
+        touch(pool, 2);
+        assertEquals(1, pool.getHits());
+
+        // page 1 lost its reference bit, so it is replaced next, and page 2 stays cached
+        touch(pool, 0);
+        touch(pool, 2);
+        assertEquals(2, pool.getHits());
+        assertEquals(4, pool.getMisses());
+    }
+
+    @Test
+    public void testPinnedPageIsNotEvicted() {
+        BufferPool pool = new BufferPool(channel, PAGE_SIZE, 2 * PAGE_SIZE);
+
+        int frame = pool.pin(0);
+        assertEquals(frame, pool.pin(0));
+
+        touch(pool, 1);
+        touch(pool, 2);
+        touch(pool, 3);
+
+        // page 0 is still pinned twice, so it was never replaced
+        assertEquals(frame, pool.pin(0));
+        pool.unpin(frame, false);
+        pool.unpin(frame, false);
+        pool.unpin(frame, false);
+        assertThrows(IllegalStateException.class, () -> pool.unpin(frame, false));
+    }
+
+    @Test
+    public void testEveryPagePinned() {
+        BufferPool pool = new BufferPool(channel, PAGE_SIZE, PAGE_SIZE);
+
+        pool.pin(0);
+        assertThrows(IllegalStateException.class, () -> pool.pin(1));
+    }
+
+    @Test
+    public void testDirtyPageIsWrittenBack() throws IOException {
+        BufferPool pool = new BufferPool(channel, PAGE_SIZE, PAGE_SIZE);
+
+        int frame = pool.pin(1);
+        pool.getFrame(frame)[2] = 42;
+        pool.unpin(frame, true);
+
+        // clean pages are not written
+        touch(pool, 3);
+        touch(pool, 4);
+
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        channel.read(buffer, PAGE_SIZE);
+        assertEquals(42, buffer.get(2));
+        assertEquals(2 * PAGE_SIZE, channel.size());
+
+        frame = pool.pin(1);
+        assertEquals(42, pool.getFrame(frame)[2]);
+        pool.unpin(frame, false);
+    }
+
+    @Test
+    public void testFlush() throws IOException {
+        BufferPool pool = new BufferPool(channel, PAGE_SIZE, 2 * PAGE_SIZE);
+
+        int frame = pool.pin(0);
+        pool.getFrame(frame)[0] = 7;
+        pool.unpin(frame, true);
+        pool.flush();
+
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        channel.read(buffer, 0);
+        assertEquals(7, buffer.get(0));
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(channel, 0, 16));
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(channel, PAGE_SIZE, PAGE_SIZE - 1));
+    }
+}
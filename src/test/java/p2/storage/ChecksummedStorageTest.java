@@ -0,0 +1,92 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link ChecksummedStorage}.
+ */
+public class ChecksummedStorageTest {
+
+    private final ArrayStorage delegate = new ArrayStorage(64);
+
+    private final ChecksummedStorage storage = new ChecksummedStorage(delegate, 16,
+        ChecksummedStorage.VerificationPolicy.ALWAYS, 1);
+
+    private static byte[] bytes(int length, int value) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (value + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void testReadWrittenData() {
+        storage.write(4, bytes(40, 1), 0, 40);
+
+        byte[] data = new byte[40];
+        storage.read(4, data, 0, 40);
+
+        assertArrayEquals(bytes(40, 1), data);
+    }
+
+    @Test
+    public void testCorruptionIsDetected() {
+        storage.write(0, bytes(32, 1), 0, 32);
+        delegate.write(20, new byte[] {0}, 0, 1);
+
+        assertDoesNotThrow(() -> storage.read(0, new byte[16], 0, 16));
+        assertThrows(ChecksumMismatchException.class, () -> storage.read(24, new byte[2], 0, 2));
+        assertEquals(List.of(16), storage.getCorruptBlocks());
+    }
+
+    @Test
+    public void testPartialWriteIntoCorruptBlockFails() {
+        storage.write(0, bytes(16, 1), 0, 16);
+        delegate.write(3, new byte[] {0}, 0, 1);
+
+        assertThrows(ChecksumMismatchException.class, () -> storage.write(10, bytes(2, 100), 0, 2));
+
+        // the corrupted block did not get a valid checksum and was not modified
+        assertThrows(ChecksumMismatchException.class, () -> storage.read(0, new byte[16], 0, 16));
+        byte[] data = new byte[2];
+        delegate.read(10, data, 0, 2);
+        assertArrayEquals(new byte[] {11, 12}, data);
+    }
+
+    @Test
+    public void testPartialWriteKeepsChecksumValid() {
+        storage.write(0, bytes(32, 1), 0, 32);
+        storage.write(14, bytes(4, 100), 0, 4);
+
+        byte[] data = new byte[32];
+        storage.read(0, data, 0, 32);
+
+        byte[] expected = bytes(32, 1);
+        System.arraycopy(bytes(4, 100), 0, expected, 14, 4);
+        assertArrayEquals(expected, data);
+    }
+
+    @Test
+    public void testFullBlockWriteRepairsBlock() {
+        storage.write(0, bytes(16, 1), 0, 16);
+        delegate.write(3, new byte[] {0}, 0, 1);
+
+        storage.write(0, bytes(16, 50), 0, 16);
+
+        assertDoesNotThrow(() -> storage.read(0, new byte[16], 0, 16));
+    }
+
+    @Test
+    public void testScrub() {
+        storage.write(0, bytes(64, 1), 0, 64);
+        delegate.write(40, new byte[] {0}, 0, 1);
+        delegate.write(63, new byte[] {0}, 0, 1);
+
+        assertEquals(List.of(32, 48), storage.scrub());
+    }
+}
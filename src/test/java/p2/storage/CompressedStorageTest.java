@@ -0,0 +1,115 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link CompressedStorage}.
+ */
+public class CompressedStorageTest {
+
+    @Test
+    public void testWriteAcrossBlocks() {
+        CompressedStorage storage = new CompressedStorage(100, 16, 4);
+        byte[] data = new byte[40];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i + 1);
+        }
+
+        storage.write(10, data, 0, 40);
+
+        byte[] read = new byte[44];
+        storage.read(8, read, 0, 44);
+        for (int i = 0; i < read.length; i++) {
+            assertEquals(i < 2 || i >= 42 ? 0 : i - 1, read[i]);
+        }
+    }
+
+    @Test
+    public void testLastBlockIsShorter() {
+        CompressedStorage storage = new CompressedStorage(20, 16, 1);
+
+        storage.write(14, new byte[] {1, 2, 3, 4, 5, 6}, 0, 6);
+        storage.write(0, new byte[1], 0, 1);
+
+        byte[] read = new byte[6];
+        storage.read(14, read, 0, 6);
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6}, read);
+        assertThrows(SegmentationFault.class, () -> storage.write(15, new byte[6], 0, 6));
+    }
+
+    @Test
+    public void testEvictedDirtyBlocksAreKept() {
+        CompressedStorage storage = new CompressedStorage(256, 16, 2);
+        Random random = new Random(5);
+        byte[] expected = new byte[256];
+
+        // every write touches blocks that were evicted before, so dirty blocks are evicted all the time
+        for (int round = 0; round < 200; round++) {
+            int start = random.nextInt(256);
+            int length = random.nextInt(Math.min(40, 256 - start) + 1);
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            storage.write(start, data, 0, length);
+            System.arraycopy(data, 0, expected, start, length);
+        }
+
+        byte[] read = new byte[256];
+        storage.read(0, read, 0, 256);
+        assertArrayEquals(expected, read);
+    }
+
+    @Test
+    public void testEvictionCompressesBlock() {
+        CompressedStorage storage = new CompressedStorage(64, 16, 1);
+
+        storage.write(0, new byte[16], 0, 16);
+        assertEquals(0, storage.getStatistics().storedBytes());
+
+        // the first block is evicted and compressed when the second one is decompressed
+        storage.write(16, new byte[] {1}, 0, 1);
+        CompressedStorage.Statistics statistics = storage.getStatistics();
+        assertEquals(16, statistics.storedBytes());
+        assertTrue(statistics.compressedBytes() < 16);
+
+        // a clean block is evicted without compressing it again
+        byte[] read = new byte[1];
+        storage.read(0, read, 0, 1);
+        storage.read(32, read, 0, 1);
+        assertEquals(32, storage.getStatistics().storedBytes());
+        assertEquals(32, storage.getStatistics().compressedInput());
+
+        storage.read(48, read, 0, 1);
+        assertEquals(32, storage.getStatistics().compressedInput());
+    }
+
+    @Test
+    public void testIncompressibleBlock() {
+        CompressedStorage storage = new CompressedStorage(32, 16, 1);
+        byte[] data = new byte[16];
+        new Random(6).nextBytes(data);
+
+        storage.write(0, data, 0, 16);
+        storage.flush();
+        assertEquals(16, storage.getStatistics().compressedBytes());
+
+        storage.read(16, new byte[1], 0, 1);
+        byte[] read = new byte[16];
+        storage.read(0, read, 0, 16);
+        assertArrayEquals(data, read);
+    }
+
+    @Test
+    public void testFileSystem() {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new CompressedStorage(256, 16, 2));
+
+        fileSystem.createFile("file", "Helo World", StringEncoder.INSTANCE);
+        fileSystem.insertIntoFile("file", 3, "l", StringEncoder.INSTANCE);
+
+        assertEquals("Hello World", fileSystem.readFile("file", StringEncoder.INSTANCE));
+    }
+}
@@ -0,0 +1,78 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@linkplain FileSystem#enableDeduplication(int) deduplication} of a {@link FileSystem}.
+ */
+public class DeduplicationTest {
+
+    @TempDir
+    Path directory;
+
+    private static int sharedBytes(FileSystem fileSystem) {
+        int shared = 0;
+        for (int i = 0; i < fileSystem.getSize(); i++) {
+            if (fileSystem.getReferences(i) > 1) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+
+    @Test
+    public void testIdenticalChunksAreShared() {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(64));
+        fileSystem.enableDeduplication(4);
+
+        fileSystem.createFile("a", "abcdefgh", StringEncoder.INSTANCE);
+        fileSystem.createFile("b", "abcdefgh", StringEncoder.INSTANCE);
+
+        assertEquals(8, fileSystem.getDeduplicatedBytes());
+        assertEquals(8, sharedBytes(fileSystem));
+    }
+
+    @Test
+    public void testSharedChunksAreFreedWithLastReference() {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(16));
+        fileSystem.enableDeduplication(4);
+
+        fileSystem.createFile("a", "abcdefgh", StringEncoder.INSTANCE);
+        fileSystem.createFile("b", "abcdefgh", StringEncoder.INSTANCE);
+        fileSystem.removeFromFile("a", 0, 8);
+
+        assertEquals("abcdefgh", fileSystem.readFile("b", StringEncoder.INSTANCE));
+        assertEquals(0, sharedBytes(fileSystem));
+
+        // only the 8 bytes of b are in use, so 8 new bytes fit
+        fileSystem.createFile("c", "01234567", StringEncoder.INSTANCE);
+        assertThrows(NoDiskSpaceException.class, () -> fileSystem.createFile("d", "x", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testReferencesAreRestoredByReplay() throws IOException {
+        Path path = directory.resolve("journal");
+
+        try (FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(12),
+            new Journal(path))) {
+            fileSystem.enableDeduplication(4);
+            fileSystem.createFile("a", "abcdefgh", StringEncoder.INSTANCE);
+            fileSystem.createFile("b", "abcdefgh", StringEncoder.INSTANCE);
+        }
+
+        // both files would not fit into the storage if they were replayed without deduplication
+        for (int restart = 0; restart < 2; restart++) {
+            try (FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(12),
+                new Journal(path))) {
+                assertEquals(8, sharedBytes(fileSystem));
+                assertEquals("abcdefgh", fileSystem.readFile("b", StringEncoder.INSTANCE));
+            }
+        }
+    }
+}
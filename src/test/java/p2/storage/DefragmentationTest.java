@@ -0,0 +1,127 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+import p2.btrfs.BtrfsFile;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@linkplain FileSystem#defragment(String) defragmentation} of a {@link FileSystem}.
+ */
+public class DefragmentationTest {
+
+    /**
+     * A storage in memory whose next write fails.
+     */
+    private static class TestStorage extends ArrayStorage {
+
+        volatile boolean failWrite = false;
+
+        TestStorage(int size) {
+            super(size);
+        }
+
+        @Override
+        public void write(int storagePos, byte[] source, int sourcePos, int length) {
+            if (failWrite) {
+                failWrite = false;
+                throw new IllegalStateException("write failed");
+            }
+
+            super.write(storagePos, source, sourcePos, length);
+        }
+    }
+
+    /**
+     * Creates a file "file" with the content "abef" that is stored in two intervals with a gap between them.
+     * In a storage of 12 bytes, the only contiguous free space for the whole file is behind it.
+     */
+    private static BtrfsFile fragmented(FileSystem fileSystem) {
+        BtrfsFile file = fileSystem.createFile("file", "ab", StringEncoder.INSTANCE);
+        fileSystem.createFile("gap", "cd", StringEncoder.INSTANCE);
+        fileSystem.insertIntoFile("file", 2, "ef", StringEncoder.INSTANCE);
+        fileSystem.removeFromFile("gap", 0, 2);
+
+        return file;
+    }
+
+    private static int intervals(FileSystem fileSystem, BtrfsFile file) {
+        synchronized (fileSystem) {
+            return file.readAll().getIntervals().length;
+        }
+    }
+
+    @Test
+    public void testRunIsMoved() {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(12));
+        BtrfsFile file = fragmented(fileSystem);
+
+        assertEquals(2, intervals(fileSystem, file));
+        assertEquals(4, fileSystem.defragment("file"));
+
+        assertEquals("abef", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        assertEquals(1, intervals(fileSystem, file));
+
+        // the old intervals were freed
+        fileSystem.createFile("other", "01234567", StringEncoder.INSTANCE);
+        assertThrows(NoDiskSpaceException.class, () -> fileSystem.createFile("full", "x", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testSharedIntervalsAreNotMoved() {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(12));
+        fragmented(fileSystem);
+        fileSystem.snapshot("file", "snapshot");
+
+        assertEquals(0, fileSystem.defragment("file"));
+
+        // the data is not stored twice
+        fileSystem.createFile("other", "012345", StringEncoder.INSTANCE);
+        assertEquals("abef", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        assertEquals("abef", fileSystem.readFile("snapshot", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testOpenStreamPinsIntervals() throws Exception {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(8));
+
+        fileSystem.createFile("file", "abcd", StringEncoder.INSTANCE);
+        fileSystem.createFile("other", "efgh", StringEncoder.INSTANCE);
+
+        try (InputStream stream = fileSystem.openStream("file")) {
+            fileSystem.removeFromFile("other", 0, 4);
+
+            // the removed intervals are not reused while the stream is open
+            assertThrows(NoDiskSpaceException.class, () -> fileSystem.createFile("new", "ijkl", StringEncoder.INSTANCE));
+            assertEquals("abcd", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        fileSystem.createFile("new", "ijkl", StringEncoder.INSTANCE);
+        assertEquals("abcd", fileSystem.readFile("file", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testFailureDoesNotStopDefragmentation() throws InterruptedException {
+        TestStorage storage = new TestStorage(12);
+
+        try (FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, storage)) {
+            BtrfsFile file = fragmented(fileSystem);
+
+            storage.failWrite = true;
+            fileSystem.startDefragmentation(10, TimeUnit.MILLISECONDS);
+
+            // the first defragmentation fails, a later one moves the file
+            for (int i = 0; i < 500 && intervals(fileSystem, file) > 1; i++) {
+                Thread.sleep(10);
+            }
+
+            assertFalse(storage.failWrite);
+            assertEquals(1, intervals(fileSystem, file));
+            assertEquals("abef", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import p2.btrfs.BtrfsFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@linkplain FileSystem#enableDelayedAllocation(int) delayed allocation} of a {@link FileSystem}.
+ */
+public class DelayedAllocationTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * A storage in memory whose writes can be made to fail.
+     */
+    private static class TestStorage extends ArrayStorage {
+
+        boolean failWrites = false;
+
+        TestStorage(int size) {
+            super(size);
+        }
+
+        @Override
+        public void write(int storagePos, byte[] source, int sourcePos, int length) {
+            if (failWrites) {
+                throw new IllegalStateException("write failed");
+            }
+
+            super.write(storagePos, source, sourcePos, length);
+        }
+
+        @Override
+        public void writev(Interval[] intervals, byte[] source, int sourcePos) {
+            if (failWrites) {
+                throw new IllegalStateException("write failed");
+            }
+
+            super.writev(intervals, source, sourcePos);
+        }
+    }
+
+    @Test
+    public void testInsertWithoutSpaceFails() {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(8));
+        fileSystem.enableDelayedAllocation(16);
+
+        fileSystem.createFile("file", "ab", StringEncoder.INSTANCE);
+        fileSystem.createFile("other", "012345", StringEncoder.INSTANCE);
+
+        // the space of buffered data is reserved, so an insertion that does not fit fails right away
+        assertThrows(NoDiskSpaceException.class,
+            () -> fileSystem.insertIntoFile("file", 2, "cd", StringEncoder.INSTANCE));
+        assertEquals("ab", fileSystem.readFile("file", StringEncoder.INSTANCE));
+
+        fileSystem.removeFromFile("other", 0, 4);
+        fileSystem.insertIntoFile("file", 2, "cd", StringEncoder.INSTANCE);
+        assertEquals("abcd", fileSystem.readFile("file", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testInsertThatDoesNotFitIsAborted() throws IOException {
+        Path path = directory.resolve("journal");
+        String data = "x".repeat(60);
+
+        try (FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(100),
+            new Journal(path))) {
+
+            fileSystem.enableDelayedAllocation(30);
+            fileSystem.createFile("file", data, StringEncoder.INSTANCE);
+            fileSystem.insertIntoFile("file", 60, "y".repeat(20), StringEncoder.INSTANCE);
+
+            assertThrows(NoDiskSpaceException.class,
+                () -> fileSystem.insertIntoFile("file", 80, "z".repeat(30), StringEncoder.INSTANCE));
+
+            // the buffered insertion is still stored, the failed one is not
+            fileSystem.removeFromFile("file", 0, 60);
+            assertEquals("y".repeat(20), fileSystem.readFile("file", StringEncoder.INSTANCE));
+        }
+
+        try (FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(100),
+            new Journal(path))) {
+            assertEquals("y".repeat(20), fileSystem.readFile("file", StringEncoder.INSTANCE));
+        }
+    }
+
+    @Test
+    public void testFragmentedBufferIsStoredInReservedSpace() {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(8));
+        fileSystem.enableDelayedAllocation(16);
+
+        // the other file is stored between the reserved intervals, and there is no space for a single interval
+        fileSystem.createFile("file", "ab", StringEncoder.INSTANCE);
+        fileSystem.insertIntoFile("file", 2, "cd", StringEncoder.INSTANCE);
+        fileSystem.createFile("other", "xy", StringEncoder.INSTANCE);
+        fileSystem.insertIntoFile("file", 4, "ef", StringEncoder.INSTANCE);
+
+        fileSystem.flush();
+        assertEquals("abcdef", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        assertEquals("xy", fileSystem.readFile("other", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testBufferIsStoredInSingleInterval() {
+        List<List<Interval>> allocations = new ArrayList<>();
+        AllocationStrategy.Factory factory = used -> new AllocationStrategy() {
+            private final AllocationStrategy allocator = new BestFitAllocator(used);
+
+            @Override
+            public List<Interval> allocate(int size) {
+                List<Interval> intervals = allocator.allocate(size);
+                allocations.add(List.copyOf(intervals));
+                return intervals;
+            }
+
+            @Override
+            public void free(Interval interval) {
+                allocator.free(interval);
+            }
+
+            @Override
+            public void setMaxIntervalSize(int size) {
+                allocator.setMaxIntervalSize(size);
+            }
+        };
+
+        // this file system allocates intervals of at most two bytes
+        FileSystem fileSystem = new FileSystem(factory, 16);
+        fileSystem.enableDelayedAllocation(16);
+
+        // the other file is stored between the reserved intervals of the buffer
+        fileSystem.createFile("file", "ab", StringEncoder.INSTANCE);
+        fileSystem.insertIntoFile("file", 2, "cd", StringEncoder.INSTANCE);
+        fileSystem.createFile("other", "xy", StringEncoder.INSTANCE);
+        fileSystem.insertIntoFile("file", 4, "efgh", StringEncoder.INSTANCE);
+        fileSystem.flush();
+
+        assertEquals(List.of(new Interval(10, 6)), allocations.get(allocations.size() - 1));
+        assertEquals("abcdefgh", fileSystem.readFile("file", StringEncoder.INSTANCE));
+
+        // the reserved intervals were freed
+        fileSystem.createFile("free", "0123", StringEncoder.INSTANCE);
+        assertEquals("0123", fileSystem.readFile("free", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testCloseClosesJournalIfFlushFails() throws IOException {
+        Path path = directory.resolve("journal");
+        TestStorage storage = new TestStorage(16);
+
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, storage, new Journal(path));
+        fileSystem.enableDelayedAllocation(16);
+        fileSystem.createFile("file", "012345", StringEncoder.INSTANCE);
+        fileSystem.insertIntoFile("file", 6, "6789", StringEncoder.INSTANCE);
+
+        storage.failWrites = true;
+        assertThrows(IllegalStateException.class, fileSystem::close);
+
+        // the journal was closed, so it can be opened again, and it still contains the insertion
+        try (FileSystem reopened = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(16),
+            new Journal(path))) {
+            assertEquals("0123456789", reopened.readFile("file", StringEncoder.INSTANCE));
+        }
+    }
+
+    @Test
+    public void testCheckpointKeepsBufferedData() throws IOException {
+        Path path = directory.resolve("journal");
+
+        try (FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(16),
+            new Journal(path))) {
+
+            fileSystem.enableDelayedAllocation(16);
+            BtrfsFile file = fileSystem.createFile("file", "0123", StringEncoder.INSTANCE);
+            fileSystem.insertIntoFile("file", 4, "4", StringEncoder.INSTANCE);
+            fileSystem.insertIntoFile("file", 5, "5", StringEncoder.INSTANCE);
+
+            // the buffered data is recorded in a single insertion without being stored
+            fileSystem.checkpoint();
+            assertEquals(4, file.getSize());
+        }
+
+        try (Journal journal = new Journal(path)) {
+            assertEquals(2, journal.getRecords().size());
+        }
+
+        try (FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(16),
+            new Journal(path))) {
+            assertEquals("012345", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        }
+    }
+}
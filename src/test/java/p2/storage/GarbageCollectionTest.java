@@ -0,0 +1,46 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link FileSystem#garbageCollect()}.
+ */
+public class GarbageCollectionTest {
+
+    @Test
+    public void testLostSpaceIsRecycled() {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(16));
+
+        fileSystem.createFile("file", "abcd", StringEncoder.INSTANCE);
+        // space that is allocated, but not used by any file
+        fileSystem.allocator.allocate(12);
+
+        assertThrows(NoDiskSpaceException.class, () -> fileSystem.createFile("other", "x", StringEncoder.INSTANCE));
+
+        fileSystem.garbageCollect();
+        fileSystem.createFile("other", "efghijklmnop", StringEncoder.INSTANCE);
+
+        assertEquals("abcd", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        assertEquals("efghijklmnop", fileSystem.readFile("other", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testUsedSpaceIsKept() {
+        for (AllocationStrategy.Factory factory : new AllocationStrategy.Factory[] {
+            AllocationStrategy.LAZY_NEXT_FIT, AllocationStrategy.BITMAP, AllocationStrategy.BEST_FIT,
+            AllocationStrategy.BUDDY, AllocationStrategy.SLAB}) {
+
+            FileSystem fileSystem = new FileSystem(factory, new ArrayStorage(16));
+
+            fileSystem.createFile("file", "abcdefgh", StringEncoder.INSTANCE);
+            fileSystem.garbageCollect();
+            fileSystem.createFile("other", "ijklmnop", StringEncoder.INSTANCE);
+
+            assertEquals("abcdefgh", fileSystem.readFile("file", StringEncoder.INSTANCE));
+            assertThrows(NoDiskSpaceException.class,
+                () -> fileSystem.createFile("full", "x", StringEncoder.INSTANCE));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link Histogram}.
+ */
+public class HistogramTest {
+
+    /**
+     * Returns the index of the only non-empty bucket of the given histogram.
+     */
+    private static int bucketOf(long value) {
+        Histogram histogram = new Histogram();
+        histogram.record(value);
+
+        long[] counts = histogram.snapshot().counts();
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            if (counts[bucket] != 0) {
+                return bucket;
+            }
+        }
+
+        throw new AssertionError("no bucket contains " + value);
+    }
+
+    /**
+     * Returns the upper bound of the bucket of the given value, which is the median of the value and a larger value.
+     */
+    private static long upperBound(long value) {
+        Histogram histogram = new Histogram();
+        histogram.record(value);
+        histogram.record(Long.MAX_VALUE);
+
+        return histogram.snapshot().percentile(50);
+    }
+
+    @Test
+    public void testBucketsAtPowersOfTwo() {
+        // small values have their own buckets
+        assertEquals(0, bucketOf(0));
+        assertEquals(15, bucketOf(15));
+
+        // every larger order of magnitude is divided into 16 buckets
+        assertEquals(16, bucketOf(16));
+        assertEquals(31, bucketOf(31));
+        assertEquals(32, bucketOf(32));
+        assertEquals(32, bucketOf(33));
+        assertEquals(33, bucketOf(34));
+        assertEquals(47, bucketOf(63));
+        assertEquals(48, bucketOf(64));
+        assertEquals(112, bucketOf(1024));
+        assertEquals(111, bucketOf(1023));
+        assertEquals(16 * 60 - 1, bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testUpperBoundsAtPowersOfTwo() {
+        assertEquals(0, upperBound(0));
+        assertEquals(15, upperBound(15));
+        assertEquals(16, upperBound(16));
+        assertEquals(31, upperBound(31));
+        assertEquals(33, upperBound(32));
+        assertEquals(33, upperBound(33));
+        assertEquals(67, upperBound(64));
+        assertEquals(1023, upperBound(1023));
+        assertEquals(1087, upperBound(1024));
+        assertEquals(Long.MAX_VALUE, upperBound(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.count());
+        assertEquals(5050, snapshot.sum());
+        assertEquals(50.5, snapshot.mean());
+
+        // the percentile is the upper end of the bucket that contains the value of its rank
+        assertEquals(1, snapshot.percentile(0));
+        assertEquals(1, snapshot.percentile(1));
+        assertEquals(10, snapshot.percentile(10));
+        assertEquals(51, snapshot.percentile(50));
+        assertEquals(51, snapshot.percentile(50.5));
+        assertEquals(99, snapshot.percentile(99));
+
+        // but never beyond the maximum
+        assertEquals(100, snapshot.percentile(100));
+
+        assertThrows(IllegalArgumentException.class, () -> snapshot.percentile(-1));
+        assertThrows(IllegalArgumentException.class, () -> snapshot.percentile(100.5));
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        Histogram.Snapshot snapshot = new Histogram().snapshot();
+
+        assertEquals(0, snapshot.mean());
+        assertEquals(0, snapshot.percentile(50));
+        assertEquals(0, snapshot.max());
+    }
+
+    @Test
+    public void testNegativeValue() {
+        assertThrows(IllegalArgumentException.class, () -> new Histogram().record(-1));
+    }
+}
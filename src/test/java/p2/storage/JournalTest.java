@@ -0,0 +1,324 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link Journal} and the journaled {@link FileSystem}.
+ */
+public class JournalTest {
+
+    @TempDir
+    Path directory;
+
+    private FileSystem open(Path path) throws IOException {
+        return new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(256), new Journal(path));
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        Path path = directory.resolve("journal");
+
+        try (FileSystem fileSystem = open(path)) {
+            fileSystem.createFile("file", "Helo World", StringEncoder.INSTANCE);
+            fileSystem.insertIntoFile("file", 3, "l", StringEncoder.INSTANCE);
+            fileSystem.snapshot("file", "snapshot");
+            fileSystem.removeFromFile("file", 5, 6);
+        }
+
+        try (FileSystem fileSystem = open(path)) {
+            assertEquals("Hello", fileSystem.readFile("file", StringEncoder.INSTANCE));
+            assertEquals("Hello World", fileSystem.readFile("snapshot", StringEncoder.INSTANCE));
+        }
+    }
+
+    @Test
+    public void testFailedOperationIsNotReplayed() throws IOException {
+        Path path = directory.resolve("journal");
+
+        try (FileSystem fileSystem = open(path)) {
+            fileSystem.createFile("file", "data", StringEncoder.INSTANCE);
+
+            assertThrows(NoDiskSpaceException.class,
+                () -> fileSystem.insertIntoFile("file", 0, "x".repeat(300), StringEncoder.INSTANCE));
+        }
+
+        try (FileSystem fileSystem = open(path)) {
+            assertEquals("data", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        }
+    }
+
+    @Test
+    public void testCheckpointReplacesRecords() throws IOException {
+        Path path = directory.resolve("journal");
+
+        try (FileSystem fileSystem = open(path)) {
+            fileSystem.createFile("file", "a", StringEncoder.INSTANCE);
+            for (int i = 0; i < 20; i++) {
+                fileSystem.writeIntoFile("file", 0, String.valueOf((char) ('a' + i)), StringEncoder.INSTANCE);
+            }
+        }
+
+        long size;
+        try (Journal journal = new Journal(path)) {
+            assertEquals(21, journal.getRecords().size());
+            size = journal.getSize();
+        }
+
+        // opening the file system replays the records and replaces them by a checkpoint
+        try (FileSystem fileSystem = open(path)) {
+            assertEquals("t", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        }
+
+        try (Journal journal = new Journal(path)) {
+            assertEquals(1, journal.getRecords().size());
+            assertTrue(journal.getSize() < size);
+        }
+    }
+
+    @Test
+    public void testAutomaticCheckpoint() throws IOException {
+        Path path = directory.resolve("journal");
+
+        try (FileSystem fileSystem = open(path)) {
+            fileSystem.enableCheckpoints(200);
+            fileSystem.createFile("file", "a", StringEncoder.INSTANCE);
+
+            for (int i = 0; i < 50; i++) {
+                fileSystem.writeIntoFile("file", 0, String.valueOf(i % 10), StringEncoder.INSTANCE);
+            }
+        }
+
+        try (Journal journal = new Journal(path)) {
+            assertTrue(journal.getSize() <= 200 + 64);
+        }
+
+        try (FileSystem fileSystem = open(path)) {
+            assertEquals("9", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        }
+    }
+
+    @Test
+    public void testIncompleteRecordIsDiscarded() throws IOException {
+        Path path = directory.resolve("journal");
+
+        try (FileSystem fileSystem = open(path)) {
+            fileSystem.createFile("file", "data", StringEncoder.INSTANCE);
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 42, 1, 2}));
+        }
+
+        try (FileSystem fileSystem = open(path)) {
+            assertEquals("data", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        }
+    }
+
+    @Test
+    public void testCheckpointKeepsSnapshotsShared() throws IOException {
+        Path path = directory.resolve("journal");
+        String content = "0123456789".repeat(300);
+
+        try (FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(4000),
+            new Journal(path))) {
+            fileSystem.createFile("file", content, StringEncoder.INSTANCE);
+            fileSystem.snapshot("file", "snapshot");
+            fileSystem.insertIntoFile("file", 1500, "inserted", StringEncoder.INSTANCE);
+        }
+
+        // the checkpoint of the first replay must not turn the snapshot into a copy that does not fit the second time
+        for (int i = 0; i < 2; i++) {
+            try (FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(4000),
+                new Journal(path))) {
+                assertEquals(content.substring(0, 1500) + "inserted" + content.substring(1500),
+                    fileSystem.readFile("file", StringEncoder.INSTANCE));
+                assertEquals(content, fileSystem.readFile("snapshot", StringEncoder.INSTANCE));
+            }
+        }
+
+        try (Journal journal = new Journal(path)) {
+            assertTrue(journal.getSize() < 2 * content.length());
+        }
+    }
+
+    @Test
+    public void testFailedAppendIsRemoved() throws Exception {
+        Path path = directory.resolve("journal");
+
+        try (Journal journal = new Journal(path)) {
+            journal.commit(journal.append(new Journal.Record(Journal.Operation.CREATE, "file", 0, 1, new byte[] {1})));
+
+            Field field = Journal.class.getDeclaredField("channel");
+            field.setAccessible(true);
+            FileChannel channel = (FileChannel) field.get(journal);
+            FailingChannel failing = new FailingChannel(channel);
+            field.set(journal, failing);
+
+            // the first write succeeds partially, the second one fails
+            failing.writable = 5;
+            assertThrows(UncheckedIOException.class, () -> journal.append(
+                new Journal.Record(Journal.Operation.INSERT, "file", 1, 1, new byte[] {2})));
+
+            field.set(journal, channel);
+            journal.commit(journal.append(new Journal.Record(Journal.Operation.INSERT, "file", 1, 1, new byte[] {3})));
+        }
+
+        try (Journal journal = new Journal(path)) {
+            assertEquals(2, journal.getRecords().size());
+            assertArrayEquals(new byte[] {3}, journal.getRecords().get(1).data());
+        }
+    }
+
+    @Test
+    public void testFailedCheckpointDoesNotFailCommit() throws IOException {
+        Path path = directory.resolve("journal");
+        ArrayStorage storage = new ArrayStorage(256) {
+            @Override
+            public void readv(Interval[] intervals, byte[] dest, int destPos) {
+                throw new IllegalStateException("read failed");
+            }
+        };
+
+        try (FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, storage, new Journal(path))) {
+            fileSystem.createFile("file", "a", StringEncoder.INSTANCE);
+            fileSystem.enableCheckpoints(1);
+
+            // the checkpoint cannot read the stored data, but the insertion is applied and committed anyway
+            fileSystem.insertIntoFile("file", 1, "b", StringEncoder.INSTANCE);
+        }
+
+        try (Journal journal = new Journal(path)) {
+            assertEquals(2, journal.getRecords().size());
+        }
+
+        try (FileSystem fileSystem = open(path)) {
+            assertEquals("ab", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        }
+    }
+
+    /**
+     * A channel that writes the given amount of bytes and then fails.
+     */
+    private static class FailingChannel extends FileChannel {
+
+        private final FileChannel channel;
+
+        private int writable = Integer.MAX_VALUE;
+
+        private FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            if (writable == 0) {
+                throw new IOException("write failed");
+            }
+
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + Math.min(part.remaining(), writable));
+
+            int written = channel.write(part, position);
+            src.position(src.position() + written);
+            writable -= written;
+            return written;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link LongFileSystem} and the {@link SegmentedStorage}.
+ */
+public class LongFileSystemTest {
+
+    @Test
+    public void testSegmentedStorageAcrossSegments() {
+        SegmentedStorage storage = new SegmentedStorage(100, 16);
+        byte[] data = new byte[40];
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        storage.write(10L, data, 0, data.length);
+
+        byte[] read = new byte[40];
+        storage.read(10L, read, 0, read.length);
+
+        assertArrayEquals(data, read);
+        assertEquals(100, storage.getLongSize());
+        assertThrows(SegmentationFault.class, () -> storage.read(90L, read, 0, 11));
+    }
+
+    @Test
+    public void testInsertReadRemove() {
+        LongFileSystem fileSystem = new LongFileSystem(new SegmentedStorage(256, 16));
+
+        fileSystem.createFile("file");
+        fileSystem.insertIntoFile("file", 0, "Helo World", StringEncoder.INSTANCE);
+        fileSystem.insertIntoFile("file", 3, "l", StringEncoder.INSTANCE);
+
+        assertEquals("Hello World", fileSystem.readFile("file", StringEncoder.INSTANCE, 0, 11));
+        assertEquals("World", fileSystem.readFile("file", StringEncoder.INSTANCE, 6, 5));
+
+        fileSystem.removeFromFile("file", 5, 6);
+
+        assertEquals("Hello", fileSystem.readFile("file", StringEncoder.INSTANCE, 0, 5));
+        assertEquals(251, fileSystem.getFreeBytes());
+    }
+
+    @Test
+    public void testFreedSpaceIsReused() {
+        LongFileSystem fileSystem = new LongFileSystem(new SegmentedStorage(8, 4));
+
+        fileSystem.createFile("file");
+        fileSystem.insertIntoFile("file", 0, "abcdefgh", StringEncoder.INSTANCE);
+
+        assertThrows(NoDiskSpaceException.class,
+            () -> fileSystem.insertIntoFile("file", 0, "x", StringEncoder.INSTANCE));
+
+        fileSystem.removeFromFile("file", 2, 4);
+        fileSystem.insertIntoFile("file", 2, "wxyz", StringEncoder.INSTANCE);
+
+        assertEquals("abwxyzgh", fileSystem.readFile("file", StringEncoder.INSTANCE, 0, 8));
+    }
+
+    @Test
+    public void testMissingFile() {
+        LongFileSystem fileSystem = new LongFileSystem(new SegmentedStorage(8));
+
+        assertThrows(NoSuchBtrfsFileException.class, () -> fileSystem.getFile("file"));
+    }
+}
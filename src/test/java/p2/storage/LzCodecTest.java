@@ -0,0 +1,121 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link LzCodec}.
+ */
+public class LzCodecTest {
+
+    /**
+     * Compresses and decompresses the given data at non-zero positions of the arrays and returns the compressed size.
+     */
+    private static int roundTrip(byte[] data) {
+        byte[] src = new byte[data.length + 3];
+        System.arraycopy(data, 0, src, 3, data.length);
+
+        byte[] compressed = new byte[LzCodec.maxCompressedLength(data.length) + 5];
+        int compressedLength = LzCodec.compress(src, 3, data.length, compressed, 5);
+        assertTrue(compressedLength <= LzCodec.maxCompressedLength(data.length));
+
+        byte[] decompressed = new byte[data.length + 2];
+        assertEquals(data.length, LzCodec.decompress(compressed, 5, compressedLength, decompressed, 2));
+        assertArrayEquals(data, Arrays.copyOfRange(decompressed, 2, decompressed.length));
+
+        return compressedLength;
+    }
+
+    @Test
+    public void testEmptyInput() {
+        assertEquals(1, roundTrip(new byte[0]));
+    }
+
+    @Test
+    public void testShortInput() {
+        roundTrip(new byte[] {1});
+        roundTrip(new byte[] {1, 2, 3, 4});
+        roundTrip(new byte[] {1, 1, 1, 1, 1});
+    }
+
+    @Test
+    public void testIncompressibleInput() {
+        Random random = new Random(1);
+
+        for (int length : new int[] {14, 15, 16, 254, 270, 4096, 70000}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            int compressedLength = roundTrip(data);
+            assertTrue(compressedLength > length);
+        }
+    }
+
+    @Test
+    public void testOverlappingMatch() {
+        // a single literal followed by a back reference with offset 1 that reproduces it
+        byte[] data = new byte[1000];
+        Arrays.fill(data, (byte) 'a');
+        assertTrue(roundTrip(data) < 16);
+
+        // a back reference with offset 3 and a length that is larger than the offset
+        byte[] pattern = "abcabcabcabcabcabcabcabcabcabcx".getBytes();
+        assertTrue(roundTrip(pattern) < pattern.length);
+    }
+
+    @Test
+    public void testLongLengths() {
+        // literal and match lengths that need several extension bytes
+        Random random = new Random(2);
+        byte[] data = new byte[2000];
+        random.nextBytes(data);
+        Arrays.fill(data, 600, 1400, (byte) 7);
+
+        roundTrip(data);
+    }
+
+    @Test
+    public void testOffsetsNearLimit() {
+        Random random = new Random(3);
+
+        for (int distance : new int[] {0xFFFE, 0xFFFF, 0x10000, 0x10001}) {
+            byte[] data = new byte[distance + 100];
+            random.nextBytes(data);
+            System.arraycopy(data, 10, data, distance + 10, 90);
+
+            roundTrip(data);
+        }
+    }
+
+    @Test
+    public void testDecompressLargestOffset() {
+        Random random = new Random(4);
+        byte[] literals = new byte[0xFFFF];
+        random.nextBytes(literals);
+
+        // a sequence with all literals and a back reference of length 8 to the first byte
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        compressed.write(0xF4);
+        int length = literals.length - 15;
+        for (; length >= 255; length -= 255) {
+            compressed.write(255);
+        }
+        compressed.write(length);
+        compressed.writeBytes(literals);
+        compressed.write(0xFF);
+        compressed.write(0xFF);
+        // an empty last sequence
+        compressed.write(0);
+
+        byte[] src = compressed.toByteArray();
+        byte[] dest = new byte[literals.length + 8];
+        assertEquals(dest.length, LzCodec.decompress(src, 0, src.length, dest, 0));
+        assertArrayEquals(literals, Arrays.copyOf(dest, literals.length));
+        assertArrayEquals(Arrays.copyOf(literals, 8), Arrays.copyOfRange(dest, literals.length, dest.length));
+    }
+}
@@ -0,0 +1,67 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link MappedFileStorage}.
+ */
+public class MappedFileStorageTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testReadWrite() throws IOException {
+        try (MappedFileStorage storage = new MappedFileStorage(directory.resolve("volume"), 64)) {
+            storage.write(10, new byte[] {1, 2, 3}, 0, 3);
+
+            byte[] data = new byte[3];
+            storage.read(10, data, 0, 3);
+
+            assertArrayEquals(new byte[] {1, 2, 3}, data);
+            assertEquals(64, storage.getSize());
+        }
+    }
+
+    @Test
+    public void testDataIsPreservedWhenReopened() throws IOException {
+        Path path = directory.resolve("volume");
+
+        try (MappedFileStorage storage = new MappedFileStorage(path, 64)) {
+            storage.write(60, new byte[] {4, 5, 6, 7}, 0, 4);
+        }
+
+        try (MappedFileStorage storage = new MappedFileStorage(path, 64)) {
+            byte[] data = new byte[4];
+            storage.read(60, data, 0, 4);
+
+            assertArrayEquals(new byte[] {4, 5, 6, 7}, data);
+        }
+    }
+
+    @Test
+    public void testAccessOutsideOfStorage() throws IOException {
+        try (MappedFileStorage storage = new MappedFileStorage(directory.resolve("volume"), 64)) {
+            assertThrows(SegmentationFault.class, () -> storage.write(62, new byte[4], 0, 4));
+            assertThrows(SegmentationFault.class, () -> storage.read(-1, new byte[1], 0, 1));
+        }
+    }
+
+    @Test
+    public void testFileSystem() throws IOException {
+        try (MappedFileStorage storage = new MappedFileStorage(directory.resolve("volume"), 64)) {
+            FileSystem fileSystem = new FileSystem(AllocationStrategy.NEXT_FIT, storage);
+
+            fileSystem.createFile("file", "Helo", StringEncoder.INSTANCE);
+            fileSystem.insertIntoFile("file", 3, "l", StringEncoder.INSTANCE);
+
+            assertEquals("Hello", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        }
+    }
+}
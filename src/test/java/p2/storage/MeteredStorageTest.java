@@ -0,0 +1,83 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link MeteredStorage}.
+ */
+public class MeteredStorageTest {
+
+    @Test
+    public void testCounters() throws IOException {
+        MeteredStorage storage = new MeteredStorage(new ArrayStorage(64));
+
+        storage.write(0, new byte[8], 0, 8);
+        storage.writev(new Interval[] {new Interval(10, 2), new Interval(20, 4)}, new byte[6], 0);
+        storage.read(0, new byte[4], 0, 4);
+        storage.readv(new Interval[] {new Interval(10, 2)}, new byte[2], 0);
+        storage.transferTo(0, 3, Channels.newChannel(new ByteArrayOutputStream()));
+
+        MeteredStorage.Statistics statistics = storage.getStatistics();
+        assertEquals(3, statistics.reads());
+        assertEquals(2, statistics.writes());
+        assertEquals(9, statistics.bytesRead());
+        assertEquals(14, statistics.bytesWritten());
+        assertEquals(3, statistics.readLatency().count());
+        assertEquals(2, statistics.writeLatency().count());
+
+        // every interval of a vectored call is recorded on its own
+        assertEquals(6, statistics.intervalLengths().count());
+        assertEquals(23, statistics.intervalLengths().sum());
+        assertEquals(8, statistics.intervalLengths().max());
+    }
+
+    @Test
+    public void testFailedCallIsNotCounted() {
+        MeteredStorage storage = new MeteredStorage(new ArrayStorage(8));
+
+        assertThrows(SegmentationFault.class, () -> storage.write(6, new byte[4], 0, 4));
+        assertEquals(0, storage.getWrites());
+        assertEquals(0, storage.getStatistics().intervalLengths().count());
+    }
+
+    @Test
+    public void testMXBeanAttributes() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("p2.storage", "name", "metered-test");
+        MeteredStorage storage = new MeteredStorage(new ArrayStorage(64));
+
+        storage.register("metered-test");
+        try {
+            assertThrows(IllegalStateException.class, () -> storage.register("other"));
+
+            storage.write(0, new byte[10], 0, 10);
+            storage.read(0, new byte[2], 0, 2);
+            storage.read(2, new byte[4], 0, 4);
+
+            assertEquals(2L, server.getAttribute(name, "Reads"));
+            assertEquals(1L, server.getAttribute(name, "Writes"));
+            assertEquals(6L, server.getAttribute(name, "BytesRead"));
+            assertEquals(10L, server.getAttribute(name, "BytesWritten"));
+            assertEquals(16.0 / 3, (double) server.getAttribute(name, "MeanIntervalLength"), 1e-9);
+            assertEquals(storage.getReadLatency99thPercentile(), server.getAttribute(name, "ReadLatency99thPercentile"));
+            assertEquals(storage.getWriteLatency99thPercentile(),
+                server.getAttribute(name, "WriteLatency99thPercentile"));
+            assertTrue((double) server.getAttribute(name, "MeanReadLatency") >= 0);
+            assertTrue((double) server.getAttribute(name, "MeanWriteLatency") >= 0);
+        } finally {
+            storage.close();
+        }
+
+        assertFalse(server.isRegistered(name));
+    }
+}
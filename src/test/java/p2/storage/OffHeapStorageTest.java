@@ -0,0 +1,82 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link OffHeapStorage}.
+ */
+public class OffHeapStorageTest {
+
+    @Test
+    public void testReadWrite() {
+        OffHeapStorage storage = new OffHeapStorage(64);
+        storage.write(10, new byte[] {0, 1, 2, 3}, 1, 3);
+
+        byte[] data = new byte[5];
+        storage.read(10, data, 2, 3);
+
+        assertArrayEquals(new byte[] {0, 0, 1, 2, 3}, data);
+        assertEquals(64, storage.getSize());
+    }
+
+    @Test
+    public void testReadIntoBuffer() {
+        OffHeapStorage storage = new OffHeapStorage(64);
+        storage.write(0, new byte[] {1, 2, 3, 4}, 0, 4);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(6);
+        buffer.position(2);
+        storage.read(1, buffer, 3);
+
+        assertEquals(5, buffer.position());
+        assertEquals(2, buffer.get(2));
+        assertEquals(4, buffer.get(4));
+    }
+
+    @Test
+    public void testTransferTo() throws IOException {
+        OffHeapStorage storage = new OffHeapStorage(64);
+        storage.write(60, new byte[] {5, 6, 7, 8}, 0, 4);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, storage.transferTo(61, 3, Channels.newChannel(out)));
+        assertArrayEquals(new byte[] {6, 7, 8}, out.toByteArray());
+    }
+
+    @Test
+    public void testAccessOutsideOfStorage() {
+        OffHeapStorage storage = new OffHeapStorage(64);
+
+        assertThrows(SegmentationFault.class, () -> storage.write(62, new byte[4], 0, 4));
+        assertThrows(SegmentationFault.class, () -> storage.read(-1, new byte[1], 0, 1));
+        assertThrows(SegmentationFault.class, () -> storage.read(64, ByteBuffer.allocate(1), 1));
+    }
+
+    @Test
+    public void testAccessAfterClose() {
+        OffHeapStorage storage = new OffHeapStorage(64);
+        storage.close();
+
+        assertThrows(IllegalStateException.class, () -> storage.write(0, new byte[1], 0, 1));
+        assertThrows(IllegalStateException.class, () -> storage.read(0, new byte[1], 0, 1));
+        assertThrows(IllegalStateException.class,
+            () -> storage.transferTo(0, 1, Channels.newChannel(new ByteArrayOutputStream())));
+    }
+
+    @Test
+    public void testFileSystem() {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new OffHeapStorage(64));
+
+        fileSystem.createFile("file", "Helo", StringEncoder.INSTANCE);
+        fileSystem.insertIntoFile("file", 3, "l", StringEncoder.INSTANCE);
+
+        assertEquals("Hello", fileSystem.readFile("file", StringEncoder.INSTANCE));
+    }
+}
@@ -0,0 +1,60 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link FileSystem#openStream(String)}.
+ */
+public class OpenStreamTest {
+
+    @Test
+    public void testReadWholeFile() throws IOException {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(4096));
+        String content = "0123456789".repeat(300);
+
+        fileSystem.createFile("file", content, StringEncoder.INSTANCE);
+
+        try (InputStream stream = fileSystem.openStream("file")) {
+            assertEquals(content, new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testReadInSmallParts() throws IOException {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(64));
+
+        fileSystem.createFile("file", "Helo World", StringEncoder.INSTANCE);
+        fileSystem.insertIntoFile("file", 3, "l", StringEncoder.INSTANCE);
+
+        try (InputStream stream = fileSystem.openStream("file")) {
+            byte[] part = new byte[3];
+            StringBuilder read = new StringBuilder();
+
+            for (int length = stream.read(part); length >= 0; length = stream.read(part)) {
+                read.append(new String(part, 0, length, StandardCharsets.UTF_8));
+            }
+
+            assertEquals("Hello World", read.toString());
+        }
+    }
+
+    @Test
+    public void testBufferedDataIsVisible() throws IOException {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(64));
+
+        fileSystem.enableDelayedAllocation(32);
+        fileSystem.createFile("file", "Hello", StringEncoder.INSTANCE);
+
+        try (InputStream stream = fileSystem.openStream("file")) {
+            fileSystem.insertIntoFile("file", 5, " World", StringEncoder.INSTANCE);
+
+            assertEquals("Hello World", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link PagedFileStorage}.
+ */
+public class PagedFileStorageTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testReadWriteAcrossPages() throws IOException {
+        Path path = directory.resolve("volume");
+
+        try (PagedFileStorage storage = new PagedFileStorage(path, 64, 4, 8)) {
+            storage.write(2, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, 0, 10);
+            storage.writev(new Interval[] {new Interval(40, 2), new Interval(20, 3)}, new byte[] {11, 12, 13, 14, 15}, 0);
+
+            byte[] data = new byte[10];
+            storage.read(2, data, 0, 10);
+            assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, data);
+
+            byte[] vector = new byte[5];
+            storage.readv(new Interval[] {new Interval(40, 2), new Interval(20, 3)}, vector, 0);
+            assertArrayEquals(new byte[] {11, 12, 13, 14, 15}, vector);
+        }
+    }
+
+    @Test
+    public void testDataIsPreservedWhenReopened() throws IOException {
+        Path path = directory.resolve("volume");
+
+        try (PagedFileStorage storage = new PagedFileStorage(path, 64, 4, 8)) {
+            storage.write(30, new byte[] {4, 5, 6, 7}, 0, 4);
+        }
+
+        try (PagedFileStorage storage = new PagedFileStorage(path, 64, 4, 8)) {
+            byte[] data = new byte[4];
+            storage.read(30, data, 0, 4);
+
+            assertArrayEquals(new byte[] {4, 5, 6, 7}, data);
+        }
+    }
+
+    @Test
+    public void testInvalidBudget() throws IOException {
+        Path path = directory.resolve("volume");
+
+        assertThrows(IllegalArgumentException.class, () -> new PagedFileStorage(path, 64, 4, 3));
+        assertThrows(IllegalArgumentException.class, () -> new PagedFileStorage(path, 64, 0, 16));
+
+        // the file is not held open by the rejected storages
+        Files.delete(path);
+        assertFalse(Files.exists(path));
+    }
+}
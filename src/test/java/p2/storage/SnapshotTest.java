@@ -0,0 +1,96 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@linkplain FileSystem#snapshot(String, String) snapshots} in a {@link FileSystem}.
+ */
+public class SnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testFilesAreIsolated() {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(64));
+
+        fileSystem.createFile("file", "abcdefgh", StringEncoder.INSTANCE);
+        fileSystem.snapshot("file", "snapshot");
+
+        fileSystem.removeFromFile("file", 2, 2);
+        fileSystem.insertIntoFile("snapshot", 8, "ij", StringEncoder.INSTANCE);
+        fileSystem.removeFromFile("snapshot", 0, 1);
+
+        assertEquals("abefgh", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        assertEquals("bcdefghij", fileSystem.readFile("snapshot", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testSharedDataIsFreedWithLastReference() {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(16));
+
+        fileSystem.createFile("file", "abcdefgh", StringEncoder.INSTANCE);
+        fileSystem.snapshot("file", "snapshot");
+        assertEquals(2, fileSystem.getReferences(0));
+
+        // the snapshot still references the removed data
+        fileSystem.removeFromFile("file", 0, 8);
+        assertEquals("abcdefgh", fileSystem.readFile("snapshot", StringEncoder.INSTANCE));
+        assertEquals(1, fileSystem.getReferences(0));
+
+        fileSystem.createFile("other", "01234567", StringEncoder.INSTANCE);
+        assertThrows(NoDiskSpaceException.class, () -> fileSystem.createFile("full", "x", StringEncoder.INSTANCE));
+
+        // now nothing references it anymore
+        fileSystem.removeFromFile("snapshot", 0, 8);
+        fileSystem.createFile("full", "ABCDEFGH", StringEncoder.INSTANCE);
+
+        assertEquals("01234567", fileSystem.readFile("other", StringEncoder.INSTANCE));
+        assertEquals("ABCDEFGH", fileSystem.readFile("full", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testPartiallyRemovedDataIsFreed() {
+        FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(16));
+
+        fileSystem.createFile("file", "abcdefgh", StringEncoder.INSTANCE);
+        fileSystem.snapshot("file", "snapshot");
+
+        // only "cd" is removed from both files, "ef" is still part of the file
+        fileSystem.removeFromFile("file", 0, 4);
+        fileSystem.removeFromFile("snapshot", 2, 4);
+        fileSystem.createFile("other", "0123456789", StringEncoder.INSTANCE);
+
+        assertEquals("efgh", fileSystem.readFile("file", StringEncoder.INSTANCE));
+        assertEquals("abgh", fileSystem.readFile("snapshot", StringEncoder.INSTANCE));
+        assertEquals("0123456789", fileSystem.readFile("other", StringEncoder.INSTANCE));
+        assertThrows(NoDiskSpaceException.class, () -> fileSystem.createFile("full", "x", StringEncoder.INSTANCE));
+    }
+
+    @Test
+    public void testReferencesAreRestoredByReplay() throws IOException {
+        Path path = directory.resolve("journal");
+
+        try (FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(16),
+            new Journal(path))) {
+            fileSystem.createFile("file", "abcdefgh", StringEncoder.INSTANCE);
+            fileSystem.snapshot("file", "snapshot");
+            fileSystem.removeFromFile("file", 0, 8);
+        }
+
+        try (FileSystem fileSystem = new FileSystem(AllocationStrategy.BEST_FIT, new ArrayStorage(16),
+            new Journal(path))) {
+            assertEquals("abcdefgh", fileSystem.readFile("snapshot", StringEncoder.INSTANCE));
+            assertEquals("", fileSystem.readFile("file", StringEncoder.INSTANCE));
+
+            fileSystem.createFile("other", "01234567", StringEncoder.INSTANCE);
+            assertThrows(NoDiskSpaceException.class, () -> fileSystem.createFile("full", "x", StringEncoder.INSTANCE));
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link StorageView} implementations.
+ */
+public class StorageViewTest {
+
+    /**
+     * Returns storages that contain the bytes 0 to 63 at the positions 0 to 63. One of them only implements the
+     * abstract methods, so that the default implementations of {@link Storage} are used.
+     */
+    private static List<Storage> storages() {
+        byte[] data = new byte[64];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        ArrayStorage array = new ArrayStorage(64);
+        OffHeapStorage offHeap = new OffHeapStorage(64);
+        ArrayStorage delegate = new ArrayStorage(64);
+        Storage defaults = new Storage() {
+            @Override
+            public void write(int storagePos, byte[] source, int sourcePos, int length) {
+                delegate.write(storagePos, source, sourcePos, length);
+            }
+
+            @Override
+            public void read(int storagePos, byte[] dest, int destPos, int length) {
+                delegate.read(storagePos, dest, destPos, length);
+            }
+
+            @Override
+            public int getSize() {
+                return delegate.getSize();
+            }
+        };
+
+        List<Storage> storages = List.of(array, offHeap, defaults);
+        for (Storage storage : storages) {
+            storage.write(0, data, 0, data.length);
+        }
+        return storages;
+    }
+
+    @Test
+    public void testTransferToWithPartialWrites() throws IOException {
+        for (Storage storage : storages()) {
+            StorageView view = storage.createView(new Interval(10, 7), new Interval(2, 3), new Interval(40, 1));
+            TrickleChannel channel = new TrickleChannel(2);
+
+            assertEquals(11, view.transferTo(channel));
+            assertArrayEquals(new byte[] {10, 11, 12, 13, 14, 15, 16, 2, 3, 4, 40}, channel.out.toByteArray());
+
+            channel = new TrickleChannel(1);
+            assertEquals(5, storage.createView(new Interval(59, 5)).transferTo(channel));
+            assertArrayEquals(new byte[] {59, 60, 61, 62, 63}, channel.out.toByteArray());
+        }
+    }
+
+    @Test
+    public void testTransferToEmptyView() throws IOException {
+        TrickleChannel channel = new TrickleChannel(1);
+
+        assertEquals(0, new EmptyStorageView(new ArrayStorage(1)).transferTo(channel));
+        assertEquals(0, channel.out.size());
+    }
+
+    @Test
+    public void testReadIntoBufferAtPosition() {
+        for (Storage storage : storages()) {
+            StorageView view = storage.createView(new Interval(5, 2), new Interval(20, 3));
+
+            for (ByteBuffer buffer : List.of(ByteBuffer.allocate(9), ByteBuffer.allocateDirect(9),
+                ByteBuffer.allocate(12).position(2).slice())) {
+
+                buffer.position(3);
+                view.readInto(buffer);
+
+                assertEquals(8, buffer.position());
+                byte[] data = new byte[9];
+                buffer.get(0, data);
+                assertArrayEquals(new byte[] {0, 0, 0, 5, 6, 20, 21, 22, 0}, data);
+            }
+
+            ByteBuffer single = ByteBuffer.allocate(4).position(1);
+            storage.createView(new Interval(63, 1)).readInto(single);
+            assertEquals(2, single.position());
+            assertEquals(63, single.get(1));
+        }
+    }
+
+    @Test
+    public void testReadIntoArrayAtPosition() {
+        for (Storage storage : storages()) {
+            byte[] data = new byte[8];
+
+            storage.createView(new Interval(30, 2), new Interval(1, 2)).readInto(data, 3);
+            assertArrayEquals(new byte[] {0, 0, 0, 30, 31, 1, 2, 0}, data);
+        }
+    }
+
+    @Test
+    public void testReadIntoTooSmallBuffer() {
+        for (Storage storage : storages()) {
+            ByteBuffer buffer = ByteBuffer.allocate(6).position(2);
+
+            assertThrows(BufferOverflowException.class,
+                () -> storage.createView(new Interval(0, 2), new Interval(8, 3)).readInto(buffer));
+            assertEquals(2, buffer.position());
+        }
+    }
+
+    @Test
+    public void testAdjacentIntervalsAreMerged() {
+        for (Storage storage : storages()) {
+            StorageView view = storage.createView(new Interval(4, 2)).plus(storage.createView(new Interval(6, 3)));
+            assertArrayEquals(new Interval[] {new Interval(4, 5)}, view.getIntervals());
+            assertArrayEquals(new byte[] {4, 5, 6, 7, 8}, view.getData());
+
+            // only the last interval of a view is merged with the first interval of the next one
+            view = StorageView.concat(storage.createView(new Interval(10, 2), new Interval(20, 1)),
+                storage.createView(new Interval(21, 2), new Interval(23, 1)), storage.createView(new Interval(12, 1)));
+            assertArrayEquals(new Interval[] {new Interval(10, 2), new Interval(20, 4), new Interval(12, 1)},
+                view.getIntervals());
+            assertArrayEquals(new byte[] {10, 11, 20, 21, 22, 23, 12}, view.getData());
+
+            // intervals that are adjacent in the wrong order are not merged
+            view = storage.createView(new Interval(6, 3)).plus(storage.createView(new Interval(4, 2)));
+            assertArrayEquals(new Interval[] {new Interval(6, 3), new Interval(4, 2)}, view.getIntervals());
+        }
+    }
+
+    @Test
+    public void testBuilderMergesAdjacentIntervals() {
+        Storage storage = new ArrayStorage(64);
+        StorageViewBuilder builder = new StorageViewBuilder(storage);
+
+        // enough intervals to grow the array of the builder
+        for (int i = 0; i < 20; i++) {
+            builder.add(new Interval(3 * i, 1)).add(new Interval(3 * i + 1, 1));
+        }
+
+        StorageView view = builder.add(storage.createView(new Interval(59, 2), new Interval(61, 3))).build();
+        Interval[] intervals = view.getIntervals();
+
+        assertEquals(20, intervals.length);
+        for (int i = 0; i < 19; i++) {
+            assertEquals(new Interval(3 * i, 2), intervals[i]);
+        }
+        assertEquals(new Interval(57, 7), intervals[19]);
+        assertEquals(45, view.length());
+    }
+
+    @Test
+    public void testSliceOnIntervalBoundaries() {
+        for (Storage storage : storages()) {
+            StorageView view = storage.createView(new Interval(10, 4), new Interval(30, 3), new Interval(50, 5));
+
+            assertArrayEquals(new Interval[] {new Interval(10, 4)}, view.slice(0, 4).getIntervals());
+            assertArrayEquals(new Interval[] {new Interval(30, 3)}, view.slice(4, 3).getIntervals());
+            assertArrayEquals(new Interval[] {new Interval(50, 5)}, view.slice(7, 5).getIntervals());
+            assertArrayEquals(view.getIntervals(), view.slice(0, 12).getIntervals());
+
+            StorageView slice = view.slice(3, 5);
+            assertArrayEquals(new Interval[] {new Interval(13, 1), new Interval(30, 3), new Interval(50, 1)},
+                slice.getIntervals());
+            assertArrayEquals(new byte[] {13, 30, 31, 32, 50}, slice.getData());
+        }
+    }
+
+    @Test
+    public void testEmptySlice() {
+        for (Storage storage : storages()) {
+            StorageView view = storage.createView(new Interval(10, 4), new Interval(30, 3));
+
+            for (int offset : new int[] {0, 2, 4, 7}) {
+                StorageView slice = view.slice(offset, 0);
+                assertEquals(0, slice.length());
+                assertEquals(0, slice.getIntervals().length);
+                assertArrayEquals(new byte[0], slice.getData());
+            }
+
+            assertEquals(0, storage.createView(new Interval(5, 3)).slice(3, 0).length());
+            assertEquals(0, new EmptyStorageView(storage).slice(0, 0).length());
+        }
+    }
+
+    @Test
+    public void testNestedSlices() {
+        for (Storage storage : storages()) {
+            StorageView view = storage.createView(new Interval(10, 4), new Interval(30, 3), new Interval(50, 5));
+
+            StorageView nested = view.slice(2, 9).slice(1, 6);
+            assertArrayEquals(view.slice(3, 6).getIntervals(), nested.getIntervals());
+            assertArrayEquals(new byte[] {13, 30, 31, 32, 50, 51}, nested.getData());
+
+            assertArrayEquals(new byte[] {31}, nested.slice(2, 3).slice(0, 1).getData());
+            assertArrayEquals(new byte[] {52, 53}, storage.createView(new Interval(50, 5)).slice(1, 4).slice(1, 2)
+                .getData());
+        }
+    }
+
+    @Test
+    public void testSliceOutsideOfView() {
+        for (Storage storage : storages()) {
+            StorageView view = storage.createView(new Interval(10, 4), new Interval(30, 3));
+
+            assertThrows(IndexOutOfBoundsException.class, () -> view.slice(5, 3));
+            assertThrows(IndexOutOfBoundsException.class, () -> view.slice(-1, 1));
+            assertThrows(IndexOutOfBoundsException.class, () -> view.slice(8, 0));
+            assertThrows(IndexOutOfBoundsException.class, () -> view.slice(2, 4).slice(1, 4));
+            assertThrows(IndexOutOfBoundsException.class, () -> new EmptyStorageView(storage).slice(0, 1));
+        }
+    }
+
+    /**
+     * A channel that accepts at most the given amount of bytes per write.
+     */
+    private static class TrickleChannel implements WritableByteChannel {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private final int maxWrite;
+
+        private TrickleChannel(int maxWrite) {
+            this.maxWrite = maxWrite;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = Math.min(maxWrite, src.remaining());
+            for (int i = 0; i < length; i++) {
+                out.write(src.get());
+            }
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link TieredStorage}.
+ */
+public class TieredStorageTest {
+
+    /**
+     * A storage in memory whose next read fails.
+     */
+    private static class TestStorage extends ArrayStorage {
+
+        volatile boolean failRead = false;
+
+        TestStorage(int size) {
+            super(size);
+        }
+
+        @Override
+        public void read(int storagePos, byte[] dest, int destPos, int length) {
+            if (failRead) {
+                failRead = false;
+                throw new IllegalStateException("read failed");
+            }
+
+            super.read(storagePos, dest, destPos, length);
+        }
+    }
+
+    private static void access(Storage storage, int position, int times) {
+        for (int i = 0; i < times; i++) {
+            storage.read(position, new byte[1], 0, 1);
+        }
+    }
+
+    @Test
+    public void testHotBlockIsPromoted() {
+        ArrayStorage slow = new ArrayStorage(64);
+        slow.write(20, new byte[] {1, 2, 3}, 0, 3);
+        TieredStorage storage = new TieredStorage(new ArrayStorage(16), slow, 16);
+
+        access(storage, 20, 3);
+        access(storage, 40, 1);
+        assertEquals(4, storage.getSlowAccesses());
+
+        // the fast tier holds a single block, so only the hotter one is promoted
+        assertEquals(1, storage.migrate());
+
+        byte[] data = new byte[3];
+        storage.read(20, data, 0, 3);
+        assertArrayEquals(new byte[] {1, 2, 3}, data);
+        assertEquals(1, storage.getFastAccesses());
+        assertEquals(4, storage.getSlowAccesses());
+
+        // a block that was not accessed is not promoted
+        assertEquals(0, storage.migrate());
+    }
+
+    @Test
+    public void testColdBlockIsDemoted() {
+        ArrayStorage slow = new ArrayStorage(64);
+        TieredStorage storage = new TieredStorage(new ArrayStorage(16), slow, 16);
+
+        access(storage, 0, 2);
+        assertEquals(1, storage.migrate());
+        storage.write(1, new byte[] {7}, 0, 1);
+
+        // the resident block is only replaced by a block that was accessed more often
+        access(storage, 32, 1);
+        assertEquals(0, storage.migrate());
+
+        access(storage, 32, 8);
+        assertEquals(1, storage.migrate());
+
+        // the modified block was written back when it was demoted
+        byte[] data = new byte[1];
+        slow.read(1, data, 0, 1);
+        assertEquals(7, data[0]);
+
+        long slowAccesses = storage.getSlowAccesses();
+        storage.read(1, data, 0, 1);
+        assertEquals(7, data[0]);
+        assertEquals(slowAccesses + 1, storage.getSlowAccesses());
+    }
+
+    @Test
+    public void testFlushWritesBack() {
+        ArrayStorage slow = new ArrayStorage(32);
+        TieredStorage storage = new TieredStorage(new ArrayStorage(32), slow, 16);
+
+        access(storage, 0, 1);
+        storage.migrate();
+        storage.write(14, new byte[] {1, 2, 3, 4}, 0, 4);
+
+        // the first block is in the fast tier, the second one is not
+        byte[] data = new byte[4];
+        slow.read(14, data, 0, 4);
+        assertArrayEquals(new byte[] {0, 0, 3, 4}, data);
+
+        storage.flush();
+        slow.read(14, data, 0, 4);
+        assertArrayEquals(new byte[] {1, 2, 3, 4}, data);
+
+        storage.write(0, new byte[] {5}, 0, 1);
+        storage.close();
+        slow.read(0, data, 0, 1);
+        assertEquals(5, data[0]);
+    }
+
+    @Test
+    public void testDataSurvivesMigrations() {
+        Random random = new Random(8);
+        TieredStorage storage = new TieredStorage(new ArrayStorage(24), new ArrayStorage(100), 8);
+        byte[] expected = new byte[100];
+
+        for (int round = 0; round < 300; round++) {
+            int start = random.nextInt(100);
+            int length = random.nextInt(Math.min(20, 100 - start) + 1);
+
+            if (random.nextBoolean()) {
+                byte[] data = new byte[length];
+                random.nextBytes(data);
+                storage.write(start, data, 0, length);
+                System.arraycopy(data, 0, expected, start, length);
+            } else {
+                byte[] data = new byte[length];
+                storage.read(start, data, 0, length);
+                for (int i = 0; i < length; i++) {
+                    assertEquals(expected[start + i], data[i]);
+                }
+            }
+
+            if (round % 10 == 0) {
+                storage.migrate();
+            }
+        }
+
+        byte[] data = new byte[100];
+        storage.read(0, data, 0, 100);
+        assertArrayEquals(expected, data);
+    }
+
+    @Test
+    public void testFailureDoesNotStopMigration() throws InterruptedException {
+        TestStorage slow = new TestStorage(64);
+        TieredStorage storage = new TieredStorage(new ArrayStorage(16), slow, 16);
+
+        try (storage) {
+            access(storage, 0, 100);
+
+            slow.failRead = true;
+            storage.startMigration(10, TimeUnit.MILLISECONDS);
+
+            // the first migration fails to read the block
+            for (int i = 0; i < 500 && slow.failRead; i++) {
+                Thread.sleep(10);
+            }
+            assertFalse(slow.failRead);
+
+            // a later one promotes it
+            for (int i = 0; i < 500 && storage.getFastAccesses() == 0; i++) {
+                Thread.sleep(10);
+                access(storage, 0, 1);
+            }
+            assertTrue(storage.getFastAccesses() > 0);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package p2.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link Storage#readv(Interval[], byte[], int)} and {@link Storage#writev(Interval[], byte[], int)}.
+ */
+public class VectoredIoTest {
+
+    private static final int SIZE = 256;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Returns one storage of every kind. One of them only implements the abstract methods, so that the default
+     * implementations of {@link Storage} are used.
+     */
+    private List<Storage> storages() throws IOException {
+        ArrayStorage delegate = new ArrayStorage(SIZE);
+        Storage defaults = new Storage() {
+            @Override
+            public void write(int storagePos, byte[] source, int sourcePos, int length) {
+                delegate.write(storagePos, source, sourcePos, length);
+            }
+
+            @Override
+            public void read(int storagePos, byte[] dest, int destPos, int length) {
+                delegate.read(storagePos, dest, destPos, length);
+            }
+
+            @Override
+            public int getSize() {
+                return delegate.getSize();
+            }
+        };
+
+        return List.of(
+            new ArrayStorage(SIZE),
+            defaults,
+            new OffHeapStorage(SIZE),
+            // small pages and a budget of three pages, so that the intervals evict each other's pages
+            new PagedFileStorage(directory.resolve("paged"), SIZE, 8, 24),
+            new MappedFileStorage(directory.resolve("mapped"), SIZE),
+            new AsyncFileStorage(directory.resolve("async"), SIZE)
+        );
+    }
+
+    /**
+     * Splits the given range of the storage into intervals of random lengths and shuffles them.
+     */
+    private static List<Interval> randomIntervals(Random random, int start, int length) {
+        List<Interval> intervals = new ArrayList<>();
+
+        while (length > 0) {
+            int part = Math.min(length, 1 + random.nextInt(12));
+            intervals.add(new Interval(start, part));
+            start += part;
+            length -= part;
+        }
+
+        Collections.shuffle(intervals, random);
+        return intervals;
+    }
+
+    @Test
+    public void testUnorderedIntervals() throws IOException {
+        for (Storage storage : storages()) {
+            try (storage) {
+                byte[] source = {9, 1, 2, 3, 4, 5, 6, 7, 9};
+                Interval[] intervals = {new Interval(200, 3), new Interval(7, 2), new Interval(100, 1),
+                    new Interval(9, 1)};
+
+                storage.writev(intervals, source, 1);
+
+                byte[] data = new byte[10];
+                storage.readv(intervals, data, 2);
+                assertArrayEquals(new byte[] {0, 0, 1, 2, 3, 4, 5, 6, 7, 0}, data);
+
+                // the intervals at 7 and 9 were written as a single range
+                byte[] range = new byte[3];
+                storage.readv(new Interval[] {new Interval(7, 3)}, range, 0);
+                assertArrayEquals(new byte[] {4, 5, 7}, range);
+            }
+        }
+    }
+
+    @Test
+    public void testPartialIntervals() throws IOException {
+        for (Storage storage : storages()) {
+            try (storage) {
+                byte[] source = new byte[40];
+                for (int i = 0; i < source.length; i++) {
+                    source[i] = (byte) (i + 1);
+                }
+                storage.writev(new Interval[] {new Interval(30, 20), new Interval(60, 20)}, source, 0);
+
+                // read parts of the written intervals, crossing pages, in a different order and split
+                byte[] data = new byte[12];
+                storage.readv(new Interval[] {new Interval(75, 5), new Interval(45, 4), new Interval(31, 3)}, data, 0);
+                assertArrayEquals(new byte[] {36, 37, 38, 39, 40, 16, 17, 18, 19, 2, 3, 4}, data);
+
+                // overwrite a part of the written range with a single interval
+                storage.writev(new Interval[] {new Interval(48, 14)}, new byte[14], 0);
+                byte[] after = new byte[4];
+                storage.readv(new Interval[] {new Interval(47, 2), new Interval(61, 2)}, after, 0);
+                assertArrayEquals(new byte[] {18, 0, 0, 23}, after);
+            }
+        }
+    }
+
+    @Test
+    public void testRandomIntervals() throws IOException {
+        for (Storage storage : storages()) {
+            try (storage) {
+                Random random = new Random(7);
+                byte[] expected = new byte[SIZE];
+
+                for (int round = 0; round < 50; round++) {
+                    int start = random.nextInt(SIZE);
+                    int length = random.nextInt(SIZE - start + 1);
+                    List<Interval> intervals = randomIntervals(random, start, length);
+
+                    byte[] source = new byte[length + 3];
+                    random.nextBytes(source);
+                    storage.writev(intervals.toArray(new Interval[0]), source, 3);
+
+                    int sourcePos = 3;
+                    for (Interval interval : intervals) {
+                        System.arraycopy(source, sourcePos, expected, interval.start(), interval.length());
+                        sourcePos += interval.length();
+                    }
+
+                    List<Interval> read = randomIntervals(random, 0, SIZE);
+                    byte[] data = new byte[SIZE];
+                    storage.readv(read.toArray(new Interval[0]), data, 0);
+
+                    int destPos = 0;
+                    for (Interval interval : read) {
+                        for (int i = 0; i < interval.length(); i++) {
+                            assertEquals(expected[interval.start() + i], data[destPos++], storage.getClass().getName());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIntervalOutsideOfStorage() throws IOException {
+        for (Storage storage : storages()) {
+            try (storage) {
+                Interval[] intervals = {new Interval(0, 2), new Interval(SIZE - 1, 2)};
+
+                assertThrows(SegmentationFault.class, () -> storage.writev(intervals, new byte[4], 0));
+                assertThrows(SegmentationFault.class, () -> storage.readv(intervals, new byte[4], 0));
+            }
+        }
+    }
+
+    @Test
+    public void testIntervalOutsideOfStorageWritesNothing() throws IOException {
+        for (Storage storage : List.of(new ArrayStorage(SIZE), new PagedFileStorage(directory.resolve("paged"),
+            SIZE, 8, 24))) {
+            try (storage) {
+                Interval[] intervals = {new Interval(0, 2), new Interval(SIZE - 1, 2)};
+                assertThrows(SegmentationFault.class, () -> storage.writev(intervals, new byte[] {1, 2, 3, 4}, 0));
+
+                byte[] data = new byte[2];
+                storage.readv(new Interval[] {new Interval(0, 2)}, data, 0);
+                assertArrayEquals(new byte[2], data);
+            }
+        }
+    }
+
+    @Test
+    public void testUnwrittenFileIsReadAsZeros() throws IOException {
+        try (AsyncFileStorage storage = new AsyncFileStorage(directory.resolve("async"), SIZE)) {
+            storage.write(10, new byte[] {1, 2}, 0, 2);
+
+            // the file ends after the written data, so the reads of the last intervals end early
+            byte[] data = {-1, -1, -1, -1, -1};
+            storage.readv(new Interval[] {new Interval(11, 1), new Interval(12, 2), new Interval(200, 2)}, data, 0);
+            assertArrayEquals(new byte[] {2, 0, 0, 0, 0}, data);
+        }
+    }
+}